@@ -33,7 +33,9 @@ import org.matrix.console.contacts.PIDsRetriever;
 import org.matrix.console.ga.Analytics;
 import org.matrix.console.gcm.GcmRegistrationManager;
 import org.matrix.console.services.EventStreamService;
-import org.matrix.console.util.LogUtilities;
+import org.matrix.console.util.LogSink;
+import org.matrix.console.util.Metrics;
+import org.matrix.console.util.StartupTracer;
 
 import java.io.File;
 import java.util.Timer;
@@ -45,9 +47,18 @@ import java.util.TimerTask;
 public class ConsoleApplication extends Application {
     private static final String LOG_TAG = "ConsoleApplication";
 
+    private static final String METRICS_FILE_NAME = "metrics.txt";
+    private static final String STARTUP_TRACE_FILE_NAME = "startup-trace.json";
+
+    static {
+        // start the startup clock as soon as the application class is loaded
+        StartupTracer.getInstance();
+    }
+
     private Timer mActivityTransitionTimer;
     private TimerTask mActivityTransitionTimerTask;
     private boolean mIsInBackground = true;
+    private boolean mIsStartupTraceDumped = false;
     private final long MAX_ACTIVITY_TRANSITION_TIME_MS = 2000;
 
     // google analytics
@@ -65,6 +76,9 @@ public class ConsoleApplication extends Application {
     public void onCreate() {
         super.onCreate();
 
+        StartupTracer tracer = StartupTracer.getInstance();
+        StartupTracer.Span onCreateSpan = tracer.begin("ConsoleApplication.onCreate");
+
         instance = this;
 
         mOnActivityDestroyedListener = new EventEmitter<>();
@@ -78,18 +92,47 @@ public class ConsoleApplication extends Application {
         }
         catch (PackageManager.NameNotFoundException e) {}
 
-        LogUtilities.setLogDirectory(new File(getCacheDir().getAbsolutePath() + "/logs"));
-        LogUtilities.storeLogcat();
+        // the logs are stored in background
+        StartupTracer.Span span = tracer.begin("LogSink.start");
+        LogSink.getInstance().start(this);
+        tracer.end(span);
 
+        span = tracer.begin("Matrix.getInstance");
         VERSION_STRING = Matrix.getInstance(this).getVersion(false);
+        tracer.end(span);
 
+        span = tracer.begin("initGoogleAnalytics");
         initGoogleAnalytics();
+        tracer.end(span);
 
         // reset the application badge at application launch
+        span = tracer.begin("updateUnreadMessagesBadge");
         CommonActivityUtils.updateUnreadMessagesBadge(this, 0);
+        tracer.end(span);
 
         // get the contact update at application launch
+        span = tracer.begin("ContactsManager.refreshLocalContactsSnapshot");
         ContactsManager.refreshLocalContactsSnapshot(this);
+        tracer.end(span);
+
+        // load the contacts lookup results in background
+        span = tracer.begin("PIDsRetriever.loadCache");
+        PIDsRetriever.getIntance().loadCache(this);
+        tracer.end(span);
+
+        tracer.end(onCreateSpan);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // release the decoded avatars
+        Matrix matrix = Matrix.getInstance(this);
+
+        if (null != matrix) {
+            matrix.getAvatarBitmapCache().trimMemory(level);
+        }
     }
 
     public static ConsoleApplication getInstance() {
@@ -113,6 +156,14 @@ public class ConsoleApplication extends Application {
         PIDsRetriever.getIntance().onAppBackgrounded();
 
         MyPresenceManager.advertiseAllUnavailable();
+
+        // keep the metrics and the startup trace for an offline analysis
+        Metrics.getInstance().dumpToFile(new File(getCacheDir(), METRICS_FILE_NAME));
+
+        // the trace does not change once the startup is completed
+        if (!mIsStartupTraceDumped && (StartupTracer.getInstance().getStartupDuration() >= 0)) {
+            mIsStartupTraceDumped = StartupTracer.getInstance().dumpToFile(new File(getCacheDir(), STARTUP_TRACE_FILE_NAME));
+        }
     }
 
     /**
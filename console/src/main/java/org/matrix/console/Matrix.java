@@ -19,11 +19,15 @@ import org.matrix.console.activity.CommonActivityUtils;
 import org.matrix.console.activity.SplashActivity;
 import org.matrix.console.gcm.GcmRegistrationManager;
 import org.matrix.console.store.LoginStorage;
+import org.matrix.console.util.AvatarBitmapCache;
+import org.matrix.console.util.ImageTranscoder;
 import org.matrix.console.util.RageShake;
+import org.matrix.console.util.SessionsRegistry;
 
 import java.io.Console;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Singleton to control access to the Matrix SDK and providing point of control for MXSessions.
@@ -35,8 +39,11 @@ public class Matrix {
     private static Matrix instance = null;
 
     private LoginStorage mLoginStorage;
-    private ArrayList<MXSession> mMXSessions;
+    // the sessions, indexed by user id
+    private final SessionsRegistry<MXSession> mSessionsRegistry = new SessionsRegistry<MXSession>();
     private GcmRegistrationManager mGcmRegistrationManager;
+    private AvatarBitmapCache mAvatarBitmapCache;
+    private ImageTranscoder mImageTranscoder;
     private Context mAppContext;
 
     public boolean mHasBeenDisconnected = false;
@@ -44,8 +51,9 @@ public class Matrix {
     protected Matrix(Context appContext) {
         mAppContext = appContext.getApplicationContext();
         mLoginStorage = new LoginStorage(mAppContext);
-        mMXSessions = new ArrayList<MXSession>();
         mGcmRegistrationManager = new GcmRegistrationManager(mAppContext);
+        mAvatarBitmapCache = new AvatarBitmapCache();
+        mImageTranscoder = new ImageTranscoder();
         RageShake.getInstance().start(mAppContext);
     }
 
@@ -96,18 +104,18 @@ public class Matrix {
     }
 
     /**
-     * @return The list of sessions
+     * @return The list of sessions, a copy which can be modified
      */
     public ArrayList<MXSession> getSessions() {
-        ArrayList<MXSession> sessions = new ArrayList<MXSession>();
-
-        synchronized (instance) {
-            if (null != mMXSessions) {
-                sessions = new ArrayList<MXSession>(mMXSessions);
-            }
-        }
+        return new ArrayList<MXSession>(mSessionsRegistry.getSnapshot());
+    }
 
-        return sessions;
+    /**
+     * Retrieve the sessions without copying them, for the frequent readers.
+     * @return the immutable list of the sessions, which is not updated when a session is added or removed.
+     */
+    public List<MXSession> getSessionsSnapshot() {
+        return mSessionsRegistry.getSnapshot();
     }
 
     /**
@@ -116,37 +124,39 @@ public class Matrix {
      * The default session may be user-configured, or it may be the last session the user was using.
      * @return The default session or null.
      */
-    public synchronized MXSession getDefaultSession() {
-        ArrayList<MXSession> sessions = getSessions();
+    public MXSession getDefaultSession() {
+        List<MXSession> sessions = mSessionsRegistry.getSnapshot();
 
         if (sessions.size() > 0) {
             return sessions.get(0);
         }
 
-        ArrayList<HomeserverConnectionConfig> hsConfigList = mLoginStorage.getCredentialsList();
+        synchronized (this) {
+            // the sessions might have been created while waiting for the lock
+            sessions = mSessionsRegistry.getSnapshot();
 
-        // any account ?
-        if ((hsConfigList == null) || (hsConfigList.size() == 0)) {
-            return null;
-        }
+            if (sessions.size() > 0) {
+                return sessions.get(0);
+            }
 
-        ArrayList<String> matrixIds = new ArrayList<String>();
-        sessions = new ArrayList<MXSession>();
+            List<HomeserverConnectionConfig> hsConfigList = mLoginStorage.getCredentialsList();
 
-        for(HomeserverConnectionConfig config: hsConfigList) {
-            // avoid duplicated accounts.
-            if (config.getCredentials() != null && matrixIds.indexOf(config.getCredentials().userId) < 0) {
-                MXSession session = createSession(config);
-                sessions.add(session);
-                matrixIds.add(config.getCredentials().userId);
+            // any account ?
+            if ((hsConfigList == null) || (hsConfigList.size() == 0)) {
+                return null;
             }
-        }
 
-        synchronized (instance) {
-            mMXSessions = sessions;
-        }
+            for(HomeserverConnectionConfig config: hsConfigList) {
+                // avoid duplicated accounts.
+                if (config.getCredentials() != null && (null == mSessionsRegistry.get(config.getCredentials().userId))) {
+                    // the session updates its config, the credentials snapshot is not modified
+                    mSessionsRegistry.put(config.getCredentials().userId, createSession(LoginStorage.copyConfig(config)));
+                }
+            }
 
-        return sessions.get(0);
+            sessions = mSessionsRegistry.getSnapshot();
+            return (sessions.size() > 0) ? sessions.get(0) : null;
+        }
     }
 
     /**
@@ -161,24 +171,15 @@ public class Matrix {
     /**
      *Retrieve a session from an user Id.
      * The application should be able to manage multi session.
+     * The lookup is lock free.
      * @param matrixId the matrix id
      * @return the MXsession if it exists.
      */
-    public synchronized MXSession getSession(String matrixId) {
-        if (null != matrixId) {
-            ArrayList<MXSession> sessions;
+    public MXSession getSession(String matrixId) {
+        MXSession session = mSessionsRegistry.get(matrixId);
 
-            synchronized (this) {
-                sessions = getSessions();
-            }
-
-            for (MXSession session : sessions) {
-                Credentials credentials = session.getCredentials();
-
-                if ((null != credentials) && (credentials.userId.equals(matrixId))) {
-                    return session;
-                }
-            }
+        if (null != session) {
+            return session;
         }
 
         return getDefaultSession();
@@ -221,20 +222,39 @@ public class Matrix {
      * @return the mediasCache.
      */
     public MXMediasCache getMediasCache() {
-        if (getSessions().size() > 0) {
-            return getSessions().get(0).getMediasCache();
+        List<MXSession> sessions = mSessionsRegistry.getSnapshot();
+
+        if (sessions.size() > 0) {
+            return sessions.get(0).getMediasCache();
         }
         return null;
     }
 
+    /**
+     * Return the application wide avatar bitmaps cache.
+     * @return the avatar bitmaps cache.
+     */
+    public AvatarBitmapCache getAvatarBitmapCache() {
+        return mAvatarBitmapCache;
+    }
+
+    /**
+     * @return the outgoing images transcoder.
+     */
+    public ImageTranscoder getImageTranscoder() {
+        return mImageTranscoder;
+    }
+
     /**
      * Return the used latestMessages caches.
      * This class can inherited to customized it.
      * @return the latest messages cache.
      */
     public MXLatestChatMessageCache getDefaultLatestChatMessageCache() {
-        if (getSessions().size() > 0) {
-            return getSessions().get(0).getLatestChatMessageCache();
+        List<MXSession> sessions = mSessionsRegistry.getSnapshot();
+
+        if (sessions.size() > 0) {
+            return sessions.get(0).getLatestChatMessageCache();
         }
         return null;
     }
@@ -248,23 +268,20 @@ public class Matrix {
             return false;
         }
 
-        Boolean res;
+        List<MXSession> sessions = instance.mSessionsRegistry.getSnapshot();
+        Boolean res = (sessions.size() > 0);
 
-        synchronized (instance) {
-            res = (null != instance.mMXSessions) && (instance.mMXSessions.size() > 0);
+        if (!res) {
+            Log.e(LOG_TAG, "hasValidSessions : has no session");
+        } else {
+            for(MXSession session : sessions) {
+                // some GA issues reported that the data handler can be null
+                // so assume the application should be restarted
+                res &= (null != session.getDataHandler());
+            }
 
             if (!res) {
-                Log.e(LOG_TAG, "hasValidSessions : has no session");
-            } else {
-                for(MXSession session : instance.mMXSessions) {
-                    // some GA issues reported that the data handler can be null
-                    // so assume the application should be restarted
-                    res &= (null != session.getDataHandler());
-                }
-
-                if (!res) {
-                    Log.e(LOG_TAG, "hasValidSessions : one sesssion has no valid data hanlder");
-                }
+                Log.e(LOG_TAG, "hasValidSessions : one sesssion has no valid data hanlder");
             }
         }
 
@@ -275,13 +292,7 @@ public class Matrix {
      * Refresh the sessions push rules.
      */
     public void refreshPushRules() {
-        ArrayList<MXSession> sessions = null;
-
-        synchronized (this) {
-            sessions = getSessions();
-        }
-
-        for(MXSession session : sessions) {
+        for(MXSession session : mSessionsRegistry.getSnapshot()) {
             if (null != session.getDataHandler()) {
                 session.getDataHandler().refreshPushRules();
             }
@@ -301,9 +312,7 @@ public class Matrix {
 
         session.clear(context);
 
-        synchronized (instance) {
-            mMXSessions.remove(session);
-        }
+        mSessionsRegistry.remove(SessionsRegistry.getUserId(session), session);
     }
 
     /**
@@ -312,10 +321,8 @@ public class Matrix {
      * @param clearCredentials  true to clear the credentials.
      */
     public synchronized void clearSessions(Context context, Boolean clearCredentials) {
-        synchronized (instance) {
-            while (mMXSessions.size() > 0) {
-                clearSession(context, mMXSessions.get(0), clearCredentials);
-            }
+        for(MXSession session : mSessionsRegistry.getSnapshot()) {
+            clearSession(context, session, clearCredentials);
         }
     }
 
@@ -325,8 +332,12 @@ public class Matrix {
      */
     public synchronized void addSession(MXSession session) {
         mLoginStorage.addCredentials(session.getHomeserverConfig());
-        synchronized (instance) {
-            mMXSessions.add(session);
+        MXSession replacedSession = mSessionsRegistry.put(SessionsRegistry.getUserId(session), session);
+
+        // the user was already logged in : the previous session cannot be retrieved anymore
+        if ((null != replacedSession) && (replacedSession != session) && replacedSession.isAlive()) {
+            Log.e(LOG_TAG, "addSession : replace the session of " + SessionsRegistry.getUserId(session));
+            replacedSession.stopEventStream();
         }
     }
 
@@ -383,11 +394,12 @@ public class Matrix {
 
         synchronized (instance) {
             // build a new sessions list
-            ArrayList<HomeserverConnectionConfig> configs = mLoginStorage.getCredentialsList();
+            List<HomeserverConnectionConfig> configs = mLoginStorage.getCredentialsList();
 
             for(HomeserverConnectionConfig config : configs) {
-                MXSession session = createSession(config);
-                mMXSessions.add(session);
+                if (null != config.getCredentials()) {
+                    mSessionsRegistry.put(config.getCredentials().userId, createSession(LoginStorage.copyConfig(config)));
+                }
             }
         }
 
@@ -25,6 +25,7 @@ import org.matrix.androidsdk.data.MyUser;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.User;
+import org.matrix.console.util.SessionsRegistry;
 
 import java.util.Collection;
 import java.util.HashMap;
@@ -57,13 +58,16 @@ public class MyPresenceManager {
         }
     }
 
-    private static HashMap<MXSession, MyPresenceManager> instances = new HashMap<MXSession, MyPresenceManager>();
+    // the presence managers, indexed by session user id
+    private static final SessionsRegistry<MyPresenceManager> instances = new SessionsRegistry<MyPresenceManager>();
 
+    private final MXSession mSession;
     private MyUser myUser;
     private Handler mHandler;
     private String latestAdvertisedPresence = ""; // Presence we're advertising
 
     private MyPresenceManager(Context context, MXSession session) {
+        mSession = session;
         myUser = session.getMyUser();
         mHandler = new Handler(Looper.getMainLooper());
 
@@ -98,20 +102,40 @@ public class MyPresenceManager {
      */
     private static MyPresenceManager createInstance(Context context, MXSession session) {
         MyPresenceManager instance = new MyPresenceManager(context, session);
-        instances.put(session, instance);
+        instances.put(SessionsRegistry.getUserId(session), instance);
         return instance;
     }
 
+    /**
+     * Retrieve the registered presence manager of a session.
+     * @param session the session
+     * @return the presence manager, null if there is none.
+     */
+    private static MyPresenceManager getRegisteredInstance(MXSession session) {
+        MyPresenceManager instance = instances.get(SessionsRegistry.getUserId(session));
+
+        // the user might have logged in again with another session
+        return ((null != instance) && (instance.mSession == session)) ? instance : null;
+    }
+
     /**
      * Search a presence manager from a dedicated session
+     * The lookup is lock free when the manager exists.
      * @param context the context
      * @param session the session
      * @return the linked presence manager
      */
-    public static synchronized MyPresenceManager getInstance(Context context, MXSession session) {
-        MyPresenceManager instance = instances.get(session);
+    public static MyPresenceManager getInstance(Context context, MXSession session) {
+        MyPresenceManager instance = getRegisteredInstance(session);
+
         if (instance == null) {
-            instance = createInstance(context, session);
+            synchronized (MyPresenceManager.class) {
+                instance = getRegisteredInstance(session);
+
+                if (instance == null) {
+                    instance = createInstance(context, session);
+                }
+            }
         }
         return instance;
     }
@@ -123,7 +147,7 @@ public class MyPresenceManager {
      */
     public static synchronized void createPresenceManager(Context context, Collection<MXSession> sessions) {
         for(MXSession session : sessions) {
-            if (!instances.containsKey(session)) {
+            if (null == getRegisteredInstance(session)) {
                 createInstance(context, session);
             }
         }
@@ -134,7 +158,7 @@ public class MyPresenceManager {
      * @param session the session
      */
     public static synchronized void remove(MXSession session) {
-        instances.remove(session);
+        instances.remove(SessionsRegistry.getUserId(session), getRegisteredInstance(session));
     }
 
     /**
@@ -151,9 +175,7 @@ public class MyPresenceManager {
     }
 
     private static void advertiseAll(String presence) {
-        Collection<MyPresenceManager> values = instances.values();
-
-        for(MyPresenceManager myPresenceManager : values) {
+        for(MyPresenceManager myPresenceManager : instances.getSnapshot()) {
             myPresenceManager.advertisePresence(presence);
         }
     }
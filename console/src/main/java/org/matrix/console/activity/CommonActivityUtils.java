@@ -89,6 +89,9 @@ public class CommonActivityUtils {
             // unregister from the GCM.
             Matrix.getInstance(activity).getSharedGcmRegistrationManager().unregisterSession(session, null);
 
+            // forget the contacts lookup results of the account
+            PIDsRetriever.getIntance().onAccountRemoved(session.getMyUserId());
+
             // clear credentials
             Matrix.getInstance(activity).clearSession(activity, session, clearCredentials);
         }
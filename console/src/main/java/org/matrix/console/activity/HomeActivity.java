@@ -32,6 +32,7 @@ import android.text.TextWatcher;
 import android.text.method.LinkMovementMethod;
 import android.text.style.URLSpan;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -71,6 +72,7 @@ import org.matrix.console.fragments.ContactsListDialogFragment;
 import org.matrix.console.fragments.RoomCreationDialogFragment;
 import org.matrix.console.gcm.GcmRegistrationManager;
 import org.matrix.console.services.EventStreamService;
+import org.matrix.console.util.Metrics;
 import org.matrix.console.util.RageShake;
 import org.matrix.console.view.AddAccountAlertDialog;
 
@@ -94,6 +96,11 @@ public class HomeActivity extends MXCActionBarActivity {
 
     private static final String LOG_TAG = "HomeActivity";
 
+    // metrics
+    private static final Metrics.Histogram ROOM_LIST_REFRESH_DURATION = Metrics.getInstance().getHistogram("home.room_list_refresh_us");
+    private static final Metrics.Histogram ROOM_LIST_FULL_SORT_DURATION = Metrics.getInstance().getHistogram("home.room_list_full_sort_us");
+    private static final Metrics.Histogram ROOM_LIST_PARTIAL_SORT_DURATION = Metrics.getInstance().getHistogram("home.room_list_partial_sort_us");
+
     private ExpandableListView mMyRoomList = null;
 
     private static final String PUBLIC_ROOMS_LIST_LIST = "PUBLIC_ROOMS_LIST_LIST";
@@ -120,6 +127,17 @@ public class HomeActivity extends MXCActionBarActivity {
 
     private boolean refreshOnChunkEnd = false;
 
+    // the room list refreshes are coalesced to one per frame
+    private boolean mIsRoomListRefreshScheduled = false;
+    private boolean mIsRoomListFullSortRequired = false;
+
+    private final Choreographer.FrameCallback mRoomListRefreshCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            refreshRoomList();
+        }
+    };
+
     private MenuItem mCallMenuItem = null;
 
     // about
@@ -561,6 +579,68 @@ public class HomeActivity extends MXCActionBarActivity {
         }
     }
 
+    /**
+     * Retrieve the adapter section of a session.
+     * @param session the session.
+     * @return the section index, -1 if the session is unknown.
+     */
+    private int getSessionSection(MXSession session) {
+        return mAdapter.getSectionIndex(session);
+    }
+
+    /**
+     * Schedule a room list refresh on the next frame.
+     * The refreshes requested before this frame are coalesced.
+     * Must be called from the UI thread.
+     */
+    private void scheduleRoomListRefresh() {
+        scheduleRoomListRefresh(false);
+    }
+
+    /**
+     * Schedule a room list refresh on the next frame.
+     * The refreshes requested before this frame are coalesced.
+     * Must be called from the UI thread.
+     * @param fullSort true to sort the whole rooms list instead of moving only the updated rooms.
+     */
+    private void scheduleRoomListRefresh(boolean fullSort) {
+        mIsRoomListFullSortRequired |= fullSort;
+
+        // the list is fully refreshed when the activity is resumed
+        if (!mIsPaused && !mIsRoomListRefreshScheduled) {
+            mIsRoomListRefreshScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mRoomListRefreshCallback);
+        }
+    }
+
+    /**
+     * Apply the pending room list updates.
+     */
+    private void refreshRoomList() {
+        mIsRoomListRefreshScheduled = false;
+
+        if (mIsPaused) {
+            return;
+        }
+
+        long startTime = Metrics.startTimer();
+
+        if (mIsRoomListFullSortRequired) {
+            mAdapter.sortSummaries();
+            ROOM_LIST_FULL_SORT_DURATION.recordSince(startTime);
+        } else if (mAdapter.hasUpdatedSummaries()) {
+            mAdapter.sortUpdatedSummaries();
+            ROOM_LIST_PARTIAL_SORT_DURATION.recordSince(startTime);
+        }
+
+        mIsRoomListFullSortRequired = false;
+        refreshOnChunkEnd = false;
+
+        mAdapter.notifyDataSetChanged();
+
+        ROOM_LIST_REFRESH_DURATION.recordSince(startTime);
+    }
+
     /**
      * Add a MXEventListener to the session listeners.
      * @param session the sessions.
@@ -611,19 +691,19 @@ public class HomeActivity extends MXCActionBarActivity {
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        mAdapter.sortSummaries();
-                        mAdapter.notifyDataSetChanged();
+                        mAdapter.onRoomUpdated(getSessionSection(session), roomId);
+                        scheduleRoomListRefresh();
                     }
                 });
             }
 
             @Override
-            public void onRoomInternalUpdate(String roomId) {
+            public void onRoomInternalUpdate(final String roomId) {
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        mAdapter.sortSummaries();
-                        mAdapter.notifyDataSetChanged();
+                        mAdapter.onRoomUpdated(getSessionSection(session), roomId);
+                        scheduleRoomListRefresh();
                     }
                 });
             }
@@ -645,8 +725,7 @@ public class HomeActivity extends MXCActionBarActivity {
                 HomeActivity.this.runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        List<MXSession> sessions = new ArrayList<MXSession>(Matrix.getMXSessions(HomeActivity.this));
-                        final int section = sessions.indexOf(session);
+                        final int section = getSessionSection(session);
 
                         RoomSummary summary = mAdapter.getSummaryByRoomId(section, roomId);
                         if (null != summary) {
@@ -670,9 +749,8 @@ public class HomeActivity extends MXCActionBarActivity {
                         // or deleted
                         EventStreamService.checkDisplayedNotification();
 
-                        if (!mIsPaused && refreshOnChunkEnd) {
-                            mAdapter.sortSummaries();
-                            mAdapter.notifyDataSetChanged();
+                        if (refreshOnChunkEnd) {
+                            scheduleRoomListRefresh();
                         }
 
                         refreshOnChunkEnd = false;
@@ -686,11 +764,11 @@ public class HomeActivity extends MXCActionBarActivity {
                     @Override
                     public void run() {
                         if ((event.roomId != null) && RoomSummary.isSupportedEvent(event)) {
-                            List<MXSession> sessions = new ArrayList<MXSession>(Matrix.getMXSessions(HomeActivity.this));
-                            final int section = sessions.indexOf(session);
+                            final int section = getSessionSection(session);
                             String matrixId = session.getCredentials().userId;
 
                             mAdapter.setLatestEvent(section, event, roomState, false);
+                            mAdapter.onRoomUpdated(section, event.roomId);
 
                             ViewedRoomTracker rTracker = ViewedRoomTracker.getInstance();
                             String viewedRoomId = rTracker.getViewedRoomId();
@@ -712,39 +790,49 @@ public class HomeActivity extends MXCActionBarActivity {
 
 
             @Override
-            public void onNewRoom(String roomId) {
-                if (mInitialSyncComplete) {
-                    RoomSummary summary = session.getDataHandler().getStore().getSummary(roomId);
-
-                    // sanity checks
-                    if (null != summary) {
-                        addSummary(summary);
-                        mAdapter.sortSummaries();
+            public void onNewRoom(final String roomId) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mInitialSyncComplete) {
+                            RoomSummary summary = session.getDataHandler().getStore().getSummary(roomId);
+
+                            // sanity checks
+                            if (null != summary) {
+                                addSummary(summary);
+                                mAdapter.onRoomUpdated(getSessionSection(session), roomId);
+                                scheduleRoomListRefresh();
+                            }
+                        }
                     }
-                }
+                });
             }
 
             @Override
-            public void onRoomSyncWithLimitedTimeline(String roomId) {
-                if (mInitialSyncComplete) {
-                    List<MXSession> sessions = new ArrayList<MXSession>(Matrix.getMXSessions(HomeActivity.this));
-                    final int section = sessions.indexOf(session);
-
-                    RoomSummary summary = mAdapter.getSummaryByRoomId(section, roomId);
-                    if (null != summary) {
-                        mAdapter.removeRoomSummary(section, summary);
-                    }
+            public void onRoomSyncWithLimitedTimeline(final String roomId) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mInitialSyncComplete) {
+                            final int section = getSessionSection(session);
 
-                    summary = session.getDataHandler().getStore().getSummary(roomId);
+                            RoomSummary summary = mAdapter.getSummaryByRoomId(section, roomId);
+                            if (null != summary) {
+                                mAdapter.removeRoomSummary(section, summary);
+                            }
 
-                    // sanity checks
-                    if (null != summary) {
-                        addSummary(summary);
-                        mAdapter.sortSummaries();
-                    }
+                            summary = session.getDataHandler().getStore().getSummary(roomId);
 
-                    refreshOnChunkEnd = true;
-                }
+                            // sanity checks
+                            if (null != summary) {
+                                addSummary(summary);
+                                mAdapter.onRoomUpdated(section, roomId);
+                            }
+
+                            refreshOnChunkEnd = true;
+                        }
+                    }
+                });
             }
 
 
@@ -788,8 +876,7 @@ public class HomeActivity extends MXCActionBarActivity {
 
                 // only add summaries to rooms we have not left.
                 if (!isMembershipInRoom(RoomMember.MEMBERSHIP_LEAVE, selfUserId, summary)) {
-                    List<MXSession> sessions = new ArrayList<MXSession>(Matrix.getMXSessions(HomeActivity.this));
-                    int section = sessions.indexOf(session);
+                    int section = getSessionSection(session);
 
                     mAdapter.addRoomSummary(section, summary);
                 }
@@ -940,6 +1027,7 @@ public class HomeActivity extends MXCActionBarActivity {
         // it does not trigger any live event.
         // So, it is safer to sort the messages when debackgrounding
         mAdapter.sortSummaries();
+        mIsRoomListFullSortRequired = false;
         // expand/collapse to force th group refresh
         collapseAllGroups();
         // all the groups must be displayed during a search
@@ -1261,7 +1349,7 @@ public class HomeActivity extends MXCActionBarActivity {
                 HomeActivity.this.runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        final int sectionPos = sessions.indexOf(session);
+                        final int sectionPos = getSessionSection(session);
 
                         CommonActivityUtils.logout(HomeActivity.this, session, true);
 
@@ -42,6 +42,8 @@ public class ImageSliderActivity extends FragmentActivity {
 
     public static final String EXTRA_MATRIX_ID = "org.matrix.console.activity.ImageSliderActivity.EXTRA_MATRIX_ID";
 
+    private ImagesSliderAdapter mAdapter;
+
     public class DepthPageTransformer implements ViewPager.PageTransformer {
         private static final float MIN_SCALE = 0.75f;
 
@@ -111,9 +113,18 @@ public class ImageSliderActivity extends FragmentActivity {
         MXSession session = getSession(intent);
         HomeserverConnectionConfig hsConfig = session != null ? session.getHomeserverConfig() : null;
 
-        ImagesSliderAdapter adapter = new ImagesSliderAdapter(this, hsConfig, listImageMessages, maxImageWidth, maxImageHeight);
-        viewPager.setAdapter(adapter);
+        mAdapter = new ImagesSliderAdapter(this, hsConfig, listImageMessages, maxImageWidth, maxImageHeight);
+        viewPager.setAdapter(mAdapter);
         viewPager.setCurrentItem(position);
         viewPager.setPageTransformer(true, new DepthPageTransformer());
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (null != mAdapter) {
+            mAdapter.release();
+        }
+    }
 }
@@ -30,7 +30,6 @@ import android.graphics.BitmapFactory;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
-import android.os.HandlerThread;
 import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
@@ -46,6 +45,7 @@ import android.webkit.MimeTypeMap;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.MXSession;
@@ -78,6 +78,9 @@ import org.matrix.console.fragments.MembersInvitationDialogFragment;
 import org.matrix.console.fragments.RoomInfoUpdateDialogFragment;
 import org.matrix.console.fragments.RoomMembersDialogFragment;
 import org.matrix.console.services.EventStreamService;
+import org.matrix.console.util.BitmapUtils;
+import org.matrix.console.util.ImageTranscoder;
+import org.matrix.console.util.Metrics;
 import org.matrix.console.util.NotificationUtils;
 import org.matrix.console.util.RageShake;
 import org.matrix.console.util.ResourceUtils;
@@ -87,7 +90,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -95,6 +97,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Displays a single room with messages.
@@ -147,6 +152,18 @@ public class RoomActivity extends MXCActionBarActivity {
     private static final int MEDIUM_IMAGE_SIZE = 1000;
     private static final int SMALL_IMAGE_SIZE  = 500;
 
+    // medias preparation workers pool
+    private static final int MAX_MEDIAS_PREPARATION_THREADS = 4;
+    private static final int MEDIAS_PREPARATION_HEAP_FRACTION = 4;
+
+    // medias preparation metrics
+    private static final Metrics.Histogram MEDIA_SAVING_DURATION = Metrics.getInstance().getHistogram("medias.saving_us");
+    private static final Metrics.Histogram MEDIA_THUMBNAIL_DURATION = Metrics.getInstance().getHistogram("medias.thumbnail_us");
+    private static final Metrics.Histogram MEDIA_TRANSCODING_DURATION = Metrics.getInstance().getHistogram("medias.transcoding_us");
+    private static final Metrics.Histogram MEDIA_PREPARATION_DURATION = Metrics.getInstance().getHistogram("medias.preparation_us");
+    private static final Metrics.Histogram MEDIAS_BATCH_DURATION = Metrics.getInstance().getHistogram("medias.batch_us");
+    private static final Metrics.Counter MEDIAS_FAILURES_COUNT = Metrics.getInstance().getCounter("medias.failures");
+
     private ConsoleMessageListFragment mConsoleMessageListFragment;
     private MXSession mSession;
     private Room mRoom;
@@ -446,37 +463,19 @@ public class RoomActivity extends MXCActionBarActivity {
                     // check if the media could be resized
                     if ("image/jpeg".equals(mPendingMimeType)) {
 
-                        System.gc();
-                        FileInputStream imageStream = null;
-
                         try {
                             Uri uri = Uri.parse(mPendingMediaUrl);
                             final String filename = uri.getPath();
 
                             final int rotationAngle = ImageUtils.getRotationAngleForBitmap(RoomActivity.this, uri);
 
-                            imageStream = new FileInputStream (new File(filename));
+                            long fileSize = new File(filename).length();
 
-                            int fileSize =  imageStream.available();
-
-                            BitmapFactory.Options options = new BitmapFactory.Options();
-                            options.inJustDecodeBounds = true;
-                            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                            options.outWidth = -1;
-                            options.outHeight = -1;
-
-                            // get the full size bitmap
-                            Bitmap fullSizeBitmap = null;
-                            try {
-                                fullSizeBitmap = BitmapFactory.decodeStream(imageStream, null, options);
-                            } catch (OutOfMemoryError e) {
-                                Log.e(LOG_TAG, "Onclick BitmapFactory.decodeStream : " + e.getMessage());
-                            }
+                            // read the bounds without decoding the pixels
+                            BitmapFactory.Options options = BitmapUtils.decodeBounds(filename);
 
                             final ImageSize fullImageSize = new ImageSize(options.outWidth, options.outHeight);
 
-                            imageStream.close();
-
                             int maxSide = (fullImageSize.mHeight >  fullImageSize.mWidth) ? fullImageSize.mHeight : fullImageSize.mWidth;
 
                             // can be rescaled ?
@@ -557,57 +556,61 @@ public class RoomActivity extends MXCActionBarActivity {
                                 fragment.setListener( new ImageSizeSelectionDialogFragment.ImageSizeListener() {
                                     @Override
                                     public void onSelected(int pos) {
-                                        final int fPos = pos;
-
-                                        RoomActivity.this.runOnUiThread(new Runnable() {
+                                        // pos == 0 -> original
+                                        final ImageSize imageSize = (0 != pos) ? sizesList.get(pos) : null;
+                                        final String thumbnailUrl = mPendingThumbnailUrl;
+                                        final String mediaUrl = mPendingMediaUrl;
+                                        final String mimeType = mPendingMimeType;
+                                        final String filename = mPendingFilename;
+
+                                        mPendingThumbnailUrl = null;
+                                        mPendingMediaUrl = null;
+                                        mPendingMimeType = null;
+                                        mPendingFilename = null;
+                                        manageSendMoreButtons();
+
+                                        // the image is decoded, scaled, rotated and encoded by a medias preparation worker
+                                        ExecutorService executor = newMediasPreparationExecutor(1);
+
+                                        executor.execute(new Runnable() {
                                             @Override
                                             public void run() {
-                                                try {
-                                                    // pos == 0 -> original
-                                                    if (0 != fPos) {
-                                                        FileInputStream imageStream = new FileInputStream (new File(filename));
-
-                                                        ImageSize imageSize = sizesList.get(fPos);
-                                                        InputStream resizeBitmapStream = null;
-
-                                                        try {
-                                                            resizeBitmapStream = ImageUtils.resizeImage(imageStream, -1, (fullImageSize.mWidth + imageSize.mWidth - 1) / imageSize.mWidth, 75);
-                                                        } catch (OutOfMemoryError ex) {
-                                                            Log.e(LOG_TAG, "Onclick BitmapFactory.createScaledBitmap : " + ex.getMessage());
-                                                        } catch (Exception e) {
-                                                            Log.e(LOG_TAG, "Onclick BitmapFactory.createScaledBitmap failed : " + e.getMessage());
-                                                        }
-
-                                                        if (null != resizeBitmapStream) {
-                                                            String bitmapURL = mMediasCache.saveMedia(resizeBitmapStream, null, "image/jpeg");
+                                                String uploadedMediaUrl = mediaUrl;
+                                                String uploadedMimeType = mimeType;
 
-
-                                                            if (null != bitmapURL) {
-                                                                mPendingMediaUrl = bitmapURL;
-                                                            }
-
-                                                            resizeBitmapStream.close();
-                                                        }
+                                                try {
+                                                    boolean isRotated = false;
+
+                                                    if (null != imageSize) {
+                                                        // the transcoder applies the exif rotation
+                                                        ImageTranscoder.Result result = Matrix.getInstance(RoomActivity.this).getImageTranscoder().transcode(RoomActivity.this, mediaUrl, mimeType, Math.max(imageSize.mWidth, imageSize.mHeight));
+                                                        uploadedMediaUrl = result.mMediaUrl;
+                                                        uploadedMimeType = result.mMimeType;
+                                                        isRotated = result.isTranscoded();
                                                     }
 
                                                     // try to apply exif rotation
-                                                    if (0 != rotationAngle) {
+                                                    if ((0 != rotationAngle) && !isRotated) {
                                                         // rotate the image content
-                                                        ImageUtils.rotateImage(RoomActivity.this, mPendingMediaUrl, rotationAngle, mMediasCache);
+                                                        ImageUtils.rotateImage(RoomActivity.this, uploadedMediaUrl, rotationAngle, mMediasCache);
                                                     }
                                                 } catch (Exception e) {
                                                     Log.e(LOG_TAG, "Onclick " + e.getMessage());
                                                 }
 
-                                                //
-                                                mConsoleMessageListFragment.uploadImageContent(mPendingThumbnailUrl, mPendingMediaUrl, mPendingFilename, mPendingMimeType);
-                                                mPendingThumbnailUrl = null;
-                                                mPendingMediaUrl = null;
-                                                mPendingMimeType = null;
-                                                mPendingFilename = null;
-                                                manageSendMoreButtons();
+                                                final String fMediaUrl = uploadedMediaUrl;
+                                                final String fMimeType = uploadedMimeType;
+
+                                                RoomActivity.this.runOnUiThread(new Runnable() {
+                                                    @Override
+                                                    public void run() {
+                                                        mConsoleMessageListFragment.uploadImageContent(thumbnailUrl, fMediaUrl, filename, fMimeType);
+                                                    }
+                                                });
                                             }
                                         });
+
+                                        executor.shutdown();
                                     }
                                 });
 
@@ -1251,299 +1254,391 @@ public class RoomActivity extends MXCActionBarActivity {
     }
 
     /**
-     * Send a list of images from their URIs
-     * @param mediaUris the media URIs
+     * A media prepared to be sent.
      */
-    private void sendMedias(final ArrayList<Uri> mediaUris) {
+    private static class PreparedMedia {
+        // null if the media is not a valid image
+        String mThumbnailUrl;
+        String mMediaUrl;
+        String mMimeType;
+        String mFilename;
+    }
 
-        final View progressBackground =  findViewById(R.id.medias_processing_progress_background);
-        final View progress = findViewById(R.id.medias_processing_progress);
+    /**
+     * Create the workers pool which prepares some medias.
+     * The caller shuts it down once the medias are posted, so the workers stop when they are prepared.
+     * @param mediaCount the number of medias to prepare.
+     * @return the executor.
+     */
+    private ExecutorService newMediasPreparationExecutor(int mediaCount) {
+        return Executors.newFixedThreadPool(getMediasPreparationThreadsCount(mediaCount), new ThreadFactory() {
+            private int mThreadIndex = 0;
 
-        progressBackground.setVisibility(View.VISIBLE);
-        progress.setVisibility(View.VISIBLE);
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "MediasEncodingThread" + (mThreadIndex++));
+            }
+        });
+    }
 
-        final HandlerThread handlerThread = new HandlerThread("MediasEncodingThread");
-        handlerThread.start();
+    /**
+     * Compute the number of medias which are prepared in parallel.
+     * Each worker decodes a subsampled image to build its thumbnail and to transcode it,
+     * so the pool is bounded by the CPUs count and by a fraction of the application heap.
+     * @param mediaCount the number of medias to prepare.
+     * @return the workers count.
+     */
+    private int getMediasPreparationThreadsCount(int mediaCount) {
+        // a subsampled image is at most twice larger than the thumbnail, + the scaled thumbnail
+        long bytesPerMedia = BitmapUtils.getMaxThumbnailBytes(mConsoleMessageListFragment.getMaxThumbnailWith(), mConsoleMessageListFragment.getMaxThumbnailHeight());
 
-        final android.os.Handler handler = new android.os.Handler(handlerThread.getLooper());
+        // the transcoding decodes a far larger image (about 60 MB for a 1600 pixels maximum side)
+        ImageTranscoder transcoder = Matrix.getInstance(this).getImageTranscoder();
+        bytesPerMedia = Math.max(bytesPerMedia, ImageTranscoder.getTranscodingMemory(transcoder.getMaxSide(this)));
+        long memoryBudget = Runtime.getRuntime().maxMemory() / MEDIAS_PREPARATION_HEAP_FRACTION;
 
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                handler.post(new Runnable() {
-                    public void run() {
-                        final int mediaCount = mediaUris.size();
-
-                        for (Uri anUri : mediaUris) {
-                            // crash from Google Analytics : null URI on a nexus 5
-                            if (null != anUri) {
-                                final Uri mediaUri = anUri;
-                                String filename = null;
-
-                                if (mediaUri.toString().startsWith("content://")) {
-                                    Cursor cursor = null;
-                                    try {
-                                        cursor = RoomActivity.this.getContentResolver().query(mediaUri, null, null, null, null);
-                                        if (cursor != null && cursor.moveToFirst()) {
-                                            filename = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
-                                        }
-                                    } catch (Exception e) {
-                                        Log.e(LOG_TAG, "cursor.getString " + e.getMessage());
-                                    } finally {
-                                        if (null != cursor) {
-                                            cursor.close();
-                                        }
-                                    }
+        int count = Math.min(MAX_MEDIAS_PREPARATION_THREADS, Runtime.getRuntime().availableProcessors());
+        count = Math.min(count, mediaCount);
 
-                                    if (TextUtils.isEmpty(filename)) {
-                                        List uriPath = mediaUri.getPathSegments();
-                                        filename = (String) uriPath.get(uriPath.size() - 1);
-                                    }
-                                } else if (mediaUri.toString().startsWith("file://")) {
-                                    // try to retrieve the filename from the file url.
-                                    try {
-                                        filename = anUri.getLastPathSegment();
-                                    } catch (Exception e) {
-                                    }
+        if (bytesPerMedia > 0) {
+            count = (int) Math.min(count, memoryBudget / bytesPerMedia);
+        }
 
-                                    if (TextUtils.isEmpty(filename)) {
-                                        filename = null;
-                                    }
-                                }
+        return Math.max(1, count);
+    }
 
-                                final String fFilename = filename;
+    /**
+     * Build a unique media filename in the medias cache.
+     * The medias are saved in parallel so the cache default filename (based on the current time) cannot be used.
+     * @param prefix the filename prefix.
+     * @param index the media index.
+     * @param mimeType the media mimetype.
+     * @return the filename.
+     */
+    private static String getUniqueMediaFilename(String prefix, int index, String mimeType) {
+        String filename = prefix + System.currentTimeMillis() + "_" + index;
 
-                                ResourceUtils.Resource resource = ResourceUtils.openResource(RoomActivity.this, mediaUri);
+        if (null != mimeType) {
+            String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
 
-                                if (null == resource) {
-                                    RoomActivity.this.runOnUiThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            handlerThread.quit();
-                                            progressBackground.setVisibility(View.GONE);
-                                            progress.setVisibility(View.GONE);
+            if (null != extension) {
+                filename += "." + extension;
+            }
+        }
 
-                                            Toast.makeText(RoomActivity.this,
-                                                    getString(R.string.message_failed_to_upload),
-                                                    Toast.LENGTH_LONG).show();
-                                        }
+        return filename;
+    }
 
-                                        ;
-                                    });
+    /**
+     * Retrieve the filename of a media.
+     * @param mediaUri the media URI.
+     * @return the filename, null if it cannot be retrieved.
+     */
+    private String getMediaFilename(Uri mediaUri) {
+        String filename = null;
 
-                                    return;
-                                }
+        if (mediaUri.toString().startsWith("content://")) {
+            Cursor cursor = null;
+            try {
+                cursor = RoomActivity.this.getContentResolver().query(mediaUri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    filename = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "cursor.getString " + e.getMessage());
+            } finally {
+                if (null != cursor) {
+                    cursor.close();
+                }
+            }
 
-                                // save the file in the filesystem
-                                String mediaUrl = mMediasCache.saveMedia(resource.contentStream, null, resource.mimeType);
-                                String mimeType = resource.mimeType;
-                                Boolean isManaged = false;
+            if (TextUtils.isEmpty(filename)) {
+                List uriPath = mediaUri.getPathSegments();
+                filename = (String) uriPath.get(uriPath.size() - 1);
+            }
+        } else if (mediaUri.toString().startsWith("file://")) {
+            // try to retrieve the filename from the file url.
+            try {
+                filename = mediaUri.getLastPathSegment();
+            } catch (Exception e) {
+            }
 
-                                if ((null != resource.mimeType) && resource.mimeType.startsWith("image/")) {
-                                    // manage except if there is an error
-                                    isManaged = true;
+            if (TextUtils.isEmpty(filename)) {
+                filename = null;
+            }
+        }
 
-                                    // try to retrieve the gallery thumbnail
-                                    // if the image comes from the gallery..
-                                    Bitmap thumbnailBitmap = null;
+        return filename;
+    }
 
-                                    try {
-                                        ContentResolver resolver = getContentResolver();
+    /**
+     * Prepare a media to be sent : save it in the medias cache and build its thumbnail if it is an image.
+     * This method is called from the medias preparation workers.
+     * @param mediaUri the media URI.
+     * @param index the media index.
+     * @param transcode true to apply the images transcoding policy.
+     * @return the prepared media, null if the media cannot be read.
+     */
+    private PreparedMedia prepareMedia(Uri mediaUri, int index, boolean transcode) {
+        long startTime = Metrics.startTimer();
 
-                                        List uriPath = mediaUri.getPathSegments();
-                                        long imageId = -1;
-                                        String lastSegment = (String) uriPath.get(uriPath.size() - 1);
+        PreparedMedia preparedMedia = new PreparedMedia();
+        preparedMedia.mFilename = getMediaFilename(mediaUri);
 
-                                        // > Kitkat
-                                        if (lastSegment.startsWith("image:")) {
-                                            lastSegment = lastSegment.substring("image:".length());
-                                        }
+        ResourceUtils.Resource resource = ResourceUtils.openResource(RoomActivity.this, mediaUri);
 
-                                        imageId = Long.parseLong(lastSegment);
+        if (null == resource) {
+            return null;
+        }
 
-                                        thumbnailBitmap = MediaStore.Images.Thumbnails.getThumbnail(resolver, imageId, MediaStore.Images.Thumbnails.MINI_KIND, null);
-                                    } catch (Exception e) {
-                                        Log.e(LOG_TAG, "MediaStore.Images.Thumbnails.getThumbnail " + e.getMessage());
-                                    }
+        // stream the file to the filesystem : the media is only read once
+        long stageStartTime = Metrics.startTimer();
+        String mediaUrl = mMediasCache.saveMedia(resource.contentStream, getUniqueMediaFilename("file", index, resource.mimeType), resource.mimeType);
+        String mimeType = resource.mimeType;
+        Boolean isManaged = false;
 
-                                    double thumbnailWidth = mConsoleMessageListFragment.getMaxThumbnailWith();
-                                    double thumbnailHeight = mConsoleMessageListFragment.getMaxThumbnailHeight();
-
-                                    // no thumbnail has been found or the mimetype is unknown
-                                    if ((null == thumbnailBitmap) || (thumbnailBitmap.getHeight() > thumbnailHeight) || (thumbnailBitmap.getWidth() > thumbnailWidth)) {
-                                        // need to decompress the high res image
-                                        BitmapFactory.Options options = new BitmapFactory.Options();
-                                        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                                        resource = ResourceUtils.openResource(RoomActivity.this, mediaUri);
-
-                                        // get the full size bitmap
-                                        Bitmap fullSizeBitmap = null;
-
-                                        if (null == thumbnailBitmap) {
-                                            fullSizeBitmap = BitmapFactory.decodeStream(resource.contentStream, null, options);
-                                        }
-
-                                        if ((fullSizeBitmap != null) || (thumbnailBitmap != null)) {
-                                            double imageWidth;
-                                            double imageHeight;
-
-                                            if (null == thumbnailBitmap) {
-                                                imageWidth = fullSizeBitmap.getWidth();
-                                                imageHeight = fullSizeBitmap.getHeight();
-                                            } else {
-                                                imageWidth = thumbnailBitmap.getWidth();
-                                                imageHeight = thumbnailBitmap.getHeight();
-                                            }
+        try {
+            resource.contentStream.close();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "prepareMedia : close " + e.getMessage());
+        }
 
-                                            if (imageWidth > imageHeight) {
-                                                thumbnailHeight = thumbnailWidth * imageHeight / imageWidth;
-                                            } else {
-                                                thumbnailWidth = thumbnailHeight * imageWidth / imageHeight;
-                                            }
+        MEDIA_SAVING_DURATION.recordSince(stageStartTime);
 
-                                            try {
-                                                thumbnailBitmap = Bitmap.createScaledBitmap((null == fullSizeBitmap) ? thumbnailBitmap : fullSizeBitmap, (int) thumbnailWidth, (int) thumbnailHeight, false);
-                                            } catch (OutOfMemoryError ex) {
-                                                Log.e(LOG_TAG, "Bitmap.createScaledBitmap " + ex.getMessage());
-                                            }
-                                        }
-
-                                        // the valid mimetype is not provided
-                                        if ("image/*".equals(mimeType)) {
-                                            // make a jpg snapshot.
-                                            mimeType = null;
-                                        }
-
-                                        // unknown mimetype
-                                        if ((null == mimeType) || (mimeType.startsWith("image/"))) {
-                                            try {
-                                                // try again
-                                                if (null == fullSizeBitmap) {
-                                                    System.gc();
-                                                    fullSizeBitmap = BitmapFactory.decodeStream(resource.contentStream, null, options);
-                                                }
+        if (null == mediaUrl) {
+            return null;
+        }
 
-                                                if (null != fullSizeBitmap) {
-                                                    Uri uri = Uri.parse(mediaUrl);
+        // the image is decoded from the saved file
+        String mediaPath = null;
+        BitmapFactory.Options bounds = null;
 
-                                                    if (null == mimeType) {
-                                                        // the images are save in jpeg format
-                                                        mimeType = "image/jpeg";
-                                                    }
+        if ((null != mimeType) && mimeType.startsWith("image/")) {
+            mediaPath = Uri.parse(mediaUrl).getPath();
 
-                                                    resource.contentStream.close();
-                                                    resource = ResourceUtils.openResource(RoomActivity.this, mediaUri);
+            // read the bounds without decoding the pixels
+            bounds = BitmapUtils.decodeBounds(mediaPath);
 
-                                                    try {
-                                                        mMediasCache.saveMedia(resource.contentStream, uri.getPath(), mimeType);
-                                                    } catch (OutOfMemoryError ex) {
-                                                        Log.e(LOG_TAG, "mMediasCache.saveMedia" + ex.getMessage());
-                                                    }
+            // the valid mimetype is not provided
+            if ("image/*".equals(mimeType)) {
+                mimeType = bounds.outMimeType;
+            }
 
-                                                } else {
-                                                    isManaged = false;
-                                                }
+            // manage except if the file is not an image
+            isManaged = (bounds.outWidth > 0) && (bounds.outHeight > 0);
+        }
 
-                                                resource.contentStream.close();
+        if (isManaged) {
+            stageStartTime = Metrics.startTimer();
 
-                                            } catch (Exception e) {
-                                                isManaged = false;
-                                                Log.e(LOG_TAG, "sendMedias " + e.getMessage());
-                                            }
-                                        }
+            // try to retrieve the gallery thumbnail
+            // if the image comes from the gallery..
+            Bitmap thumbnailBitmap = null;
 
-                                        // reduce the memory consumption
-                                        if (null != fullSizeBitmap) {
-                                            fullSizeBitmap.recycle();
-                                            System.gc();
-                                        }
-                                    }
+            try {
+                ContentResolver resolver = getContentResolver();
 
-                                    String thumbnailURL = mMediasCache.saveBitmap(thumbnailBitmap, null);
+                List uriPath = mediaUri.getPathSegments();
+                long imageId = -1;
+                String lastSegment = (String) uriPath.get(uriPath.size() - 1);
 
-                                    if (null != thumbnailBitmap) {
-                                        thumbnailBitmap.recycle();
-                                    }
+                // > Kitkat
+                if (lastSegment.startsWith("image:")) {
+                    lastSegment = lastSegment.substring("image:".length());
+                }
 
-                                    //
-                                    if (("image/jpg".equals(mimeType) || "image/jpeg".equals(mimeType)) && (null != mediaUrl)) {
+                imageId = Long.parseLong(lastSegment);
 
-                                        Uri imageUri = Uri.parse(mediaUrl);
-                                        // get the exif rotation angle
-                                        final int rotationAngle = ImageUtils.getRotationAngleForBitmap(RoomActivity.this, imageUri);
+                thumbnailBitmap = MediaStore.Images.Thumbnails.getThumbnail(resolver, imageId, MediaStore.Images.Thumbnails.MINI_KIND, null);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "MediaStore.Images.Thumbnails.getThumbnail " + e.getMessage());
+            }
 
-                                        if (0 != rotationAngle) {
-                                            // always apply the rotation to the image
-                                            ImageUtils.rotateImage(RoomActivity.this, thumbnailURL, rotationAngle, mMediasCache);
+            int thumbnailWidth = mConsoleMessageListFragment.getMaxThumbnailWith();
+            int thumbnailHeight = mConsoleMessageListFragment.getMaxThumbnailHeight();
 
-                                            // the high res media orientation should be not be done on uploading
-                                            //ImageUtils.rotateImage(RoomActivity.this, mediaUrl, rotationAngle, mMediasCache))
-                                        }
-                                    }
+            // no thumbnail has been found : decode a subsampled image
+            // so the memory consumption does not depend on the camera resolution.
+            if (null == thumbnailBitmap) {
+                thumbnailBitmap = BitmapUtils.decodeSampledBitmap(mediaPath, bounds, thumbnailWidth, thumbnailHeight);
+            }
 
-                                    // is the image content valid ?
-                                    if (isManaged && (null != thumbnailURL)) {
+            thumbnailBitmap = BitmapUtils.scaleToFit(thumbnailBitmap, thumbnailWidth, thumbnailHeight);
 
-                                        final String fThumbnailURL = thumbnailURL;
-                                        final String fMediaUrl = mediaUrl;
-                                        final String fMimeType = mimeType;
+            if (null == thumbnailBitmap) {
+                isManaged = false;
+            } else if (null == mimeType) {
+                // the images are save in jpeg format
+                mimeType = "image/jpeg";
+            }
 
-                                        RoomActivity.this.runOnUiThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                // if there is only one image
-                                                if (mediaCount == 1) {
-                                                    // display an image preview before sending it
-                                                    mPendingThumbnailUrl = fThumbnailURL;
-                                                    mPendingMediaUrl = fMediaUrl;
-                                                    mPendingMimeType = fMimeType;
-                                                    mPendingFilename = fFilename;
-
-                                                    mConsoleMessageListFragment.scrollToBottom();
-
-                                                    manageSendMoreButtons();
-                                                } else {
-                                                    mConsoleMessageListFragment.uploadImageContent(fThumbnailURL, fMediaUrl, fFilename, fMimeType);
-                                                }
-                                            }
-                                        });
-                                    }
-                                }
+            String thumbnailURL = mMediasCache.saveBitmap(thumbnailBitmap, getUniqueMediaFilename("thumb", index, "image/jpeg"));
 
-                                // default behaviour
-                                if ((!isManaged) && (null != mediaUrl)) {
-                                    final String fMediaUrl = mediaUrl;
-                                    final String fMimeType = mimeType;
-
-                                    RoomActivity.this.runOnUiThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if ((null != fMimeType) && fMimeType.startsWith("video/")) {
-                                                mConsoleMessageListFragment.uploadVideoContent(fMediaUrl, null, fMimeType);
-                                            } else {
-                                                mConsoleMessageListFragment.uploadFileContent(fMediaUrl, fMimeType, fFilename);
-                                            }
-                                        }
-                                    });
+            if (null != thumbnailBitmap) {
+                thumbnailBitmap.recycle();
+            }
+
+            //
+            if (("image/jpg".equals(mimeType) || "image/jpeg".equals(mimeType))) {
+
+                Uri imageUri = Uri.parse(mediaUrl);
+                // get the exif rotation angle
+                final int rotationAngle = ImageUtils.getRotationAngleForBitmap(RoomActivity.this, imageUri);
+
+                if (0 != rotationAngle) {
+                    // always apply the rotation to the image
+                    ImageUtils.rotateImage(RoomActivity.this, thumbnailURL, rotationAngle, mMediasCache);
+
+                    // the high res media orientation should be not be done on uploading
+                    //ImageUtils.rotateImage(RoomActivity.this, mediaUrl, rotationAngle, mMediasCache))
+                }
+            }
+
+            MEDIA_THUMBNAIL_DURATION.recordSince(stageStartTime);
+
+            // is the image content valid ?
+            if (isManaged) {
+                preparedMedia.mThumbnailUrl = thumbnailURL;
+
+                // reduce the upload size according to the network
+                if (transcode) {
+                    stageStartTime = Metrics.startTimer();
+                    ImageTranscoder.Result result = Matrix.getInstance(RoomActivity.this).getImageTranscoder().transcode(RoomActivity.this, mediaUrl, mimeType);
+                    mediaUrl = result.mMediaUrl;
+                    mimeType = result.mMimeType;
+                    MEDIA_TRANSCODING_DURATION.recordSince(stageStartTime);
+                }
+            }
+        }
+
+        preparedMedia.mMediaUrl = mediaUrl;
+        preparedMedia.mMimeType = mimeType;
+
+        MEDIA_PREPARATION_DURATION.recordSince(startTime);
+
+        return preparedMedia;
+    }
+
+    /**
+     * Send a prepared media.
+     * @param preparedMedia the prepared media.
+     * @param mediaCount the number of medias sent together.
+     */
+    private void sendPreparedMedia(PreparedMedia preparedMedia, int mediaCount) {
+        if (null != preparedMedia.mThumbnailUrl) {
+            // if there is only one image
+            if (mediaCount == 1) {
+                // display an image preview before sending it
+                mPendingThumbnailUrl = preparedMedia.mThumbnailUrl;
+                mPendingMediaUrl = preparedMedia.mMediaUrl;
+                mPendingMimeType = preparedMedia.mMimeType;
+                mPendingFilename = preparedMedia.mFilename;
+
+                mConsoleMessageListFragment.scrollToBottom();
+
+                manageSendMoreButtons();
+            } else {
+                mConsoleMessageListFragment.uploadImageContent(preparedMedia.mThumbnailUrl, preparedMedia.mMediaUrl, preparedMedia.mFilename, preparedMedia.mMimeType);
+            }
+        } else if ((null != preparedMedia.mMimeType) && preparedMedia.mMimeType.startsWith("video/")) {
+            // default behaviour
+            mConsoleMessageListFragment.uploadVideoContent(preparedMedia.mMediaUrl, null, preparedMedia.mMimeType);
+        } else {
+            mConsoleMessageListFragment.uploadFileContent(preparedMedia.mMediaUrl, preparedMedia.mMimeType, preparedMedia.mFilename);
+        }
+    }
+
+    /**
+     * Send a list of images from their URIs.
+     * The medias are prepared in parallel by a bounded workers pool
+     * and they are sent in the list order as soon as they are ready.
+     * @param mediaUris the media URIs
+     */
+    private void sendMedias(final ArrayList<Uri> mediaUris) {
+        final ArrayList<Uri> uris = new ArrayList<Uri>();
+
+        for (Uri anUri : mediaUris) {
+            // crash from Google Analytics : null URI on a nexus 5
+            if (null != anUri) {
+                uris.add(anUri);
+            }
+        }
+
+        final int mediaCount = uris.size();
+
+        if (0 == mediaCount) {
+            return;
+        }
+
+        final long batchStartTime = Metrics.startTimer();
+
+        final View progressBackground =  findViewById(R.id.medias_processing_progress_background);
+        final View progress = findViewById(R.id.medias_processing_progress);
+        final TextView progressText = (TextView) findViewById(R.id.medias_processing_progress_text);
+
+        progressBackground.setVisibility(View.VISIBLE);
+        progress.setVisibility(View.VISIBLE);
+
+        if (mediaCount > 1) {
+            progressText.setText(getString(R.string.medias_processing_progress, 0, mediaCount));
+            progressText.setVisibility(View.VISIBLE);
+        }
+
+        // the following arrays are only accessed from the UI thread
+        final PreparedMedia[] preparedMedias = new PreparedMedia[mediaCount];
+        final boolean[] isPrepared = new boolean[mediaCount];
+        // [the next media to send, the number of prepared medias]
+        final int[] counters = new int[2];
+
+        final ExecutorService executor = newMediasPreparationExecutor(mediaCount);
+
+        for (int index = 0; index < mediaCount; index++) {
+            final int fIndex = index;
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final PreparedMedia preparedMedia = prepareMedia(uris.get(fIndex), fIndex, mediaCount > 1);
+
+                    RoomActivity.this.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            preparedMedias[fIndex] = preparedMedia;
+                            isPrepared[fIndex] = true;
+                            counters[1]++;
+
+                            if (null == preparedMedia) {
+                                MEDIAS_FAILURES_COUNT.inc();
+                                Toast.makeText(RoomActivity.this,
+                                        getString(R.string.message_failed_to_upload),
+                                        Toast.LENGTH_LONG).show();
+                            }
+
+                            // send the medias in the list order
+                            while ((counters[0] < mediaCount) && isPrepared[counters[0]]) {
+                                if (null != preparedMedias[counters[0]]) {
+                                    sendPreparedMedia(preparedMedias[counters[0]], mediaCount);
+                                    preparedMedias[counters[0]] = null;
                                 }
+                                counters[0]++;
                             }
-                        }
 
-                        RoomActivity.this.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                handlerThread.quit();
+                            progressText.setText(getString(R.string.medias_processing_progress, counters[1], mediaCount));
+
+                            if (counters[1] == mediaCount) {
+                                MEDIAS_BATCH_DURATION.recordSince(batchStartTime);
                                 progressBackground.setVisibility(View.GONE);
                                 progress.setVisibility(View.GONE);
-                            };
-                        });
-                    }
-                });
-            }
-        };
+                                progressText.setVisibility(View.GONE);
+                            }
+                        }
+                    });
+                }
+            });
+        }
 
-        Thread t = new Thread(r);
-        t.start();
+        // the workers stop when all the medias are prepared
+        executor.shutdown();
     }
 
     @SuppressLint("NewApi")
@@ -30,6 +30,7 @@ import org.matrix.console.R;
 import org.matrix.console.ga.Analytics;
 import org.matrix.console.gcm.GcmRegistrationManager;
 import org.matrix.console.services.EventStreamService;
+import org.matrix.console.util.StartupTracer;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -48,6 +49,9 @@ public class SplashActivity extends MXCActionBarActivity {
     private HashMap<MXSession, IMXEventListener> mListeners;
     private HashMap<MXSession, IMXEventListener> mDoneListeners;
 
+    // the whole splash screen phase
+    private StartupTracer.Span mSplashSpan = null;
+
     private boolean hasCorruptedStore() {
         boolean hasCorruptedStore = false;
         ArrayList<MXSession> sessions = Matrix.getMXSessions(this);
@@ -66,6 +70,10 @@ public class SplashActivity extends MXCActionBarActivity {
         if (mInitialSyncComplete && mPusherRegistrationComplete) {
             Log.e(LOG_TAG, "finishIfRead start HomeActivity");
 
+            StartupTracer tracer = StartupTracer.getInstance();
+            tracer.end(mSplashSpan);
+            tracer.onStartupCompleted();
+
             if (!hasCorruptedStore()) {
                 // Go to the home page
                 startActivity(new Intent(SplashActivity.this, HomeActivity.class));
@@ -82,12 +90,20 @@ public class SplashActivity extends MXCActionBarActivity {
 
         Log.e(LOG_TAG, "onCreate");
 
+        final StartupTracer tracer = StartupTracer.getInstance();
+        mSplashSpan = tracer.begin("SplashActivity");
+        StartupTracer.Span onCreateSpan = tracer.begin("SplashActivity.onCreate");
+
         setContentView(R.layout.activity_splash);
 
+        StartupTracer.Span span = tracer.begin("Matrix.getSessions");
         mSessions =  Matrix.getInstance(getApplicationContext()).getSessions();
+        tracer.end(span);
 
         if (mSessions == null) {
             Log.e(LOG_TAG, "onCreate no Sessions");
+            tracer.end(onCreateSpan);
+            tracer.end(mSplashSpan);
             finish();
             return;
         }
@@ -101,7 +117,14 @@ public class SplashActivity extends MXCActionBarActivity {
 
         for(MXSession session : mSessions) {
             final MXSession fSession = session;
+            final String userId = session.getCredentials().userId;
+
+            span = tracer.begin("store.open", userId);
             session.getDataHandler().getStore().open();
+            tracer.end(span);
+
+            // the store loading is included in the initial sync phase
+            final StartupTracer.Span initialSyncSpan = fSession.getDataHandler().isInitialSyncComplete() ? null : tracer.begin("initialSync", userId);
 
             final IMXEventListener eventListener = new MXEventListener() {
                 @Override
@@ -110,6 +133,7 @@ public class SplashActivity extends MXCActionBarActivity {
                     Boolean noMoreListener;
 
                     Log.e(LOG_TAG, "Session " + fSession.getCredentials().userId + " is initialized");
+                    tracer.end(initialSyncSpan);
 
                     synchronized(mListeners) {
                         mDoneListeners.put(fSession, mListeners.get(fSession));
@@ -154,6 +178,8 @@ public class SplashActivity extends MXCActionBarActivity {
             Matrix.getInstance(this).mHasBeenDisconnected = false;
         }
 
+        span = tracer.begin("EventStreamService.start");
+
         if (EventStreamService.getInstance() == null) {
             // Start the event stream service
             Intent intent = new Intent(this, EventStreamService.class);
@@ -164,15 +190,20 @@ public class SplashActivity extends MXCActionBarActivity {
             EventStreamService.getInstance().startAccounts(matrixIds);
         }
 
+        tracer.end(span);
+
         mGcmRegistrationManager = Matrix.getInstance(getApplicationContext())
                 .getSharedGcmRegistrationManager();
         mPusherRegistrationComplete = mGcmRegistrationManager.isGCMRegistred();
 
         if (!mPusherRegistrationComplete) {
+            final StartupTracer.Span pusherRegistrationSpan = tracer.begin("pusherRegistration");
+
             mGcmRegistrationManager.registerPusher(getApplicationContext(), new GcmRegistrationManager.GcmRegistrationIdListener() {
                 @Override
                 public void onPusherRegistered() {
                     Log.d(LOG_TAG, "The GCM registration is done");
+                    tracer.end(pusherRegistrationSpan);
                     mPusherRegistrationComplete = true;
                     finishIfReady();
                 }
@@ -199,6 +230,8 @@ public class SplashActivity extends MXCActionBarActivity {
             mGcmRegistrationManager.reregisterSessions(SplashActivity.this, null);
         }
 
+        tracer.end(onCreateSpan);
+
         boolean noUpdate;
 
         synchronized(mListeners) {
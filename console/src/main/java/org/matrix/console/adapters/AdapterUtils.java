@@ -21,9 +21,22 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
 import android.util.Log;
+import android.widget.ImageView;
 
+import org.matrix.androidsdk.HomeserverConnectionConfig;
+import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.console.Matrix;
+import org.matrix.console.R;
+import org.matrix.console.util.AvatarBitmapCache;
+
+import java.io.File;
 import java.util.List;
 
 /**
@@ -32,6 +45,12 @@ import java.util.List;
 public class AdapterUtils {
     private static final String LOG_TAG = "AdapterUtils";
 
+    // thread used to decode the avatars and the contacts thumbnails
+    private static HandlerThread mThumbnailsHandlerThread = null;
+    private static Handler mThumbnailsHandler = null;
+
+    private static Handler mUiHandler = null;
+
     /** Checks if the device can send SMS messages.
      *
      * @param context Context for obtaining the package manager.
@@ -50,6 +69,120 @@ public class AdapterUtils {
         }
     }
 
+    /** Display an avatar thumbnail.
+     * The shared avatar bitmaps cache is used when the thumbnail has already been downloaded.
+     * On a cache miss, the downloaded thumbnail is decoded in background and the default avatar is displayed meanwhile.
+     * The image view is tagged with the avatar url, so a recycled row does not display a previous avatar.
+     *
+     * @param context the context
+     * @param mediasCache the medias cache
+     * @param hsConfig the homeserver config
+     * @param imageView the image view
+     * @param url the avatar url
+     * @param size the thumbnail size in pixels
+     */
+    public static void loadAvatarThumbnail(Context context, final MXMediasCache mediasCache, final HomeserverConnectionConfig hsConfig, final ImageView imageView, final String url, final int size) {
+        final AvatarBitmapCache avatarBitmapCache = Matrix.getInstance(context).getAvatarBitmapCache();
+        Bitmap bitmap = avatarBitmapCache.getBitmap(url, size);
+
+        // the media cache only displays its downloads in the image views tagged with their url,
+        // so a pending download for a recycled row does not override this avatar.
+        imageView.setTag(url);
+
+        if (null != bitmap) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        imageView.setImageResource(R.drawable.ic_contact_picture_holo_light);
+
+        getThumbnailsHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                File file = mediasCache.thumbnailCacheFile(url, size);
+
+                // the decoded bitmap is cached even if the row has been recycled in the meantime
+                final Bitmap decodedBitmap = (null != file) ? avatarBitmapCache.decodeBitmap(url, size, file) : null;
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (TextUtils.equals(url, (String) imageView.getTag())) {
+                            if (null != decodedBitmap) {
+                                imageView.setImageBitmap(decodedBitmap);
+                            } else {
+                                // not yet downloaded
+                                mediasCache.loadAvatarThumbnail(hsConfig, imageView, url, size);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the handler of the thumbnails decoding thread.
+     */
+    private static synchronized Handler getThumbnailsHandler() {
+        if (null == mThumbnailsHandler) {
+            mThumbnailsHandlerThread = new HandlerThread("ThumbnailsThread", Thread.MIN_PRIORITY);
+            mThumbnailsHandlerThread.start();
+            mThumbnailsHandler = new Handler(mThumbnailsHandlerThread.getLooper());
+            mUiHandler = new Handler(Looper.getMainLooper());
+        }
+
+        return mThumbnailsHandler;
+    }
+
+    /** Display a contact thumbnail.
+     * The thumbnail is decoded in background when it is not cached, the default avatar is displayed meanwhile.
+     * The image view is tagged with the thumbnail uri, so a recycled row does not display a previous thumbnail.
+     *
+     * @param context the context
+     * @param imageView the image view
+     * @param thumbnailUri the contact thumbnail uri (can be null)
+     * @param size the thumbnail size in pixels
+     */
+    public static void loadContactThumbnail(Context context, final ImageView imageView, final String thumbnailUri, final int size) {
+        final AvatarBitmapCache avatarBitmapCache = Matrix.getInstance(context).getAvatarBitmapCache();
+        Bitmap bitmap = avatarBitmapCache.getBitmap(thumbnailUri, size);
+
+        imageView.setTag(thumbnailUri);
+
+        if (null != bitmap) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        imageView.setImageResource(R.drawable.ic_contact_picture_holo_light);
+
+        if (null == thumbnailUri) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+
+        getThumbnailsHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                // the decoded bitmap is cached even if the row has been recycled in the meantime
+                final Bitmap decodedBitmap = avatarBitmapCache.decodeBitmap(appContext, thumbnailUri, size);
+
+                if (null != decodedBitmap) {
+                    mUiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (TextUtils.equals(thumbnailUri, (String) imageView.getTag())) {
+                                imageView.setImageBitmap(decodedBitmap);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
     /** Launch a SMS intent if the device is capable.
      *
      * @param activity The parent activity (for context)
@@ -39,6 +39,8 @@ import org.matrix.console.util.SlidableImageInfo;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 
 /**
  * An adapter which can display room information.
@@ -47,6 +49,11 @@ public class ConsoleMessagesAdapter extends MessagesAdapter {
 
     private Handler mUiHandler;
 
+    // the image messages rows, in the display order
+    private final ImageMessagesIndex mImageMessagesIndex = new ImageMessagesIndex();
+    // true when the index must be rebuilt from the rows
+    private boolean mIsImageMessagesIndexDirty = false;
+
     public ConsoleMessagesAdapter(MXSession session, Context context, MXMediasCache mediasCache) {
         super(session, context, mediasCache);
 
@@ -63,6 +70,100 @@ public class ConsoleMessagesAdapter extends MessagesAdapter {
         }
     }
 
+    @Override
+    public void add(MessageRow row, boolean refresh) {
+        int count = getCount();
+
+        super.add(row, refresh);
+
+        // the row might be kept aside (e.g. during a search)
+        if (getCount() > count) {
+            mImageMessagesIndex.add(row);
+        }
+    }
+
+    @Override
+    public void insert(MessageRow row, int index) {
+        super.insert(row, index);
+
+        if (0 == index) {
+            mImageMessagesIndex.addToFront(row);
+        } else {
+            mIsImageMessagesIndexDirty = true;
+        }
+    }
+
+    @Override
+    public void addAll(Collection<? extends MessageRow> collection) {
+        super.addAll(collection);
+
+        for (MessageRow row : collection) {
+            mImageMessagesIndex.add(row);
+        }
+    }
+
+    @Override
+    public void addAll(MessageRow... items) {
+        super.addAll(items);
+
+        for (MessageRow row : items) {
+            mImageMessagesIndex.add(row);
+        }
+    }
+
+    @Override
+    public void remove(MessageRow row) {
+        int count = getCount();
+
+        super.remove(row);
+
+        // in search mode, the row is only removed from the live rows kept aside
+        if (getCount() < count) {
+            mImageMessagesIndex.remove(row);
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mImageMessagesIndex.clear();
+        mIsImageMessagesIndexDirty = false;
+    }
+
+    @Override
+    public void sort(Comparator<? super MessageRow> comparator) {
+        super.sort(comparator);
+        mIsImageMessagesIndexDirty = true;
+    }
+
+    /**
+     * @return the image messages index, rebuilt if the rows have been moved.
+     */
+    private ImageMessagesIndex getImageMessagesIndex() {
+        if (mIsImageMessagesIndexDirty) {
+            ArrayList<MessageRow> rows = new ArrayList<MessageRow>(getCount());
+
+            for (int position = 0; position < getCount(); position++) {
+                rows.add(getItem(position));
+            }
+
+            mImageMessagesIndex.reset(rows);
+            mIsImageMessagesIndexDirty = false;
+        }
+
+        return mImageMessagesIndex;
+    }
+
+    /**
+     * Build the displayed images list.
+     * @param selectedRow the selected image row.
+     * @param imageMessages the list to fill.
+     * @return the selected image position in the list, -1 if it is not found.
+     */
+    public int listImageMessages(MessageRow selectedRow, ArrayList<SlidableImageInfo> imageMessages) {
+        return getImageMessagesIndex().fillImageInfos(selectedRow, imageMessages);
+    }
+
     public int presenceOnlineColor() {
         return mContext.getResources().getColor(R.color.presence_online);
     }
@@ -22,18 +22,66 @@ import org.matrix.androidsdk.HomeserverConnectionConfig;
 import org.matrix.androidsdk.adapters.RoomMembersAdapter;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
 
 import org.matrix.console.R;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
  * An adapter which can display room information.
+ * The members can be repositioned one by one when their presence is updated,
+ * so a presence update does not trigger a whole list sort.
  */
 public class ConsoleRoomMembersAdapter extends RoomMembersAdapter {
 
-    public ConsoleRoomMembersAdapter(Context context, HomeserverConnectionConfig hsConfig, int layoutResourceId, RoomState roomState, MXMediasCache mediasCache, HashMap<String, String> membershipStrings) {
+    // when more members are moved, the whole list is sorted
+    private static final int MAX_REPOSITIONED_MEMBERS_RATIO = 8;
+
+    // the displayed members and their users, by user id
+    private final HashMap<String, RoomMember> mMembersByUserId = new HashMap<String, RoomMember>();
+    private final HashMap<String, User> mUsersByUserId = new HashMap<String, User>();
+
+    private final RoomMembersOrder mOrder;
+
+    // the displayed members, as a list
+    private final AbstractList<RoomMember> mMembersList = new AbstractList<RoomMember>() {
+        @Override
+        public RoomMember get(int location) {
+            return getItem(location);
+        }
+
+        @Override
+        public int size() {
+            return getCount();
+        }
+
+        @Override
+        public void add(int location, RoomMember member) {
+            insert(member, location);
+        }
+
+        @Override
+        public RoomMember remove(int location) {
+            RoomMember member = getItem(location);
+            ConsoleRoomMembersAdapter.super.remove(member);
+            return member;
+        }
+    };
+
+    public ConsoleRoomMembersAdapter(Context context, HomeserverConnectionConfig hsConfig, int layoutResourceId, final RoomState roomState, MXMediasCache mediasCache, HashMap<String, String> membershipStrings) {
         super(context, hsConfig, layoutResourceId, roomState, mediasCache, membershipStrings);
+
+        mOrder = new RoomMembersOrder(new RoomMembersOrder.NameProvider() {
+            @Override
+            public String getMemberName(String userId) {
+                return roomState.getMemberName(userId);
+            }
+        });
     }
 
 
@@ -52,4 +100,151 @@ public class ConsoleRoomMembersAdapter extends RoomMembersAdapter {
     public int presenceUnavailableColor() {
         return mContext.getResources().getColor(R.color.presence_unavailable);
     }
+
+    @Override
+    public void sortByLastActivePresence(boolean value) {
+        super.sortByLastActivePresence(value);
+        mOrder.setSortByLastActive(value);
+    }
+
+    /**
+     * @return true if the members are sorted by last activity.
+     */
+    public boolean isSortedByLastActivePresence() {
+        return mOrder.isSortedByLastActive();
+    }
+
+    /**
+     * Sort the whole list.
+     * The cached sort keys are kept : they are invalidated when the member names are updated.
+     */
+    @Override
+    public void sortMembers() {
+        sort(mOrder.getComparator());
+    }
+
+    @Override
+    public void updateMember(String userId, RoomMember member) {
+        // the member name might have been updated
+        mOrder.invalidateName(userId);
+        super.updateMember(userId, member);
+    }
+
+    /**
+     * Copy the last activity times of every user, and sort the whole list.
+     * The list is not refreshed : notifyDataSetChanged must be called.
+     */
+    public void refreshLastActiveTimes() {
+        for (User user : mUsersByUserId.values()) {
+            mOrder.setLastActiveTime(user.user_id, RoomMembersOrder.getLastActiveTime(user));
+        }
+
+        sortMembers();
+    }
+
+    @Override
+    public void add(RoomMember member) {
+        super.add(member);
+
+        if ((null != member) && (null != member.getUserId())) {
+            mMembersByUserId.put(member.getUserId(), member);
+        }
+    }
+
+    /**
+     * Remove the displayed member with the same user id.
+     * @param member the member to remove.
+     */
+    @Override
+    public void remove(RoomMember member) {
+        if ((null != member) && (null != member.getUserId())) {
+            RoomMember displayedMember = mMembersByUserId.remove(member.getUserId());
+
+            if (null != displayedMember) {
+                member = displayedMember;
+            }
+        }
+
+        super.remove(member);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mMembersByUserId.clear();
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        boolean isNew = super.saveUser(user);
+
+        if (null != user) {
+            mUsersByUserId.put(user.user_id, user);
+            mOrder.setLastActiveTime(user.user_id, RoomMembersOrder.getLastActiveTime(user));
+        }
+
+        return isNew;
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        super.deleteUser(user);
+
+        if (null != user) {
+            mUsersByUserId.remove(user.user_id);
+            mOrder.removeUser(user.user_id);
+        }
+    }
+
+    /**
+     * Tell if a user is displayed in the list.
+     * @param userId the user id.
+     * @return true if the user is displayed.
+     */
+    public boolean isDisplayed(String userId) {
+        return mMembersByUserId.containsKey(userId);
+    }
+
+    /**
+     * Store the last activity time of a displayed member.
+     * The member is not moved : see {@link #repositionMembers(Collection)}.
+     * @param userId the user id.
+     * @param lastActiveTime the last activity time, null if it is unknown.
+     * @return true if the member must be moved.
+     */
+    public boolean updateLastActiveTime(String userId, Long lastActiveTime) {
+        return isDisplayed(userId) && mOrder.setLastActiveTime(userId, lastActiveTime);
+    }
+
+    /**
+     * Move some members to their sorted positions, the other members are assumed to be sorted.
+     * The members are removed and then inserted with a binary search,
+     * the whole list is sorted when too many members have moved.
+     * The list is not refreshed : notifyDataSetChanged must be called.
+     * @param userIds the user ids of the moved members.
+     * @return the number of repositioned members.
+     */
+    public int repositionMembers(Collection<String> userIds) {
+        ArrayList<RoomMember> movedMembers = new ArrayList<RoomMember>();
+
+        for (String userId : userIds) {
+            RoomMember member = mMembersByUserId.get(userId);
+
+            if (null != member) {
+                movedMembers.add(member);
+            }
+        }
+
+        if (0 == movedMembers.size()) {
+            return 0;
+        }
+
+        if ((movedMembers.size() * MAX_REPOSITIONED_MEMBERS_RATIO) > getCount()) {
+            sortMembers();
+        } else {
+            RoomMembersOrder.reposition(mMembersList, movedMembers, mOrder.getComparator());
+        }
+
+        return movedMembers.size();
+    }
 }
@@ -27,21 +27,183 @@ import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.console.Matrix;
 import org.matrix.console.R;
+import org.matrix.console.util.Metrics;
 import org.matrix.androidsdk.adapters.RoomSummaryAdapter;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * An adapter which can display room information.
  */
 public class ConsoleRoomSummaryAdapter extends RoomSummaryAdapter {
 
+    // metrics
+    private static final Metrics.Counter MOVED_ROOMS_COUNT = Metrics.getInstance().getCounter("home.room_list_moved_rooms");
+
     private ArrayList<MXSession> mSessions = null;
 
+    // the section of each session
+    private HashMap<MXSession, Integer> mSectionBySession = new HashMap<MXSession, Integer>();
+
+    // the position of each room summary, by section
+    private ArrayList<HashMap<String, Integer>> mPositionByRoomIdBySection = new ArrayList<HashMap<String, Integer>>();
+
+    // the rooms whose latest event has been updated since the latest sort, by section
+    private ArrayList<HashSet<String>> mUpdatedRoomIdsBySection = new ArrayList<HashSet<String>>();
+
+    // same order as the RoomSummaryAdapter one : the most recent rooms first
+    // the summaries without latest event are the last ones, and are equal.
+    private static final Comparator<RoomSummary> mSummaryComparator = new Comparator<RoomSummary>() {
+        @Override
+        public int compare(RoomSummary lhs, RoomSummary rhs) {
+            boolean lhsHasEvent = (null != lhs) && (null != lhs.getLatestEvent());
+            boolean rhsHasEvent = (null != rhs) && (null != rhs.getLatestEvent());
+
+            if (!lhsHasEvent || !rhsHasEvent) {
+                return (lhsHasEvent == rhsHasEvent) ? 0 : (lhsHasEvent ? -1 : 1);
+            }
+
+            long lhsTs = lhs.getLatestEvent().getOriginServerTs();
+            long rhsTs = rhs.getLatestEvent().getOriginServerTs();
+
+            if (lhsTs > rhsTs) {
+                return -1;
+            } else if (lhsTs < rhsTs) {
+                return 1;
+            }
+            return 0;
+        }
+    };
+
     public ConsoleRoomSummaryAdapter(Context context, Collection<MXSession> sessions, int layoutResourceId, int headerLayoutResourceId)  {
         super(context, sessions.size(), layoutResourceId, headerLayoutResourceId);
         mSessions = new ArrayList<MXSession>(sessions);
+
+        for (int section = 0; section < sessions.size(); section++) {
+            mUpdatedRoomIdsBySection.add(new HashSet<String>());
+            mPositionByRoomIdBySection.add(new HashMap<String, Integer>());
+        }
+
+        refreshSectionBySession();
+    }
+
+    /**
+     * Rebuild the session to section map.
+     */
+    private void refreshSectionBySession() {
+        mSectionBySession.clear();
+
+        for (int section = 0; section < mSessions.size(); section++) {
+            mSectionBySession.put(mSessions.get(section), section);
+        }
+    }
+
+    /**
+     * Retrieve the section of a session.
+     * @param session the session.
+     * @return the section index, -1 if the session is not displayed.
+     */
+    public int getSectionIndex(MXSession session) {
+        Integer section = mSectionBySession.get(session);
+        return (null == section) ? -1 : section;
+    }
+
+    /**
+     * Update the room positions index of a section from a position.
+     * @param section the section.
+     * @param fromPosition the first position to update.
+     * @param toPosition the last position to update.
+     */
+    private void refreshPositions(int section, int fromPosition, int toPosition) {
+        ArrayList<ArrayList<RoomSummary>> summariesList = getRecentsSummariesList();
+
+        if ((section < 0) || (section >= mPositionByRoomIdBySection.size()) || (section >= summariesList.size())) {
+            return;
+        }
+
+        ArrayList<RoomSummary> summaries = summariesList.get(section);
+        HashMap<String, Integer> positionByRoomId = mPositionByRoomIdBySection.get(section);
+
+        for (int pos = Math.max(0, fromPosition); (pos <= toPosition) && (pos < summaries.size()); pos++) {
+            positionByRoomId.put(summaries.get(pos).getRoomId(), pos);
+        }
+    }
+
+    /**
+     * Rebuild the room positions index of a section.
+     * @param section the section.
+     */
+    private void refreshPositions(int section) {
+        if ((section >= 0) && (section < mPositionByRoomIdBySection.size())) {
+            mPositionByRoomIdBySection.get(section).clear();
+            refreshPositions(section, 0, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Retrieve the position of a room summary in its section.
+     * @param section the section.
+     * @param roomId the room id.
+     * @return the position, -1 if the room is not in the section.
+     */
+    private int getPosition(int section, String roomId) {
+        ArrayList<ArrayList<RoomSummary>> summariesList = getRecentsSummariesList();
+
+        if ((null == roomId) || (section < 0) || (section >= mPositionByRoomIdBySection.size()) || (section >= summariesList.size())) {
+            return -1;
+        }
+
+        ArrayList<RoomSummary> summaries = summariesList.get(section);
+        Integer pos = mPositionByRoomIdBySection.get(section).get(roomId);
+
+        if ((null != pos) && (pos < summaries.size()) && roomId.equals(summaries.get(pos).getRoomId())) {
+            return pos;
+        }
+
+        // the index is not up to date
+        if (null != pos) {
+            refreshPositions(section);
+            pos = mPositionByRoomIdBySection.get(section).get(roomId);
+            return (null == pos) ? -1 : pos;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public RoomSummary getSummaryByRoomId(int section, String roomId) {
+        int pos = getPosition(section, roomId);
+        return (pos < 0) ? null : getRecentsSummariesList().get(section).get(pos);
+    }
+
+    @Override
+    public void addRoomSummary(int section, RoomSummary summary) {
+        super.addRoomSummary(section, summary);
+
+        // the summary is appended
+        ArrayList<ArrayList<RoomSummary>> summariesList = getRecentsSummariesList();
+        if ((section >= 0) && (section < summariesList.size())) {
+            int lastPos = summariesList.get(section).size() - 1;
+            refreshPositions(section, lastPos, lastPos);
+        }
+    }
+
+    @Override
+    public void removeRoomSummary(int section, RoomSummary summary) {
+        int pos = (null == summary) ? -1 : getPosition(section, summary.getRoomId());
+
+        super.removeRoomSummary(section, summary);
+
+        if (pos >= 0) {
+            mPositionByRoomIdBySection.get(section).remove(summary.getRoomId());
+            // the next summaries are shifted
+            refreshPositions(section, pos, Integer.MAX_VALUE);
+        }
     }
 
     public int getUnreadMessageBackgroundColor() {
@@ -126,5 +288,94 @@ public class ConsoleRoomSummaryAdapter extends RoomSummaryAdapter {
     public void removeSection(int section) {
         super.removeSection(section);
         mSessions.remove(section);
+        mUpdatedRoomIdsBySection.remove(section);
+        mPositionByRoomIdBySection.remove(section);
+        refreshSectionBySession();
+    }
+
+    @Override
+    public void sortSummaries() {
+        super.sortSummaries();
+
+        for (HashSet<String> roomIds : mUpdatedRoomIdsBySection) {
+            roomIds.clear();
+        }
+
+        for (int section = 0; section < mPositionByRoomIdBySection.size(); section++) {
+            refreshPositions(section);
+        }
+    }
+
+    /**
+     * Flag a room whose latest event has been updated.
+     * It will be moved to its new position by the next sortUpdatedSummaries call.
+     * @param section the section.
+     * @param roomId the room id.
+     */
+    public void onRoomUpdated(int section, String roomId) {
+        if ((section >= 0) && (section < mUpdatedRoomIdsBySection.size()) && (null != roomId)) {
+            mUpdatedRoomIdsBySection.get(section).add(roomId);
+        }
+    }
+
+    /**
+     * @return true if some rooms must be moved.
+     */
+    public boolean hasUpdatedSummaries() {
+        for (HashSet<String> roomIds : mUpdatedRoomIdsBySection) {
+            if (roomIds.size() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Move the updated rooms to their new positions.
+     * The updated rooms are removed first, so they are inserted in a list whose other rooms are sorted.
+     */
+    public void sortUpdatedSummaries() {
+        ArrayList<ArrayList<RoomSummary>> summariesList = getRecentsSummariesList();
+
+        for (int section = 0; (section < mUpdatedRoomIdsBySection.size()) && (section < summariesList.size()); section++) {
+            HashSet<String> roomIds = mUpdatedRoomIdsBySection.get(section);
+            ArrayList<RoomSummary> summaries = summariesList.get(section);
+
+            if (roomIds.size() == 0) {
+                continue;
+            }
+
+            // remove the updated rooms
+            ArrayList<RoomSummary> updatedSummaries = new ArrayList<RoomSummary>();
+            ArrayList<RoomSummary> sortedSummaries = new ArrayList<RoomSummary>(summaries.size());
+
+            for (RoomSummary summary : summaries) {
+                if ((null != summary) && roomIds.contains(summary.getRoomId())) {
+                    updatedSummaries.add(summary);
+                } else {
+                    sortedSummaries.add(summary);
+                }
+            }
+
+            // insert them at their new positions
+            for (RoomSummary summary : updatedSummaries) {
+                int pos = Collections.binarySearch(sortedSummaries, summary, mSummaryComparator);
+
+                // binarySearch returns (-(insertion point) - 1) when there is no equal item
+                if (pos < 0) {
+                    pos = -pos - 1;
+                }
+
+                sortedSummaries.add(pos, summary);
+            }
+
+            summaries.clear();
+            summaries.addAll(sortedSummaries);
+            MOVED_ROOMS_COUNT.add(updatedSummaries.size());
+
+            refreshPositions(section);
+            roomIds.clear();
+        }
     }
 }
@@ -17,10 +17,6 @@
 package org.matrix.console.adapters;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.net.Uri;
-import android.provider.MediaStore;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -31,6 +27,7 @@ import android.widget.TextView;
 
 import org.matrix.console.R;
 import org.matrix.console.contacts.Contact;
+import org.matrix.console.util.CollationUtils;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -93,21 +90,8 @@ public class ContactsListAdapter extends ArrayAdapter<Contact> implements Sectio
 
         // member thumbnail
         ImageView imageView = (ImageView) convertView.findViewById(R.id.avatar_img);
-
-        Bitmap bitmap = contact.mThumbnail;
-
-        if ((null != contact.mThumbnailUri) && (null == bitmap)) {
-            try {
-                contact.mThumbnail = bitmap = MediaStore.Images.Media.getBitmap(mContext.getContentResolver(), Uri.parse(contact.mThumbnailUri));
-            } catch (Exception e) {
-            }
-        }
-
-        if (null == bitmap) {
-            imageView.setImageResource(R.drawable.ic_contact_picture_holo_light);
-        } else {
-            imageView.setImageBitmap(bitmap);
-        }
+        int size = mContext.getResources().getDimensionPixelSize(R.dimen.member_list_avatar_size);
+        AdapterUtils.loadContactThumbnail(mContext, imageView, contact.mThumbnailUri, size);
 
         return convertView;
     }
@@ -129,17 +113,20 @@ public class ContactsListAdapter extends ArrayAdapter<Contact> implements Sectio
         super.addAll(collection);
 
         // compute the sections from the contacts list
-        // assume that the contacts are displayed by display names
+        // assume that the contacts are sorted by their sort keys
         mMapIndex = new LinkedHashMap<String, Integer>();
 
         int index = 0;
 
-        // list the contacts by display name
+        // the section starts at its first contact
         for (Contact contact : collection){
-            if (!TextUtils.isEmpty(contact.getDisplayName())) {
-                mMapIndex.put(contact.getDisplayName().substring(0, 1).toUpperCase(), index);
-                index++;
+            String sectionTitle = CollationUtils.getSectionTitle(contact.getDisplayName());
+
+            if ((null != sectionTitle) && !mMapIndex.containsKey(sectionTitle)) {
+                mMapIndex.put(sectionTitle, index);
             }
+
+            index++;
         }
 
         mSections = new String[mMapIndex.size()];
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.adapters.MessageRow;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.console.util.SlidableImageInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Ordered index of the image message rows of a messages adapter.
+ * The rows are added at both ends in O(1) (back pagination and live events), so the
+ * images list is never rebuilt by walking the whole adapter.
+ * The images descriptions are parsed once per event content.
+ */
+public class ImageMessagesIndex {
+
+    /**
+     * Cached image description, valid while the row event content is unchanged.
+     */
+    private static class CachedInfo {
+        final JsonElement mContent;
+        final SlidableImageInfo mInfo;
+
+        CachedInfo(JsonElement content, SlidableImageInfo info) {
+            mContent = content;
+            mInfo = info;
+        }
+    }
+
+    // the rows added to the front, in reverse order
+    private final ArrayList<MessageRow> mFrontRows = new ArrayList<MessageRow>();
+    // the rows added to the back
+    private final ArrayList<MessageRow> mBackRows = new ArrayList<MessageRow>();
+
+    // the ordinal of each row : -(index + 1) in mFrontRows, index in mBackRows
+    private final HashMap<MessageRow, Integer> mOrdinalByRow = new HashMap<MessageRow, Integer>();
+
+    private final HashMap<MessageRow, CachedInfo> mInfoByRow = new HashMap<MessageRow, CachedInfo>();
+
+    /**
+     * Tell if a row is an image message, without parsing the whole message.
+     * @param row the row.
+     * @return true if the row is an image message.
+     */
+    public static boolean isImageRow(MessageRow row) {
+        Event event = (null != row) ? row.getEvent() : null;
+
+        if ((null == event) || (null == event.content) || !event.content.isJsonObject()) {
+            return false;
+        }
+
+        JsonElement msgType = ((JsonObject) event.content).get("msgtype");
+
+        return (null != msgType) && msgType.isJsonPrimitive() && Message.MSGTYPE_IMAGE.equals(msgType.getAsString());
+    }
+
+    /**
+     * Add a row before the other ones.
+     * @param row the row.
+     */
+    public void addToFront(MessageRow row) {
+        if (isImageRow(row) && !mOrdinalByRow.containsKey(row)) {
+            mFrontRows.add(row);
+            mOrdinalByRow.put(row, -mFrontRows.size());
+        }
+    }
+
+    /**
+     * Add a row after the other ones.
+     * @param row the row.
+     */
+    public void add(MessageRow row) {
+        if (isImageRow(row) && !mOrdinalByRow.containsKey(row)) {
+            mOrdinalByRow.put(row, mBackRows.size());
+            mBackRows.add(row);
+        }
+    }
+
+    /**
+     * Remove a row.
+     * Only the ordinals of the rows stored after it in the same list are updated, so removing
+     * a recent row (e.g. a replaced local echo) is cheap.
+     * @param row the row.
+     */
+    public void remove(MessageRow row) {
+        Integer ordinal = mOrdinalByRow.remove(row);
+
+        if (null == ordinal) {
+            return;
+        }
+
+        mInfoByRow.remove(row);
+
+        if (ordinal < 0) {
+            int index = -ordinal - 1;
+            mFrontRows.remove(index);
+
+            for (int i = index; i < mFrontRows.size(); i++) {
+                mOrdinalByRow.put(mFrontRows.get(i), -(i + 1));
+            }
+        } else {
+            mBackRows.remove((int) ordinal);
+
+            for (int i = ordinal; i < mBackRows.size(); i++) {
+                mOrdinalByRow.put(mBackRows.get(i), i);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from the adapter rows.
+     * @param rows the rows.
+     */
+    public void reset(Collection<MessageRow> rows) {
+        clear();
+
+        for (MessageRow row : rows) {
+            add(row);
+        }
+    }
+
+    /**
+     * Remove all the rows.
+     */
+    public void clear() {
+        mFrontRows.clear();
+        mBackRows.clear();
+        mOrdinalByRow.clear();
+        mInfoByRow.clear();
+    }
+
+    /**
+     * @return the number of indexed rows.
+     */
+    public int size() {
+        return mOrdinalByRow.size();
+    }
+
+    /**
+     * Retrieve the position of a row in the index.
+     * @param row the row.
+     * @return the position, -1 if the row is not indexed.
+     */
+    public int indexOf(MessageRow row) {
+        Integer ordinal = mOrdinalByRow.get(row);
+        return (null == ordinal) ? -1 : (mFrontRows.size() + ordinal);
+    }
+
+    /**
+     * @return a copy of the indexed rows, in the display order.
+     */
+    public List<MessageRow> getRows() {
+        ArrayList<MessageRow> rows = new ArrayList<MessageRow>(size());
+
+        for (int index = mFrontRows.size() - 1; index >= 0; index--) {
+            rows.add(mFrontRows.get(index));
+        }
+
+        rows.addAll(mBackRows);
+        return rows;
+    }
+
+    /**
+     * Build the images descriptions list.
+     * The rows whose content is not anymore a valid image (e.g. redacted) are skipped.
+     * @param selectedRow the selected row.
+     * @param infos the list to fill.
+     * @return the selected row position in the filled list, -1 if it is not found.
+     */
+    public int fillImageInfos(MessageRow selectedRow, List<SlidableImageInfo> infos) {
+        int selectedPosition = -1;
+
+        for (MessageRow row : getRows()) {
+            SlidableImageInfo info = getImageInfo(row);
+
+            if (null != info) {
+                if (row == selectedRow) {
+                    selectedPosition = infos.size();
+                }
+                infos.add(info);
+            }
+        }
+
+        return selectedPosition;
+    }
+
+    /**
+     * Retrieve the image description of a row.
+     * @param row the row.
+     * @return the description, null if the row is not a valid image.
+     */
+    private SlidableImageInfo getImageInfo(MessageRow row) {
+        Event event = row.getEvent();
+        CachedInfo cachedInfo = mInfoByRow.get(row);
+
+        // the event content is unchanged
+        if ((null != cachedInfo) && (cachedInfo.mContent == event.content)) {
+            return cachedInfo.mInfo;
+        }
+
+        SlidableImageInfo info = null;
+
+        if (isImageRow(row)) {
+            ImageMessage imageMessage = JsonUtils.toImageMessage(event.content);
+
+            if (null != imageMessage.url) {
+                info = new SlidableImageInfo();
+                info.mImageUrl = imageMessage.url;
+                info.mRotationAngle = imageMessage.getRotation();
+                info.mOrientation = imageMessage.getOrientation();
+                info.mMimeType = imageMessage.getMimeType();
+                info.midentifier = event.eventId;
+            }
+        }
+
+        mInfoByRow.put(row, new CachedInfo(event.content, info));
+        return info;
+    }
+}
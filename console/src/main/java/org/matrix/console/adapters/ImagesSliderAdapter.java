@@ -24,13 +24,18 @@ import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
 import androidx.viewpager.widget.PagerAdapter;
 import android.view.Display;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
-import android.webkit.WebView;
 import android.widget.Toast;
 
 import com.google.gson.JsonElement;
@@ -44,17 +49,38 @@ import org.matrix.console.Matrix;
 import org.matrix.console.R;
 
 import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.console.util.BitmapUtils;
+import org.matrix.console.util.BoundedFileCache;
 import org.matrix.console.util.SlidableImageInfo;
+import org.matrix.console.view.ZoomableImageView;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * An images slider
+ * An images slider.
+ * The pages are rendered with bitmaps subsampled to the screen size, which are decoded in background
+ * and kept in a memory cache, and in a bounded disk cache so they are not decoded again from the full
+ * resolution images. The adjacent pages are prefetched : their high resolution images
+ * are downloaded into the medias cache and decoded before they are displayed.
  */
 public class ImagesSliderAdapter extends PagerAdapter {
+    private static final String LOG_TAG = "ImagesSliderAdapter";
+
+    // use 1/8 of the application heap for the decoded pages
+    private static final int HEAP_FRACTION = 8;
+
+    // the subsampled pages disk cache
+    private static final String DISK_CACHE_DIRECTORY = "images_slider";
+    private static final long DISK_CACHE_SIZE = 32L * 1024L * 1024L;
+    private static final int DISK_CACHE_QUALITY = 90;
+
+    // the number of prefetched pages on each side of the displayed one
+    private static final int PREFETCH_DISTANCE = 1;
 
     Context context;
     List<SlidableImageInfo> mListImageMessages = null;
@@ -67,6 +93,23 @@ public class ImagesSliderAdapter extends PagerAdapter {
 
     private HomeserverConnectionConfig mHsConfig;
 
+    // the displayed pages by position
+    private final SparseArray<View> mPagesByPosition = new SparseArray<View>();
+
+    // the decoded pages, by file path
+    private final LruCache<String, Bitmap> mBitmapsCache;
+
+    // the subsampled and rotated pages, by file path
+    private final BoundedFileCache mDiskCache;
+
+    // the pages are decoded in background
+    private final HandlerThread mDecodingThread;
+    private final Handler mDecodingHandler;
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+
+    // the decoded bitmaps size
+    private final Point mDisplaySize;
+
     public ImagesSliderAdapter(Context context, HomeserverConnectionConfig hsConfig, List<SlidableImageInfo> listImageMessages, int maxImageWidth, int maxImageHeight) {
         this.context = context;
         this.mListImageMessages = listImageMessages;
@@ -74,6 +117,30 @@ public class ImagesSliderAdapter extends PagerAdapter {
         this.mMaxImageHeight = maxImageHeight;
         this.mLayoutInflater = LayoutInflater.from(context);
         this.mHsConfig = hsConfig;
+
+        mBitmapsCache = new LruCache<String, Bitmap>((int)(Runtime.getRuntime().maxMemory() / HEAP_FRACTION)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mDiskCache = new BoundedFileCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+
+        mDecodingThread = new HandlerThread("ImagesSliderDecodingThread", Thread.MIN_PRIORITY);
+        mDecodingThread.start();
+        mDecodingHandler = new Handler(mDecodingThread.getLooper());
+
+        mDisplaySize = getDisplaySize();
+    }
+
+    /**
+     * Release the decoding thread and the decoded pages.
+     * The adapter must not be used after this call.
+     */
+    public void release() {
+        mDecodingThread.quit();
+        mBitmapsCache.evictAll();
     }
 
     @Override
@@ -95,15 +162,39 @@ public class ImagesSliderAdapter extends PagerAdapter {
                     }
                 });
             }
+
+            for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+                prefetch(position - distance);
+                prefetch(position + distance);
+            }
+        }
+    }
+
+    /**
+     * Prefetch a page : download its high resolution image and decode it.
+     * @param position the page position.
+     */
+    private void prefetch(int position) {
+        if ((position < 0) || (position >= mListImageMessages.size())) {
+            return;
+        }
+
+        final MXMediasCache mediasCache = Matrix.getInstance(this.context).getMediasCache();
+        final SlidableImageInfo imageInfo = mListImageMessages.get(position);
+        File mediaFile = mediasCache.mediaCacheFile(imageInfo.mImageUrl, imageInfo.mMimeType);
+
+        if (null == mediaFile) {
+            // the page is decoded when it is displayed
+            mediasCache.loadBitmap(this.context, mHsConfig, imageInfo.mImageUrl, imageInfo.mRotationAngle, imageInfo.mOrientation, imageInfo.mMimeType);
+        } else {
+            decodePage(position, mediaFile);
         }
     }
 
     private void downloadHighResPict(final View view, final int position) {
-        final WebView webView = (WebView)view.findViewById(R.id.image_webview);
         final PieFractionView pieFractionView = (PieFractionView)view.findViewById(R.id.download_zoomed_image_piechart);
         final MXMediasCache mediasCache = Matrix.getInstance(this.context).getMediasCache();
         final SlidableImageInfo imageInfo = mListImageMessages.get(position);
-        final String viewportContent = "width=640";
         final String loadingUri = imageInfo.mImageUrl;
         final String downloadId = mediasCache.loadBitmap(this.context, mHsConfig, loadingUri, imageInfo.mRotationAngle, imageInfo.mOrientation, imageInfo.mMimeType);
 
@@ -143,25 +234,23 @@ public class ImagesSliderAdapter extends PagerAdapter {
                         if (null != mediaFile) {
                             mHighResMediaIndex.add(position);
 
-                            Uri uri = Uri.fromFile(mediaFile);
-                            final String newHighResUri = uri.toString();
-
-                            webView.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    Uri mediaUri = Uri.parse(newHighResUri);
-
-                                    // save in the gallery
-                                    //CommonActivityUtils.saveImageIntoGallery(ImagesSliderAdapter.this.context, mediaFile);
+                            // save in the gallery
+                            //CommonActivityUtils.saveImageIntoGallery(ImagesSliderAdapter.this.context, mediaFile);
 
-                                    // refresh the UI
-                                    loadImage(webView, mediaUri, viewportContent, computeCss(newHighResUri, ImagesSliderAdapter.this.mMaxImageWidth, ImagesSliderAdapter.this.mMaxImageHeight, imageInfo.mRotationAngle));
-                                }
-                            });
+                            // refresh the UI
+                            displayPage(position, mediaFile);
                         }
                     }
                 }
             });
+        } else {
+            // the high resolution image has been downloaded (e.g. prefetched) since the page creation
+            File mediaFile = mediasCache.mediaCacheFile(loadingUri, imageInfo.mMimeType);
+
+            if (null != mediaFile) {
+                mHighResMediaIndex.add(position);
+                displayPage(position, mediaFile);
+            }
         }
     }
 
@@ -172,22 +261,17 @@ public class ImagesSliderAdapter extends PagerAdapter {
 
     @Override
     public Object instantiateItem(ViewGroup container, final int position) {
-        View view  = mLayoutInflater.inflate(R.layout.activity_image_web_view, null, false);
+        View view  = mLayoutInflater.inflate(R.layout.adapter_item_image_slider, null, false);
 
         // hide the pie chart
         final PieFractionView pieFractionView = (PieFractionView)view.findViewById(R.id.download_zoomed_image_piechart);
         pieFractionView.setVisibility(View.GONE);
 
-        final WebView webView = (WebView)view.findViewById(R.id.image_webview);
-
-        // black background
-        view.setBackgroundColor(0xFF000000);
-        webView.setBackgroundColor(0xFF000000);
+        mPagesByPosition.put(position, view);
 
         final SlidableImageInfo imageInfo = mListImageMessages.get(position);
 
         String mediaUrl = imageInfo.mImageUrl;
-        final int rotationAngle = imageInfo.mRotationAngle;
         final String mimeType = imageInfo.mMimeType;
 
         final MXMediasCache mediasCache = Matrix.getInstance(this.context).getMediasCache();
@@ -203,128 +287,172 @@ public class ImagesSliderAdapter extends PagerAdapter {
             mediaFile = mediasCache.mediaCacheFile(mediaUrl, mMaxImageWidth, mMaxImageHeight, null);
         }
 
-        // the thumbnail is not yet downloaded
-        if (null == mediaFile) {
-            // display nothing
-            container.addView(view, 0);
-            return view;
+        // the thumbnail is not yet downloaded : display nothing
+        if (null != mediaFile) {
+            displayPage(position, mediaFile);
         }
 
-        String mediaUri = "file://" + mediaFile.getPath();
+        container.addView(view, 0);
+        return view;
+    }
 
-        String css = computeCss(mediaUri, mMaxImageWidth, mMaxImageHeight, rotationAngle);
-        final String viewportContent = "width=640";
+    /**
+     * Display an image in a page.
+     * The image is decoded in background if it is not in the memory cache.
+     * @param position the page position.
+     * @param mediaFile the image file.
+     */
+    private void displayPage(int position, File mediaFile) {
+        View view = mPagesByPosition.get(position);
+
+        if (null == view) {
+            return;
+        }
 
-        webView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-        webView.getSettings().setJavaScriptEnabled(true);
-        webView.getSettings().setLoadWithOverviewMode(true);
-        webView.getSettings().setUseWideViewPort(true);
-        webView.getSettings().setBuiltInZoomControls(true);
+        ZoomableImageView imageView = (ZoomableImageView) view.findViewById(R.id.image_slider_image_view);
+        String key = mediaFile.getPath();
+        imageView.setTag(key);
 
-        loadImage(webView, Uri.parse(mediaUri), viewportContent, css);
+        Bitmap bitmap = mBitmapsCache.get(key);
 
-        container.addView(view, 0);
-        return view;
+        if (null != bitmap) {
+            imageView.setImageBitmap(bitmap);
+        } else {
+            decodePage(position, mediaFile);
+        }
     }
 
-    private void loadImage(WebView webView, Uri imageUri, String viewportContent, String css) {
-        String html =
-                "<html><head><meta name='viewport' content='" +
-                        viewportContent +
-                        "'/>" +
-                        "<style type='text/css'>" +
-                        css +
-                        "</style></head>" +
-                        "<body> <div class='wrap'>" + "<img " +
-                        ( "src='" + imageUri.toString() + "'") +
-                        " onerror='this.style.display=\"none\"' id='image' " + viewportContent + "/>" + "</div>" +
-                        "</body>" + "</html>";
-
-        String mime = "text/html";
-        String encoding = "utf-8";
-
-        webView.loadDataWithBaseURL(null, html, mime, encoding, null);
-        webView.requestLayout();
-    }
+    /**
+     * Decode a page image in background, and display it if the page is still displayed.
+     * @param position the page position.
+     * @param mediaFile the image file.
+     */
+    private void decodePage(final int position, final File mediaFile) {
+        final String key = mediaFile.getPath();
+        final SlidableImageInfo imageInfo = mListImageMessages.get(position);
 
-    private String computeCss(String mediaUrl, int thumbnailWidth, int thumbnailHeight, int rotationAngle) {
-        String css = "body { background-color: #000; height: 100%; width: 100%; margin: 0px; padding: 0px; }" +
-                ".wrap { position: absolute; left: 0px; right: 0px; width: 100%; height: 100%; " +
-                "display: -webkit-box; -webkit-box-pack: center; -webkit-box-align: center; " +
-                "display: box; box-pack: center; box-align: center; } ";
+        mDecodingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = mBitmapsCache.get(key);
 
-        Uri mediaUri = null;
+                if (null == bitmap) {
+                    File cachedFile = mDiskCache.get(key);
 
-        try {
-            mediaUri = Uri.parse(mediaUrl);
-        } catch (Exception e) {
-        }
+                    // the cached page is already subsampled and rotated
+                    if (null != cachedFile) {
+                        bitmap = BitmapFactory.decodeFile(cachedFile.getPath());
+                    }
 
-        if (null == mediaUri) {
-            return css;
-        }
+                    if (null == bitmap) {
+                        bitmap = decodeBitmap(mediaFile, imageInfo.mRotationAngle);
 
-        // the rotation angle must be retrieved from the exif metadata
-        if (rotationAngle == Integer.MAX_VALUE) {
-            if (null != mediaUrl) {
-                rotationAngle = ImageUtils.getRotationAngleForBitmap(this.context, mediaUri);
-            }
-        }
+                        if (null != bitmap) {
+                            saveToDiskCache(key, bitmap);
+                        }
+                    }
 
-        if (rotationAngle != 0) {
-            // get the image size to scale it to fill in the device screen.
-            int imageWidth = thumbnailWidth;
-            int imageHeight = thumbnailHeight;
+                    if (null != bitmap) {
+                        mBitmapsCache.put(key, bitmap);
+                    }
+                }
 
-            try {
-                FileInputStream imageStream = new FileInputStream(new File(mediaUri.getPath()));
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                options.outWidth = -1;
-                options.outHeight = -1;
-
-                // get the full size bitmap
-                Bitmap fullSizeBitmap = null;
-                try {
-                    fullSizeBitmap = BitmapFactory.decodeStream(imageStream, null, options);
-                } catch (OutOfMemoryError e) {
+                if (null != bitmap) {
+                    final Bitmap fBitmap = bitmap;
+
+                    mUIHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            View view = mPagesByPosition.get(position);
+
+                            if (null != view) {
+                                ZoomableImageView imageView = (ZoomableImageView) view.findViewById(R.id.image_slider_image_view);
+
+                                // the page might display another file
+                                if (key.equals(imageView.getTag())) {
+                                    imageView.setImageBitmap(fBitmap);
+                                }
+                            }
+                        }
+                    });
                 }
+            }
+        });
+    }
 
-                imageWidth = options.outWidth;
-                imageHeight =  options.outHeight;
+    /**
+     * Save a decoded page in the disk cache.
+     * @param key the page key.
+     * @param bitmap the decoded page.
+     */
+    private void saveToDiskCache(String key, Bitmap bitmap) {
+        File tmpFile = mDiskCache.getTemporaryFile(key);
+        OutputStream outputStream = null;
+        boolean isSaved = false;
 
-                imageStream.close();
-                fullSizeBitmap.recycle();
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            // keep the transparency
+            isSaved = bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, outputStream);
+            outputStream.close();
+            outputStream = null;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "saveToDiskCache failed " + e.getLocalizedMessage());
+        }
+
+        if (null != outputStream) {
+            try {
+                outputStream.close();
             } catch (Exception e) {
             }
+        }
 
-            String cssRotation = calcCssRotation(rotationAngle, imageWidth, imageHeight);
+        if (isSaved) {
+            mDiskCache.put(key, tmpFile);
+        } else {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Decode an image subsampled to the screen size and apply its rotation.
+     * @param mediaFile the image file.
+     * @param rotationAngle the rotation angle, Integer.MAX_VALUE to use the exif metadata.
+     * @return the bitmap, null if it cannot be decoded.
+     */
+    private Bitmap decodeBitmap(File mediaFile, int rotationAngle) {
+        String path = mediaFile.getPath();
 
-            css += "#image { " + cssRotation + " } ";
-            css += "#thumbnail { " + cssRotation + " } ";
+        // the rotation angle must be retrieved from the exif metadata
+        if (rotationAngle == Integer.MAX_VALUE) {
+            rotationAngle = ImageUtils.getRotationAngleForBitmap(this.context, Uri.fromFile(mediaFile));
         }
 
-        return css;
-    }
+        BitmapFactory.Options bounds = BitmapUtils.decodeBounds(path);
+
+        // the screen size in the image orientation
+        int reqWidth = ((rotationAngle == 90) || (rotationAngle == 270)) ? mDisplaySize.y : mDisplaySize.x;
+        int reqHeight = ((rotationAngle == 90) || (rotationAngle == 270)) ? mDisplaySize.x : mDisplaySize.y;
+
+        Bitmap bitmap = BitmapUtils.decodeSampledBitmap(path, bounds, reqWidth, reqHeight);
 
-    private String calcCssRotation(int rot, int imageWidth, int imageHeight) {
-        if (rot == 90 || rot == 180 || rot == 270) {
-            Point displaySize = getDisplaySize();
-            double scale = Math.min((double)imageWidth / imageHeight, (double)displaySize.y / displaySize.x);
+        if ((null != bitmap) && (0 != rotationAngle)) {
+            try {
+                android.graphics.Matrix rotation = new android.graphics.Matrix();
+                rotation.postRotate(rotationAngle);
 
-            final String rot180 = "-webkit-transform: rotate(180deg);";
+                Bitmap rotatedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotation, true);
 
-            switch (rot) {
-                case 90:
-                    return "-webkit-transform-origin: 50% 50%; -webkit-transform: rotate(90deg) scale(" + scale + " , " + scale + ");";
-                case 180:
-                    return rot180;
-                case 270:
-                    return "-webkit-transform-origin: 50% 50%; -webkit-transform: rotate(270deg) scale(" + scale + " , " + scale + ");";
+                if (rotatedBitmap != bitmap) {
+                    bitmap.recycle();
+                    bitmap = rotatedBitmap;
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "decodeBitmap : rotation failed " + e.getLocalizedMessage());
             }
         }
-        return "";
+
+        return bitmap;
     }
 
     @SuppressLint("NewApi")
@@ -345,6 +473,15 @@ public class ImagesSliderAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
-        container.removeView((View) object);
+        View view = (View) object;
+
+        if (mPagesByPosition.get(position) == view) {
+            mPagesByPosition.remove(position);
+        }
+
+        // the bitmap is kept in the memory cache
+        ((ZoomableImageView) view.findViewById(R.id.image_slider_image_view)).setImageDrawable(null);
+
+        container.removeView(view);
     }
 }
@@ -33,6 +33,7 @@ import org.matrix.androidsdk.util.ContentManager;
 import org.matrix.console.R;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 /**
  * An adapter which can display m.room.member content.
@@ -45,7 +46,8 @@ public class MembersInvitationAdapter extends ArrayAdapter<RoomMember> {
 
     private ArrayList<Integer> mSectionIndexes;
     private ArrayList<String> mSectionTitles;
-    private ArrayList<RoomMember> mSelectedMembers;
+    // the selected members by user id : the displayed members can be refreshed while the user selects them
+    private LinkedHashMap<String, RoomMember> mSelectedMembers;
 
     private MXMediasCache mMediasCache;
 
@@ -64,7 +66,7 @@ public class MembersInvitationAdapter extends ArrayAdapter<RoomMember> {
         mLayoutResourceId = layoutResourceId;
         mLayoutInflater = LayoutInflater.from(mContext);
 
-        mSelectedMembers = new ArrayList<RoomMember>();
+        mSelectedMembers = new LinkedHashMap<String, RoomMember>();
         mMediasCache = mediasCache;
         mHsConfig = hsConfig;
 
@@ -87,7 +89,7 @@ public class MembersInvitationAdapter extends ArrayAdapter<RoomMember> {
      * @return the selected members.
      */
     public ArrayList<RoomMember> getSelectedMembers() {
-        return mSelectedMembers;
+        return new ArrayList<RoomMember>(mSelectedMembers.values());
     }
 
     @Override
@@ -118,7 +120,7 @@ public class MembersInvitationAdapter extends ArrayAdapter<RoomMember> {
 
         if (!TextUtils.isEmpty(url)) {
             int size = getContext().getResources().getDimensionPixelSize(R.dimen.member_list_avatar_size);
-            mMediasCache.loadAvatarThumbnail(mHsConfig, imageView, url, size);
+            AdapterUtils.loadAvatarThumbnail(mContext, mMediasCache, mHsConfig, imageView, url, size);
         }
 
         // The presence ring
@@ -136,16 +138,16 @@ public class MembersInvitationAdapter extends ArrayAdapter<RoomMember> {
         }
 
         final CheckBox chkBox = (CheckBox) convertView.findViewById(R.id.checkbox_selected_member);
-        chkBox.setChecked(mSelectedMembers.indexOf(member) >= 0);
+        chkBox.setChecked(mSelectedMembers.containsKey(member.getUserId()));
 
         chkBox.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
 
                 if (chkBox.isChecked()) {
-                    mSelectedMembers.add(member);
+                    mSelectedMembers.put(member.getUserId(), member);
                 } else {
-                    mSelectedMembers.remove(member);
+                    mSelectedMembers.remove(member.getUserId());
                 }
             }
         });
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.console.util.CollationUtils;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * Aggregate the members of the rooms to build the invitation candidates.
+ * Each joined user is kept with the smallest size of the rooms shared with the current user,
+ * so a room is processed in linear time whatever the number of rooms already processed.
+ * The candidates which have been added or updated since the latest call are provided by {@link #takeUpdates()},
+ * so the displayed list is only updated with the delta (see {@link MembersInvitationSections}).
+ * This class is not thread safe.
+ */
+public class MembersInvitationAggregator {
+
+    // the sections
+    public static final int SECTION_ONE_TO_ONE = 0;
+    public static final int SECTION_SMALL_ROOMS = 1;
+    public static final int SECTION_LARGE_ROOMS = 2;
+    public static final int SECTIONS_COUNT = 3;
+
+    private static final int ONE_TO_ONE_ROOM_MAX_SIZE = 2;
+    private static final int SMALL_ROOM_MAX_SIZE = 10;
+
+    /**
+     * An invitation candidate.
+     */
+    private static class Candidate {
+        RoomMember mMember;
+        int mRoomSize;
+
+        Candidate(RoomMember member, int roomSize) {
+            mMember = member;
+            mRoomSize = roomSize;
+        }
+    }
+
+    /**
+     * The new state of a candidate.
+     * The updates are immutable, so they can be given to the UI thread.
+     * The candidates are sorted alphabetically with the sort key of their member name.
+     */
+    public static class Update implements Comparable<Update> {
+        public final String mUserId;
+        public final RoomMember mMember;
+        public final int mSection;
+        final CollationKey mSortKey;
+
+        Update(Candidate candidate) {
+            mMember = candidate.mMember;
+            mUserId = mMember.getUserId();
+            mSection = getSection(candidate.mRoomSize);
+            mSortKey = CollationUtils.getCollationKey((null != mMember.displayname) ? mMember.displayname : mUserId);
+        }
+
+        @Override
+        public int compareTo(Update other) {
+            return mSortKey.compareTo(other.mSortKey);
+        }
+    }
+
+    // the users which cannot be invited (e.g. the current room members)
+    private final HashSet<String> mIgnoredUserIds;
+
+    private final HashMap<String, Candidate> mCandidatesByUserId = new HashMap<String, Candidate>();
+
+    // the candidates added or updated since the latest takeUpdates call
+    private final LinkedHashMap<String, Candidate> mUpdatedCandidatesByUserId = new LinkedHashMap<String, Candidate>();
+
+    /**
+     * Constructor
+     * @param ignoredUserIds the user ids to ignore.
+     */
+    public MembersInvitationAggregator(Collection<String> ignoredUserIds) {
+        mIgnoredUserIds = new HashSet<String>(ignoredUserIds);
+    }
+
+    /**
+     * Add the members of a room.
+     * @param members the room members.
+     */
+    public void addRoom(Collection<RoomMember> members) {
+        int roomSize = members.size();
+
+        for (RoomMember member : members) {
+            String userId = member.getUserId();
+
+            // accepted User ID or still active users
+            if ((null == userId) || mIgnoredUserIds.contains(userId) || !RoomMember.MEMBERSHIP_JOIN.equals(member.membership)) {
+                continue;
+            }
+
+            Candidate candidate = mCandidatesByUserId.get(userId);
+
+            if (null == candidate) {
+                candidate = new Candidate(member, roomSize);
+                mCandidatesByUserId.put(userId, candidate);
+                mUpdatedCandidatesByUserId.put(userId, candidate);
+            } else if (roomSize < candidate.mRoomSize) {
+                candidate.mMember = member;
+                candidate.mRoomSize = roomSize;
+                mUpdatedCandidatesByUserId.put(userId, candidate);
+            }
+        }
+    }
+
+    /**
+     * @return the number of candidates.
+     */
+    public int size() {
+        return mCandidatesByUserId.size();
+    }
+
+    /**
+     * Retrieve the section of a room size.
+     * @param roomSize the room size.
+     * @return the section index.
+     */
+    private static int getSection(int roomSize) {
+        if (roomSize <= ONE_TO_ONE_ROOM_MAX_SIZE) {
+            return SECTION_ONE_TO_ONE;
+        } else if (roomSize <= SMALL_ROOM_MAX_SIZE) {
+            return SECTION_SMALL_ROOMS;
+        }
+
+        return SECTION_LARGE_ROOMS;
+    }
+
+    /**
+     * Provide the candidates added or updated since the latest call.
+     * @return the updates, a candidate is provided once.
+     */
+    public ArrayList<Update> takeUpdates() {
+        ArrayList<Update> updates = new ArrayList<Update>(mUpdatedCandidatesByUserId.size());
+
+        for (Candidate candidate : mUpdatedCandidatesByUserId.values()) {
+            updates.add(new Update(candidate));
+        }
+
+        mUpdatedCandidatesByUserId.clear();
+        return updates;
+    }
+}
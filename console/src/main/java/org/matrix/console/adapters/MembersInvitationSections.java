@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import org.matrix.androidsdk.rest.model.RoomMember;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The displayed invitation candidates : the sections of {@link MembersInvitationAggregator}, sorted alphabetically.
+ * The candidates updates are applied one by one, and the displayed list is told where the members move,
+ * so a few updates do not trigger a whole list sort and rebuild.
+ * This class is not thread safe.
+ */
+public class MembersInvitationSections {
+
+    // when more candidates are updated, the sections are sorted and the displayed list is rebuilt
+    private static final int MAX_MOVED_CANDIDATES_RATIO = 8;
+
+    /**
+     * Listener of the displayed list changes.
+     */
+    public interface Listener {
+        /**
+         * A member has been removed.
+         * @param position the member position in the whole list.
+         */
+        void onRemoved(int position);
+
+        /**
+         * A member has been inserted.
+         * @param member the member.
+         * @param position the member position in the whole list.
+         */
+        void onInserted(RoomMember member, int position);
+
+        /**
+         * The list must be rebuilt.
+         * @param members the members, in the sections order.
+         */
+        void onReset(List<RoomMember> members);
+    }
+
+    private final ArrayList<ArrayList<MembersInvitationAggregator.Update>> mSections;
+
+    // the displayed candidates by user id
+    private final HashMap<String, MembersInvitationAggregator.Update> mCandidatesByUserId = new HashMap<String, MembersInvitationAggregator.Update>();
+
+    /**
+     * Constructor
+     */
+    public MembersInvitationSections() {
+        mSections = new ArrayList<ArrayList<MembersInvitationAggregator.Update>>(MembersInvitationAggregator.SECTIONS_COUNT);
+
+        for (int section = 0; section < MembersInvitationAggregator.SECTIONS_COUNT; section++) {
+            mSections.add(new ArrayList<MembersInvitationAggregator.Update>());
+        }
+    }
+
+    /**
+     * @return the number of displayed candidates.
+     */
+    public int size() {
+        return mCandidatesByUserId.size();
+    }
+
+    /**
+     * @param section the section index.
+     * @return the number of candidates of a section.
+     */
+    public int getSectionSize(int section) {
+        return mSections.get(section).size();
+    }
+
+    /**
+     * @return the members, in the sections order.
+     */
+    public ArrayList<RoomMember> getMembers() {
+        ArrayList<RoomMember> members = new ArrayList<RoomMember>(size());
+
+        for (ArrayList<MembersInvitationAggregator.Update> candidates : mSections) {
+            for (MembersInvitationAggregator.Update candidate : candidates) {
+                members.add(candidate.mMember);
+            }
+        }
+
+        return members;
+    }
+
+    /**
+     * Compute the position of a section in the whole list.
+     * @param section the section index.
+     * @return the position of its first candidate.
+     */
+    private int getSectionStart(int section) {
+        int start = 0;
+
+        for (int index = 0; index < section; index++) {
+            start += mSections.get(index).size();
+        }
+
+        return start;
+    }
+
+    /**
+     * Find a displayed candidate in its section.
+     * @param candidates the section candidates.
+     * @param candidate the candidate.
+     * @return its index, -1 if it is not found.
+     */
+    private static int indexOf(ArrayList<MembersInvitationAggregator.Update> candidates, MembersInvitationAggregator.Update candidate) {
+        int low = 0;
+        int high = candidates.size();
+
+        // the first candidate with the same sort key
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (candidates.get(mid).compareTo(candidate) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (int index = low; (index < candidates.size()) && (0 == candidates.get(index).compareTo(candidate)); index++) {
+            if (candidates.get(index) == candidate) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compute the insertion index of a candidate in its section : after the candidates with the same sort key.
+     * @param candidates the section candidates.
+     * @param candidate the candidate.
+     * @return the insertion index.
+     */
+    private static int getInsertionIndex(ArrayList<MembersInvitationAggregator.Update> candidates, MembersInvitationAggregator.Update candidate) {
+        int low = 0;
+        int high = candidates.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (candidates.get(mid).compareTo(candidate) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Apply candidates updates.
+     * The listener is told about each move, or once to rebuild the list when too many candidates are updated.
+     * @param updates the updates provided by {@link MembersInvitationAggregator#takeUpdates()}.
+     * @param listener the listener.
+     */
+    public void apply(List<MembersInvitationAggregator.Update> updates, Listener listener) {
+        if (0 == updates.size()) {
+            return;
+        }
+
+        if ((updates.size() * MAX_MOVED_CANDIDATES_RATIO) > size()) {
+            HashSet<MembersInvitationAggregator.Update> removedCandidates = new HashSet<MembersInvitationAggregator.Update>();
+
+            for (MembersInvitationAggregator.Update update : updates) {
+                MembersInvitationAggregator.Update previousCandidate = mCandidatesByUserId.put(update.mUserId, update);
+
+                if (null != previousCandidate) {
+                    removedCandidates.add(previousCandidate);
+                }
+            }
+
+            for (ArrayList<MembersInvitationAggregator.Update> candidates : mSections) {
+                if (removedCandidates.size() > 0) {
+                    candidates.removeAll(removedCandidates);
+                }
+            }
+
+            for (MembersInvitationAggregator.Update update : updates) {
+                mSections.get(update.mSection).add(update);
+            }
+
+            for (ArrayList<MembersInvitationAggregator.Update> candidates : mSections) {
+                Collections.sort(candidates);
+            }
+
+            listener.onReset(getMembers());
+        } else {
+            for (MembersInvitationAggregator.Update update : updates) {
+                MembersInvitationAggregator.Update previousCandidate = mCandidatesByUserId.put(update.mUserId, update);
+
+                if (null != previousCandidate) {
+                    ArrayList<MembersInvitationAggregator.Update> candidates = mSections.get(previousCandidate.mSection);
+                    int index = indexOf(candidates, previousCandidate);
+
+                    if (index >= 0) {
+                        candidates.remove(index);
+                        listener.onRemoved(getSectionStart(previousCandidate.mSection) + index);
+                    }
+                }
+
+                ArrayList<MembersInvitationAggregator.Update> candidates = mSections.get(update.mSection);
+                int index = getInsertionIndex(candidates, update);
+
+                candidates.add(index, update);
+                listener.onInserted(update.mMember, getSectionStart(update.mSection) + index);
+            }
+        }
+    }
+}
@@ -100,7 +100,7 @@ public class ReadReceiptsAdapter extends ArrayAdapter<ReceiptData> {
 
         if (!TextUtils.isEmpty(url)) {
             int size = getContext().getResources().getDimensionPixelSize(R.dimen.member_list_avatar_size);
-            mMediasCache.loadAvatarThumbnail(mHsConfig, imageView, url, size);
+            AdapterUtils.loadAvatarThumbnail(mContext, mMediasCache, mHsConfig, imageView, url, size);
         }
 
         // The presence ring
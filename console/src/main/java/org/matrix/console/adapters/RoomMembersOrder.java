@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.console.util.CollationUtils;
+
+import java.text.CollationKey;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The order of the room members list : the joined members, then the invited ones and the left ones,
+ * sorted by last activity then by name, or by name only.
+ * The last activity times are copied when the users are updated : the SDK updates the users
+ * on the events thread, so they are never read while sorting.
+ */
+public class RoomMembersOrder {
+
+    /**
+     * Provide the member names.
+     */
+    public interface NameProvider {
+        /**
+         * @param userId the member user id.
+         * @return the member name.
+         */
+        String getMemberName(String userId);
+    }
+
+    private final NameProvider mNameProvider;
+
+    // the last activity times, by user id
+    private final HashMap<String, Long> mLastActiveTimeByUserId = new HashMap<String, Long>();
+
+    // the sort keys of the member names
+    private final HashMap<String, CollationKey> mSortKeyByUserId = new HashMap<String, CollationKey>();
+
+    private boolean mSortByLastActive = true;
+
+    private final Comparator<RoomMember> mAlphaComparator = new Comparator<RoomMember>() {
+        @Override
+        public int compare(RoomMember member1, RoomMember member2) {
+            int membershipOrder = compareMemberships(member1, member2);
+
+            if (0 != membershipOrder) {
+                return membershipOrder;
+            }
+
+            return compareNames(member1, member2);
+        }
+    };
+
+    private final Comparator<RoomMember> mLastActiveComparator = new Comparator<RoomMember>() {
+        @Override
+        public int compare(RoomMember member1, RoomMember member2) {
+            int membershipOrder = compareMemberships(member1, member2);
+
+            if (0 != membershipOrder) {
+                return membershipOrder;
+            }
+
+            Long lastActiveTime1 = mLastActiveTimeByUserId.get(member1.getUserId());
+            Long lastActiveTime2 = mLastActiveTimeByUserId.get(member2.getUserId());
+
+            if ((null != lastActiveTime1) && (null != lastActiveTime2)) {
+                // the most recently active first
+                int lastActiveOrder = lastActiveTime2.compareTo(lastActiveTime1);
+
+                if (0 != lastActiveOrder) {
+                    return lastActiveOrder;
+                }
+            } else if ((null != lastActiveTime1) != (null != lastActiveTime2)) {
+                return (null != lastActiveTime1) ? -1 : 1;
+            }
+
+            return compareNames(member1, member2);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param nameProvider the member names provider.
+     */
+    public RoomMembersOrder(NameProvider nameProvider) {
+        mNameProvider = nameProvider;
+    }
+
+    /**
+     * Compute the last activity time of a user.
+     * @param user the user.
+     * @return the last activity time, null if it is unknown.
+     */
+    public static Long getLastActiveTime(User user) {
+        if ((null == user) || (null == user.lastActiveAgo)) {
+            return null;
+        }
+
+        return System.currentTimeMillis() - user.getRealLastActiveAgo();
+    }
+
+    /**
+     * Compare the memberships : joined, invited, left.
+     * @return 0 if the memberships are equal or not ordered.
+     */
+    private static int compareMemberships(RoomMember member1, RoomMember member2) {
+        String membership1 = member1.membership;
+        String membership2 = member2.membership;
+
+        if ((null == membership1) || (null == membership2) || membership1.equals(membership2)) {
+            return 0;
+        }
+
+        String[] order = {RoomMember.MEMBERSHIP_JOIN, RoomMember.MEMBERSHIP_INVITE, RoomMember.MEMBERSHIP_LEAVE};
+
+        for (String membership : order) {
+            if (membership.equals(membership1)) {
+                return -1;
+            } else if (membership.equals(membership2)) {
+                return 1;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Compare the members names, ignoring the case, the diacritics and the leading "@".
+     */
+    private int compareNames(RoomMember member1, RoomMember member2) {
+        return getSortKey(member1.getUserId()).compareTo(getSortKey(member2.getUserId()));
+    }
+
+    /**
+     * Retrieve the cached sort key of a member name.
+     * @param userId the member user id.
+     * @return the sort key.
+     */
+    private CollationKey getSortKey(String userId) {
+        CollationKey sortKey = (null == userId) ? null : mSortKeyByUserId.get(userId);
+
+        if (null == sortKey) {
+            sortKey = CollationUtils.getCollationKey((null == userId) ? null : mNameProvider.getMemberName(userId));
+
+            if (null != userId) {
+                mSortKeyByUserId.put(userId, sortKey);
+            }
+        }
+
+        return sortKey;
+    }
+
+    /**
+     * @return the comparator matching the sort settings.
+     */
+    public Comparator<RoomMember> getComparator() {
+        return mSortByLastActive ? mLastActiveComparator : mAlphaComparator;
+    }
+
+    /**
+     * @param value true to sort the members by last activity.
+     */
+    public void setSortByLastActive(boolean value) {
+        mSortByLastActive = value;
+    }
+
+    /**
+     * @return true if the members are sorted by last activity.
+     */
+    public boolean isSortedByLastActive() {
+        return mSortByLastActive;
+    }
+
+    /**
+     * Store the last activity time of a user.
+     * @param userId the user id.
+     * @param lastActiveTime the last activity time, null if it is unknown.
+     * @return true if the time has been updated.
+     */
+    public boolean setLastActiveTime(String userId, Long lastActiveTime) {
+        if (null == userId) {
+            return false;
+        }
+
+        boolean isKnown = mLastActiveTimeByUserId.containsKey(userId);
+        Long previousTime = mLastActiveTimeByUserId.put(userId, lastActiveTime);
+
+        return !isKnown || ((null == previousTime) ? (null != lastActiveTime) : !previousTime.equals(lastActiveTime));
+    }
+
+    /**
+     * Forget a user.
+     * @param userId the user id.
+     */
+    public void removeUser(String userId) {
+        mLastActiveTimeByUserId.remove(userId);
+        mSortKeyByUserId.remove(userId);
+    }
+
+    /**
+     * The name of a member has been updated.
+     * @param userId the member user id.
+     */
+    public void invalidateName(String userId) {
+        mSortKeyByUserId.remove(userId);
+    }
+
+    /**
+     * Move some items to their sorted positions, the other items are assumed to be sorted.
+     * The items are removed and then inserted with a binary search.
+     * @param list the sorted list.
+     * @param movedItems the moved items.
+     * @param comparator the list order.
+     */
+    public static <T> void reposition(List<T> list, Collection<T> movedItems, Comparator<? super T> comparator) {
+        for (T item : movedItems) {
+            list.remove(item);
+        }
+
+        for (T item : movedItems) {
+            int low = 0;
+            int high = list.size();
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (comparator.compare(list.get(mid), item) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            list.add(low, item);
+        }
+    }
+}
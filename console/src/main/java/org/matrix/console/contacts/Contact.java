@@ -17,9 +17,11 @@
 package org.matrix.console.contacts;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.text.TextUtils;
 
+import org.matrix.console.util.CollationUtils;
+import org.matrix.console.util.Metrics;
+
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -27,6 +29,9 @@ import java.util.HashMap;
  * A simple contact class
  */
 public class Contact {
+    // the number of computed sort keys
+    private static final Metrics.Counter SORT_KEYS_COUNT = Metrics.getInstance().getCounter("contacts.sort_keys");
+
     public static class MXID {
         public String mMatrixId;
         public String mAccountId;
@@ -39,15 +44,16 @@ public class Contact {
 
     public String mContactId = "";
     private String mDisplayName;
-    private String mUpperCaseDisplayName = "";
-    private String mLowerCaseDisplayName = "";
     public String mThumbnailUri;
-    public Bitmap mThumbnail = null;
 
     public ArrayList<String>mPhoneNumbers = new ArrayList<String>();
     public ArrayList<String>mEmails = new ArrayList<String>();
     private HashMap<String, MXID> mMXIDsByElement = null;
 
+    // the sort key and the name it was computed from
+    private CollationKey mSortKey = null;
+    private String mSortKeyName = null;
+
     public Contact(String contactId) {
         if (null != contactId) {
             mContactId = contactId;
@@ -81,7 +87,7 @@ public class Contact {
      * @param mxid the matrixId
      */
     public void put(String email, MXID mxid) {
-        if ((null != email) && (null != mxid) && !TextUtils.isEmpty(mxid.mMatrixId)) {
+        if ((null != email) && (null != mxid) && !isEmpty(mxid.mMatrixId)) {
             mMXIDsByElement.put(email, mxid);
         }
     }
@@ -94,44 +100,6 @@ public class Contact {
         return (0 != mEmails.size());
     }
 
-    // assume that the search is performed on all the existing contacts
-    // so apply upper / lower case only once
-    static String mCurrentPattern = "";
-    static String mUpperCasePattern = "";
-    static String mLowerCasePattern = "";
-
-    /**
-     * test if some fields match with the pattern
-     * @param pattern
-     * @return
-     */
-    public boolean matchWithPattern(String pattern) {
-        // no pattern -> true
-        if (TextUtils.isEmpty(pattern)) {
-            mCurrentPattern = "";
-            mUpperCasePattern = "";
-            mLowerCasePattern = "";
-        }
-
-        // no display name
-        if (TextUtils.isEmpty(mDisplayName)) {
-            return false;
-        }
-
-        if (TextUtils.isEmpty(mUpperCaseDisplayName)) {
-            mUpperCaseDisplayName = mDisplayName.toLowerCase();
-            mLowerCaseDisplayName = mDisplayName.toUpperCase();
-        }
-
-        if (!pattern.equals(mCurrentPattern)) {
-            mCurrentPattern = pattern;
-            mUpperCasePattern = pattern.toUpperCase();
-            mLowerCasePattern = pattern.toLowerCase();
-        }
-
-        return (mUpperCaseDisplayName.indexOf(mUpperCasePattern) >= 0) || (mLowerCaseDisplayName.indexOf(mUpperCasePattern) >= 0);
-    }
-
     /**
      * Returns the first retrieved matrix ID.
      * @return the first retrieved matrix ID.
@@ -144,6 +112,15 @@ public class Contact {
         }
     }
 
+    /**
+     * The contacts are used by the JVM unit tests, where android.text.TextUtils is not available.
+     * @param value the string to check.
+     * @return true if the string is null or empty.
+     */
+    private static boolean isEmpty(String value) {
+        return (null == value) || (0 == value.length());
+    }
+
     public void setDisplayName(String displayName) {
         mDisplayName = displayName;
     }
@@ -151,17 +128,17 @@ public class Contact {
     public String getDisplayName() {
         String res = mDisplayName;
 
-        if (TextUtils.isEmpty(res)) {
+        if (isEmpty(res)) {
             for(String email : mEmails) {
-                if (!TextUtils.isEmpty(email)) {
+                if (!isEmpty(email)) {
                     return email;
                 }
             }
         }
 
-        if (TextUtils.isEmpty(res)) {
+        if (isEmpty(res)) {
             for(String pn : mPhoneNumbers) {
-                if (!TextUtils.isEmpty(pn)) {
+                if (!isEmpty(pn)) {
                     return pn;
                 }
             }
@@ -169,5 +146,26 @@ public class Contact {
 
         return res;
     }
+
+    /**
+     * Retrieve the key used to sort the contacts alphabetically.
+     * It is only computed when the displayed name is updated.
+     * @return the sort key.
+     */
+    public CollationKey getSortKey() {
+        String name = getDisplayName();
+
+        if (null == name) {
+            name = mContactId;
+        }
+
+        if ((null == mSortKey) || !name.equals(mSortKeyName)) {
+            mSortKey = CollationUtils.getCollationKey(name);
+            mSortKeyName = name;
+            SORT_KEYS_COUNT.inc();
+        }
+
+        return mSortKey;
+    }
 }
 
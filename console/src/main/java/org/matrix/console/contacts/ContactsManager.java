@@ -19,15 +19,22 @@ package org.matrix.console.contacts;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.provider.ContactsContract;
 import android.text.TextUtils;
 import android.util.Log;
 
 import org.matrix.console.ga.Analytics;
+import org.matrix.console.util.Metrics;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Manage the local contacts
@@ -35,41 +42,154 @@ import java.util.HashMap;
 public class ContactsManager {
     private static final String LOG_TAG = "ContactsManager";
 
+    // SQLite limits the number of host parameters
+    private static final int MAX_SELECTION_ARGS = 500;
+
+    // metrics
+    private static final Metrics.Histogram FULL_REFRESH_DURATION = Metrics.getInstance().getHistogram("contacts.full_refresh_us");
+    private static final Metrics.Histogram INCREMENTAL_REFRESH_DURATION = Metrics.getInstance().getHistogram("contacts.incremental_refresh_us");
+    private static final Metrics.Histogram UPDATED_CONTACTS_COUNT = Metrics.getInstance().getHistogram("contacts.updated_contacts");
+    private static final Metrics.Gauge CONTACTS_COUNT = Metrics.getInstance().getGauge("contacts.count");
+
+    /**
+     * The listeners are called on the UI thread.
+     */
     public static interface ContactsManagerListener {
         /**
-         * Called when the contacts list have been
+         * Called when the contacts list have been refreshed.
          */
         public void onRefresh();
+
+        /**
+         * Called when some contacts have been updated since the latest refresh.
+         * @param updatedContacts the added or updated contacts.
+         * @param deletedContactIds the deleted contact ids.
+         */
+        public void onUpdate(Collection<Contact> updatedContacts, Collection<String> deletedContactIds);
     }
 
-    private static Collection<Contact> mContactsList = null;
+    /**
+     * A published contacts snapshot.
+     * It is never updated once it is published: a new one is built at each refresh.
+     */
+    private static class Snapshot {
+        // the contacts by contact id
+        final HashMap<String, Contact> mContactsById;
+        final ContactsSearchIndex mSearchIndex;
+        // the sync timestamp (in the contacts provider time base)
+        final long mSyncTimestamp;
+
+        Snapshot(HashMap<String, Contact> contactsById, ContactsSearchIndex searchIndex, long syncTimestamp) {
+            mContactsById = contactsById;
+            mSearchIndex = searchIndex;
+            mSyncTimestamp = syncTimestamp;
+        }
+    }
+
+    private static final ContactsSearchIndex EMPTY_SEARCH_INDEX = new ContactsSearchIndex(new ArrayList<Contact>());
+
+    // the latest snapshot, null until the first refresh
+    private static volatile Snapshot mSnapshot = null;
+
+    // incremented by reset, the refreshes started before a reset are not published.
+    private static int mSnapshotGeneration = 0;
+
     private static ArrayList<ContactsManagerListener> mListeners = null;
 
+    // the contacts are refreshed in background
+    private static HandlerThread mRefreshThread = null;
+    private static Handler mRefreshHandler = null;
+    private static boolean mIsRefreshPending = false;
+
+    // the listeners are called on the UI thread
+    private static Handler mUiHandler = null;
+
     /**
-     * Refresh the local contacts list snapshot.
+     * Retrieve the local contacts list snapshot.
+     * The contacts are sorted alphabetically.
+     * The snapshot is empty until the first refresh is done : the listeners are then called.
      * @param context the context.
      * @return a local contacts list
      */
     public static Collection<Contact> getLocalContactsSnapshot(Context context) {
-        if (null == mContactsList) {
+        return getLocalContactsSearchIndex(context).getContacts();
+    }
+
+    /**
+     * Retrieve the search index of the local contacts snapshot.
+     * The index is empty until the first refresh is done : the listeners are then called.
+     * @param context the context.
+     * @return the search index.
+     */
+    public static ContactsSearchIndex getLocalContactsSearchIndex(Context context) {
+        Snapshot snapshot = mSnapshot;
+
+        if (null == snapshot) {
             refreshLocalContactsSnapshot(context);
+            return EMPTY_SEARCH_INDEX;
         }
-        return mContactsList;
+
+        return snapshot.mSearchIndex;
+    }
+
+    // Comparator to order contacts alphabetically
+    // the sort keys are computed once per contact
+    static final Comparator<Contact> alphaComparator = new Comparator<Contact>() {
+        @Override
+        public int compare(Contact contact1, Contact contact2) {
+            return contact1.getSortKey().compareTo(contact2.getSortKey());
+        }
+    };
+
+    /**
+     * Publish a new contacts snapshot.
+     * The contacts are sorted alphabetically and indexed.
+     * @param dict the contacts by contact id.
+     * @param syncTimestamp the sync timestamp.
+     * @param generation the snapshot generation when the refresh started.
+     * @return the published snapshot, null if a reset has been done since the refresh started.
+     */
+    private static Snapshot publishContacts(HashMap<String, Contact> dict, long syncTimestamp, int generation) {
+        ArrayList<Contact> contacts = new ArrayList<Contact>(dict.values());
+        Collections.sort(contacts, alphaComparator);
+
+        return publishSnapshot(new Snapshot(dict, new ContactsSearchIndex(contacts), syncTimestamp), generation);
+    }
+
+    /**
+     * Publish a contacts snapshot.
+     * @param snapshot the snapshot.
+     * @param generation the snapshot generation when the refresh started.
+     * @return the published snapshot, null if a reset has been done since the refresh started.
+     */
+    private static Snapshot publishSnapshot(Snapshot snapshot, int generation) {
+        synchronized (ContactsManager.class) {
+            if (generation != mSnapshotGeneration) {
+                return null;
+            }
+
+            mSnapshot = snapshot;
+        }
+
+        return snapshot;
     }
 
     /**
      * reset
      */
     public static void reset() {
-        mListeners = null;
-        mContactsList = null;
+        synchronized (ContactsManager.class) {
+            mListeners = null;
+            mSnapshot = null;
+            mSnapshotGeneration++;
+        }
     }
 
     /**
      * Add a listener.
      * @param listener the listener to add.
      */
-    public static void addListener(ContactsManagerListener listener) {
+    public static synchronized void addListener(ContactsManagerListener listener) {
         if (null == mListeners) {
             mListeners = new ArrayList<ContactsManagerListener>();
         }
@@ -81,155 +201,376 @@ public class ContactsManager {
      * Remove a listener.
      * @param listener the listener to remove.
      */
-    public static void removeListener(ContactsManagerListener listener) {
+    public static synchronized void removeListener(ContactsManagerListener listener) {
         if (null != mListeners) {
             mListeners.remove(listener);
         }
     }
 
     /**
-     * List the local contacts.
+     * @return a copy of the listeners list.
+     */
+    private static synchronized ArrayList<ContactsManagerListener> getListeners() {
+        return (null == mListeners) ? new ArrayList<ContactsManagerListener>() : new ArrayList<ContactsManagerListener>(mListeners);
+    }
+
+    /**
+     * Call the listeners on the UI thread.
+     * @param updatedContacts the updated contacts, null for a full refresh.
+     * @param deletedContactIds the deleted contact ids, null for a full refresh.
+     */
+    private static void dispatchToListeners(final Collection<Contact> updatedContacts, final Collection<String> deletedContactIds) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(ContactsManagerListener listener : getListeners()) {
+                    try {
+                        if (null == updatedContacts) {
+                            listener.onRefresh();
+                        } else {
+                            listener.onUpdate(updatedContacts, deletedContactIds);
+                        }
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "dispatchToListeners failed " + e.getLocalizedMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Refresh the local contacts in background.
+     * The first refresh reads the whole contacts book, the next ones only read the contacts
+     * updated or deleted since the previous refresh.
+     * @param context the context.
+     */
+    public static void refreshLocalContactsSnapshot(Context context) {
+        final Context appContext = context.getApplicationContext();
+
+        synchronized (ContactsManager.class) {
+            // a refresh is already pending
+            if (mIsRefreshPending) {
+                return;
+            }
+            mIsRefreshPending = true;
+
+            if (null == mRefreshThread) {
+                mRefreshThread = new HandlerThread("ContactsManagerThread", Thread.MIN_PRIORITY);
+                mRefreshThread.start();
+                mRefreshHandler = new Handler(mRefreshThread.getLooper());
+                mUiHandler = new Handler(Looper.getMainLooper());
+            }
+        }
+
+        mRefreshHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ContactsManager.class) {
+                    mIsRefreshPending = false;
+                }
+
+                refreshContacts(appContext);
+            }
+        });
+    }
+
+    /**
+     * Refresh the local contacts, on the refresh thread.
+     * @param context the context.
+     */
+    private static void refreshContacts(Context context) {
+        Snapshot snapshot;
+        int generation;
+
+        synchronized (ContactsManager.class) {
+            snapshot = mSnapshot;
+            generation = mSnapshotGeneration;
+        }
+
+        if (null == snapshot) {
+            fullRefresh(context, generation);
+        } else {
+            incrementalRefresh(context, snapshot, generation);
+        }
+    }
+
+    /**
+     * Read the whole local contacts book.
      * @param context the context.
-     * @return a list of contacts.
+     * @param generation the snapshot generation.
      */
-    public static void refreshLocalContactsSnapshot (Context context) {
+    private static void fullRefresh(Context context, int generation) {
+        long timerStartTime = Metrics.startTimer();
         long startTime = System.currentTimeMillis();
+        long syncTimestamp = startTime;
 
-        ContentResolver cr = context.getContentResolver();
-        HashMap<String, Contact> dict = new HashMap<String, Contact>();
+        HashMap<String, Contact> dict = readContacts(context.getContentResolver(), null, null);
 
-        // get the names
-        Cursor namesCur = null;
+        Snapshot snapshot = publishContacts(dict, syncTimestamp, generation);
 
-        try {
-            namesCur = cr.query(ContactsContract.Data.CONTENT_URI,
-                    new String[]{ContactsContract.Contacts.DISPLAY_NAME_PRIMARY,
-                            ContactsContract.CommonDataKinds.StructuredName.CONTACT_ID,
-                            ContactsContract.Contacts.PHOTO_THUMBNAIL_URI
-                    },
-                    ContactsContract.Data.MIMETYPE + " = ?",
-                    new String[]{ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE}, null);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "cr.query ContactsContract.Data.CONTENT_URI fails " + e.getMessage());
+        if (null == snapshot) {
+            return;
         }
 
-        if (namesCur != null) {
-            try {
-                while (namesCur.moveToNext()) {
-                    String displayName = namesCur.getString(namesCur.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY));
-                    String contactId = namesCur.getString(namesCur.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.CONTACT_ID));
-                    String thumbnailUri = namesCur.getString(namesCur.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.PHOTO_THUMBNAIL_URI));
+        int count = snapshot.mSearchIndex.getContacts().size();
 
-                    if (null != contactId) {
-                        Contact contact = dict.get(contactId);
+        Analytics.sendEvent("Contacts", "Refresh", count + " Contacts", System.currentTimeMillis() - startTime);
+        FULL_REFRESH_DURATION.recordSince(timerStartTime);
+        CONTACTS_COUNT.set(count);
 
-                        if (null == contact) {
-                            contact = new Contact(contactId);
-                            dict.put(contactId, contact);
-                        }
+        dispatchToListeners(null, null);
+    }
 
-                        if (null != displayName) {
-                            contact.setDisplayName(displayName);
-                        }
+    /**
+     * Read the contacts updated or deleted since the latest refresh.
+     * @param context the context.
+     * @param snapshot the latest snapshot.
+     * @param generation the snapshot generation.
+     */
+    private static void incrementalRefresh(Context context, Snapshot snapshot, int generation) {
+        long timerStartTime = Metrics.startTimer();
+        long startTime = System.currentTimeMillis();
+        long syncTimestamp = startTime;
 
-                        if (null != thumbnailUri) {
-                            contact.mThumbnailUri = thumbnailUri;
-                        }
-                    }
+        ContentResolver cr = context.getContentResolver();
+
+        ArrayList<String> updatedIds = new ArrayList<String>();
+        ArrayList<String> deletedIds = new ArrayList<String>();
+
+        // the updated contacts
+        Cursor updatedCur = null;
+
+        try {
+            updatedCur = cr.query(ContactsContract.Contacts.CONTENT_URI,
+                    new String[]{ContactsContract.Contacts._ID},
+                    ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                    new String[]{String.valueOf(snapshot.mSyncTimestamp)}, null);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "cr.query ContactsContract.Contacts.CONTENT_URI fails " + e.getMessage());
+        }
+
+        if (null != updatedCur) {
+            try {
+                while (updatedCur.moveToNext()) {
+                    updatedIds.add(updatedCur.getString(0));
                 }
             } catch (Exception e) {
             }
 
-            namesCur.close();
+            updatedCur.close();
         }
 
-        // get the phonenumbers
-        Cursor phonesCur = null;
+        // the deleted ones
+        Cursor deletedCur = null;
 
         try {
-            phonesCur = cr.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
-                    new String[]{ContactsContract.CommonDataKinds.Phone.DATA, // actual number
-                            ContactsContract.CommonDataKinds.Phone.CONTACT_ID
-                    },
-                    null, null, null);
+            deletedCur = cr.query(ContactsContract.DeletedContacts.CONTENT_URI,
+                    new String[]{ContactsContract.DeletedContacts.CONTACT_ID},
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                    new String[]{String.valueOf(snapshot.mSyncTimestamp)}, null);
         } catch (Exception e) {
-            Log.e(LOG_TAG, "cr.query ContactsContract.Phone.CONTENT_URI fails " + e.getMessage());
+            Log.e(LOG_TAG, "cr.query ContactsContract.DeletedContacts.CONTENT_URI fails " + e.getMessage());
         }
 
-        if (null != phonesCur) {
+        if (null != deletedCur) {
             try {
-                while (phonesCur.moveToNext()) {
-                    String phone = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.DATA));
+                while (deletedCur.moveToNext()) {
+                    deletedIds.add(deletedCur.getString(0));
+                }
+            } catch (Exception e) {
+            }
 
-                    if (!TextUtils.isEmpty(phone)) {
-                        String contactId = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.CONTACT_ID));
+            deletedCur.close();
+        }
 
-                        if (null != contactId) {
-                            Contact contact = dict.get(contactId);
-                            if (null == contact) {
-                                contact = new Contact(contactId);
-                                dict.put(contactId, contact);
-                            }
+        // nothing has been updated
+        if ((0 == updatedIds.size()) && (0 == deletedIds.size())) {
+            publishSnapshot(new Snapshot(snapshot.mContactsById, snapshot.mSearchIndex, syncTimestamp), generation);
+            return;
+        }
 
-                            contact.mPhoneNumbers.add(phone);
-                        }
-                    }
-                }
-            } catch (Exception e) {
+        HashMap<String, Contact> updatedContacts = new HashMap<String, Contact>();
+
+        for(int start = 0; start < updatedIds.size(); start += MAX_SELECTION_ARGS) {
+            List<String> subIds = updatedIds.subList(start, Math.min(start + MAX_SELECTION_ARGS, updatedIds.size()));
+            updatedContacts.putAll(readContacts(cr, ContactsContract.Data.CONTACT_ID + " IN (" + TextUtils.join(",", Collections.nCopies(subIds.size(), "?")) + ")", subIds.toArray(new String[subIds.size()])));
+        }
+
+        // the updated contacts without any data are not displayed
+        for(String contactId : updatedIds) {
+            if (!updatedContacts.containsKey(contactId)) {
+                deletedIds.add(contactId);
             }
+        }
+
+        // publish a new map
+        HashMap<String, Contact> dict = new HashMap<String, Contact>(snapshot.mContactsById);
+        ArrayList<String> removedIds = new ArrayList<String>();
 
-            phonesCur.close();
+        for(String contactId : deletedIds) {
+            if (null != dict.remove(contactId)) {
+                removedIds.add(contactId);
+            }
+        }
+
+        dict.putAll(updatedContacts);
+
+        Snapshot updatedSnapshot = publishContacts(dict, syncTimestamp, generation);
+
+        if (null == updatedSnapshot) {
+            return;
         }
 
-        // get the emails
-        Cursor emailsCur = null;
+        Analytics.sendEvent("Contacts", "Update", updatedContacts.size() + " Contacts", System.currentTimeMillis() - startTime);
+        INCREMENTAL_REFRESH_DURATION.recordSince(timerStartTime);
+        UPDATED_CONTACTS_COUNT.record(updatedContacts.size());
+        CONTACTS_COUNT.set(updatedSnapshot.mSearchIndex.getContacts().size());
+
+        // nothing to dispatch
+        if ((0 == updatedContacts.size()) && (0 == removedIds.size())) {
+            return;
+        }
+
+        dispatchToListeners(Collections.unmodifiableCollection(updatedContacts.values()), Collections.unmodifiableCollection(removedIds));
+    }
+
+    /**
+     * Read some local contacts.
+     * @param cr the content resolver.
+     * @param contactsSelection the contacts selection (null to read all of them)
+     * @param contactsSelectionArgs the contacts selection arguments.
+     * @return the contacts by contact id.
+     */
+    private static HashMap<String, Contact> readContacts(ContentResolver cr, String contactsSelection, String[] contactsSelectionArgs) {
+        HashMap<String, Contact> dict = new HashMap<String, Contact>();
+
+        // get the names, the phone numbers and the emails in a single query
+        Cursor dataCur = null;
 
         try {
-            emailsCur = cr.query(ContactsContract.CommonDataKinds.Email.CONTENT_URI,
-                    new String[]{ContactsContract.CommonDataKinds.Email.DATA, // actual email
-                            ContactsContract.CommonDataKinds.Email.CONTACT_ID},
-                    null, null, null);
+            dataCur = cr.query(ContactsContract.Data.CONTENT_URI,
+                    new String[]{ContactsContract.Data.MIMETYPE,
+                            ContactsContract.Data.CONTACT_ID,
+                            ContactsContract.Data.DATA1, // actual number or email
+                            ContactsContract.Contacts.DISPLAY_NAME_PRIMARY,
+                            ContactsContract.Contacts.PHOTO_THUMBNAIL_URI
+                    },
+                    appendSelection(ContactsContract.Data.MIMETYPE + " IN (?, ?, ?)", contactsSelection),
+                    appendSelectionArgs(new String[]{
+                            ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                            ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                            ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE
+                    }, contactsSelectionArgs), null);
         } catch (Exception e) {
-            Log.e(LOG_TAG, "cr.query ContactsContract.Email.CONTENT_URI fails " + e.getMessage());
+            Log.e(LOG_TAG, "cr.query ContactsContract.Data.CONTENT_URI fails " + e.getMessage());
         }
 
-        if (emailsCur != null) {
+        if (null != dataCur) {
             try {
-                while (emailsCur.moveToNext()) {
-                    String email = emailsCur.getString(emailsCur.getColumnIndex(ContactsContract.CommonDataKinds.Email.DATA));
-                    if (!TextUtils.isEmpty(email)) {
-                        String contactId = emailsCur.getString(emailsCur.getColumnIndex(ContactsContract.CommonDataKinds.Email.CONTACT_ID));
-
-                        if (null != contactId) {
-                            Contact contact = dict.get(contactId);
-                            if (null == contact) {
-                                contact = new Contact(contactId);
-                                dict.put(contactId, contact);
-                            }
-
-                            contact.mEmails.add(email);
-                        }
-                    }
-                }
+                readContacts(dataCur, dict);
             } catch (Exception e) {
+                Log.e(LOG_TAG, "readContacts fails " + e.getMessage());
             }
-            
-            emailsCur.close();
+
+            dataCur.close();
         }
 
-        mContactsList = dict.values();
+        return dict;
+    }
 
-        Analytics.sendEvent("Contacts", "Refresh", mContactsList.size() + " Contacts", System.currentTimeMillis() - startTime);
+    /**
+     * Read the rows of a Data cursor into contacts.
+     * The rows are dispatched by mime type : the names, the phone numbers and the emails.
+     * It only uses the cursor, so it can be benchmarked with a fake cursor on the JVM.
+     * @param dataCur the cursor.
+     * @param dict the contacts by contact id.
+     */
+    static void readContacts(Cursor dataCur, HashMap<String, Contact> dict) {
+        // the columns are retrieved once
+        int mimeTypeIndex = dataCur.getColumnIndex(ContactsContract.Data.MIMETYPE);
+        int contactIdIndex = dataCur.getColumnIndex(ContactsContract.Data.CONTACT_ID);
+        int dataIndex = dataCur.getColumnIndex(ContactsContract.Data.DATA1);
+        int displayNameIndex = dataCur.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY);
+        int thumbnailUriIndex = dataCur.getColumnIndex(ContactsContract.Contacts.PHOTO_THUMBNAIL_URI);
+
+        while (dataCur.moveToNext()) {
+            String contactId = dataCur.getString(contactIdIndex);
+
+            if (null == contactId) {
+                continue;
+            }
 
-        if (null != mListeners) {
-            for(ContactsManagerListener listener : mListeners) {
-                try {
-                    listener.onRefresh();
+            String mimeType = dataCur.getString(mimeTypeIndex);
+
+            if (ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                Contact contact = getOrCreateContact(dict, contactId);
+
+                String displayName = dataCur.getString(displayNameIndex);
+                if (null != displayName) {
+                    contact.setDisplayName(displayName);
+                }
+
+                String thumbnailUri = dataCur.getString(thumbnailUriIndex);
+                if (null != thumbnailUri) {
+                    contact.mThumbnailUri = thumbnailUri;
+                }
+            } else if (ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                String phone = dataCur.getString(dataIndex);
 
-                } catch (Exception e) {
+                if ((null != phone) && (phone.length() > 0)) {
+                    getOrCreateContact(dict, contactId).mPhoneNumbers.add(phone);
+                }
+            } else if (ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                String email = dataCur.getString(dataIndex);
+
+                if ((null != email) && (email.length() > 0)) {
+                    getOrCreateContact(dict, contactId).mEmails.add(email);
                 }
             }
         }
     }
-}
 
+    /**
+     * Retrieve a contact from its id, create it if it does not exist.
+     * @param dict the contacts by contact id.
+     * @param contactId the contact id.
+     * @return the contact.
+     */
+    private static Contact getOrCreateContact(HashMap<String, Contact> dict, String contactId) {
+        Contact contact = dict.get(contactId);
+
+        if (null == contact) {
+            contact = new Contact(contactId);
+            dict.put(contactId, contact);
+        }
+
+        return contact;
+    }
+
+    /**
+     * Append a selection to another one.
+     * @param selection the selection.
+     * @param other the selection to append (can be null).
+     * @return the selection.
+     */
+    private static String appendSelection(String selection, String other) {
+        return (null == other) ? selection : "(" + selection + ") AND (" + other + ")";
+    }
+
+    /**
+     * Append some selection arguments to others.
+     * @param args the selection arguments.
+     * @param others the selection arguments to append (can be null).
+     * @return the selection arguments.
+     */
+    private static String[] appendSelectionArgs(String[] args, String[] others) {
+        if (null == others) {
+            return args;
+        }
+
+        String[] res = new String[args.length + others.length];
+        System.arraycopy(args, 0, res, 0, args.length);
+        System.arraycopy(others, 0, res, args.length, others.length);
+        return res;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.contacts;
+
+import org.matrix.console.util.CollationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable search index of a contacts list.
+ * The display name, the emails and the phone numbers of each contact are normalized (lower case, without diacritics)
+ * and every 1, 2 and 3 characters long substring is indexed. A pattern up to 3 characters long is matched by its
+ * posting list. A longer pattern is searched only in the contacts of the smallest posting list of its trigrams,
+ * so a search does not scan the whole contacts list.
+ */
+public class ContactsSearchIndex {
+
+    // separate the contact fields in the searchable text
+    private static final char FIELDS_SEPARATOR = '\n';
+
+    private static final int MAX_GRAM_LENGTH = 3;
+
+    private static final int[] EMPTY_POSTING_LIST = new int[0];
+
+    // the indexed contacts
+    private final List<Contact> mContacts;
+
+    // the normalized searchable text of each contact
+    private final String[] mSearchableTexts;
+
+    // the sorted contact indexes by gram
+    private final PostingLists mPostingLists;
+
+    /**
+     * The posting lists by gram, in an open addressing table with primitive keys.
+     * The gram keys are never 0 because they contain their length.
+     */
+    private static class PostingLists {
+        private long[] mKeys;
+        private int[][] mLists;
+        // the number of used items in each posting list
+        private int[] mSizes;
+        private int mCount = 0;
+
+        PostingLists(int capacity) {
+            allocate(Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1);
+        }
+
+        private void allocate(int capacity) {
+            mKeys = new long[capacity];
+            mLists = new int[capacity][];
+            mSizes = new int[capacity];
+        }
+
+        /**
+         * Find the slot of a gram.
+         * @param gram the gram.
+         * @return the slot of the gram, or the empty slot where it would be inserted.
+         */
+        private int getSlot(long gram) {
+            int mask = mKeys.length - 1;
+            int slot = (int) ((gram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+
+            while ((0 != mKeys[slot]) && (gram != mKeys[slot])) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        /**
+         * Add a contact index to a gram posting list.
+         * @param gram the gram.
+         * @param contactIndex the contact index.
+         */
+        void add(long gram, int contactIndex) {
+            int slot = getSlot(gram);
+            int[] list = mLists[slot];
+
+            if (null == list) {
+                // keep the table half empty
+                if ((mCount + 1) * 2 > mKeys.length) {
+                    grow();
+                    slot = getSlot(gram);
+                }
+
+                list = new int[4];
+                mKeys[slot] = gram;
+                mLists[slot] = list;
+                mCount++;
+            } else if (list[mSizes[slot] - 1] == contactIndex) {
+                // the contacts are indexed in order, so a duplicated gram is the last item
+                return;
+            } else if (mSizes[slot] == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                mLists[slot] = list;
+            }
+
+            list[mSizes[slot]++] = contactIndex;
+        }
+
+        /**
+         * Double the table capacity.
+         */
+        private void grow() {
+            long[] keys = mKeys;
+            int[][] lists = mLists;
+            int[] sizes = mSizes;
+
+            allocate(keys.length * 2);
+
+            for (int i = 0; i < keys.length; i++) {
+                if (null != lists[i]) {
+                    int slot = getSlot(keys[i]);
+                    mKeys[slot] = keys[i];
+                    mLists[slot] = lists[i];
+                    mSizes[slot] = sizes[i];
+                }
+            }
+        }
+
+        /**
+         * Trim the posting lists, once every contact is indexed.
+         */
+        void trim() {
+            for (int slot = 0; slot < mKeys.length; slot++) {
+                if ((null != mLists[slot]) && (mLists[slot].length != mSizes[slot])) {
+                    mLists[slot] = Arrays.copyOf(mLists[slot], mSizes[slot]);
+                }
+            }
+
+            mSizes = null;
+        }
+
+        /**
+         * @param gram the gram.
+         * @return the posting list of the gram, null if it is not indexed.
+         */
+        int[] get(long gram) {
+            return mLists[getSlot(gram)];
+        }
+    }
+
+    /**
+     * Build the search index of a contacts list.
+     * The search results are ordered as the provided list.
+     * @param contacts the contacts list.
+     */
+    public ContactsSearchIndex(List<Contact> contacts) {
+        mContacts = Collections.unmodifiableList(new ArrayList<Contact>(contacts));
+        mSearchableTexts = new String[mContacts.size()];
+
+        PostingLists postingLists = new PostingLists(mContacts.size() * 8);
+
+        for (int contactIndex = 0; contactIndex < mContacts.size(); contactIndex++) {
+            String text = getSearchableText(mContacts.get(contactIndex));
+            mSearchableTexts[contactIndex] = text;
+
+            for (int start = 0; start < text.length(); start++) {
+                long gram = 0;
+
+                for (int length = 1; (length <= MAX_GRAM_LENGTH) && ((start + length) <= text.length()); length++) {
+                    char c = text.charAt(start + length - 1);
+
+                    // the grams never overlap two fields
+                    if (FIELDS_SEPARATOR == c) {
+                        break;
+                    }
+
+                    gram = (gram << 16) | c;
+                    postingLists.add(gram | ((long) length << 48), contactIndex);
+                }
+            }
+        }
+
+        postingLists.trim();
+        mPostingLists = postingLists;
+    }
+
+    /**
+     * Build the normalized searchable text of a contact.
+     * @param contact the contact.
+     * @return the searchable text.
+     */
+    private static String getSearchableText(Contact contact) {
+        StringBuilder builder = new StringBuilder();
+
+        if (null != contact.getDisplayName()) {
+            builder.append(contact.getDisplayName());
+        }
+
+        for (String email : contact.mEmails) {
+            builder.append(FIELDS_SEPARATOR).append(email);
+        }
+
+        for (String phoneNumber : contact.mPhoneNumbers) {
+            builder.append(FIELDS_SEPARATOR).append(phoneNumber);
+        }
+
+        return CollationUtils.normalize(builder.toString());
+    }
+
+    /**
+     * @return the indexed contacts
+     */
+    public List<Contact> getContacts() {
+        return mContacts;
+    }
+
+    /**
+     * Retrieve the gram posting list.
+     * @param text the text containing the gram.
+     * @param start the gram start.
+     * @param length the gram length.
+     * @return the posting list.
+     */
+    private int[] getPostingList(String text, int start, int length) {
+        long gram = 0;
+
+        for (int i = start; i < (start + length); i++) {
+            gram = (gram << 16) | text.charAt(i);
+        }
+
+        int[] list = mPostingLists.get(gram | ((long) length << 48));
+        return (null == list) ? EMPTY_POSTING_LIST : list;
+    }
+
+    /**
+     * Search the contacts whose display name, emails or phone numbers contain a pattern.
+     * @param pattern the pattern.
+     * @return the matched contacts, in the indexed list order.
+     */
+    public List<Contact> search(String pattern) {
+        if ((null == pattern) || (0 == pattern.length())) {
+            return mContacts;
+        }
+
+        String normalizedPattern = CollationUtils.normalize(pattern);
+
+        // a gram posting list exactly matches the short patterns
+        if (normalizedPattern.length() <= MAX_GRAM_LENGTH) {
+            return toContacts(getPostingList(normalizedPattern, 0, normalizedPattern.length()));
+        }
+
+        // start from the smallest trigram posting list
+        int[] candidates = null;
+
+        for (int start = 0; (start + MAX_GRAM_LENGTH) <= normalizedPattern.length(); start++) {
+            int[] list = getPostingList(normalizedPattern, start, MAX_GRAM_LENGTH);
+
+            if ((null == candidates) || (list.length < candidates.length)) {
+                candidates = list;
+            }
+        }
+
+        // check the candidates
+        ArrayList<Contact> res = new ArrayList<Contact>();
+
+        for (int contactIndex : candidates) {
+            if (mSearchableTexts[contactIndex].indexOf(normalizedPattern) >= 0) {
+                res.add(mContacts.get(contactIndex));
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Convert a posting list to a contacts list.
+     * @param list the posting list.
+     * @return the contacts list.
+     */
+    private List<Contact> toContacts(int[] list) {
+        ArrayList<Contact> res = new ArrayList<Contact>(list.length);
+
+        for (int contactIndex : list) {
+            res.add(mContacts.get(contactIndex));
+        }
+
+        return res;
+    }
+}
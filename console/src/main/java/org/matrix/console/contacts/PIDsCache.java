@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.contacts;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent cache of the 3PID lookups (email -> matrix ID).
+ * The negative results are also cached (empty matrix ID).
+ * The file is loaded in background and the entries older than the TTL are removed.
+ * The cache is tagged with a generation, incremented when it is cleared, so the lookups
+ * started before a clear do not refill it.
+ */
+public class PIDsCache {
+    private static final String LOG_TAG = "PIDsCache";
+
+    private static final String CACHE_FILENAME = "pids.cache";
+    private static final int CACHE_VERSION = 1;
+
+    // default time to live of the entries
+    public static final long DEFAULT_TTL_MS = 24L * 60L * 60L * 1000L;
+
+    private static class Entry {
+        final Contact.MXID mMXID;
+        final long mLookedUpAt;
+
+        Entry(Contact.MXID mxid, long lookedUpAt) {
+            mMXID = mxid;
+            mLookedUpAt = lookedUpAt;
+        }
+    }
+
+    private final File mCacheFile;
+    private HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private long mTTL = DEFAULT_TTL_MS;
+
+    // incremented at each clear
+    private int mGeneration = 0;
+
+    // the cache is loaded and saved in background
+    private Handler mFileHandler = null;
+    private boolean mIsLoadRequested = false;
+    private boolean mIsLoaded = false;
+    private boolean mIsSavePending = false;
+
+    /**
+     * Constructor
+     * @param context the context.
+     */
+    public PIDsCache(Context context) {
+        mCacheFile = new File(context.getApplicationContext().getCacheDir(), CACHE_FILENAME);
+    }
+
+    /**
+     * Update the entries time to live.
+     * @param ttl the time to live in milliseconds.
+     */
+    public synchronized void setTTL(long ttl) {
+        mTTL = ttl;
+    }
+
+    /**
+     * @return the cache generation, to provide to {@link #put(String, Contact.MXID, int)}.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return true if the cache file has been loaded.
+     */
+    public synchronized boolean isLoaded() {
+        return mIsLoaded;
+    }
+
+    /**
+     * Retrieve a cached lookup result.
+     * The cache is empty until it is loaded.
+     * @param address the address.
+     * @return the MXID (with an empty matrix ID if the address is unknown) or null if there is no fresh lookup result.
+     */
+    public synchronized Contact.MXID get(String address) {
+        Entry entry = mEntries.get(address);
+
+        if (null == entry) {
+            return null;
+        }
+
+        if (isExpired(entry, System.currentTimeMillis())) {
+            mEntries.remove(address);
+            return null;
+        }
+
+        return entry.mMXID;
+    }
+
+    /**
+     * Store a lookup result.
+     * @param address the address.
+     * @param mxid the lookup result.
+     * @param generation the cache generation when the lookup started.
+     * @return true if the result has been stored, false if the cache has been cleared since the lookup started.
+     */
+    public synchronized boolean put(String address, Contact.MXID mxid, int generation) {
+        if (generation != mGeneration) {
+            return false;
+        }
+
+        String matrixId = (null == mxid.mMatrixId) ? "" : mxid.mMatrixId;
+        String accountId = (null == mxid.mAccountId) ? "" : mxid.mAccountId;
+
+        mEntries.put(address, new Entry(new Contact.MXID(matrixId, accountId), System.currentTimeMillis()));
+        return true;
+    }
+
+    /**
+     * Remove the lookup results of an account.
+     * @param accountId the account id.
+     */
+    public synchronized void removeAccount(String accountId) {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            if (it.next().getValue().mMXID.mAccountId.equals(accountId)) {
+                it.remove();
+            }
+        }
+
+        save();
+    }
+
+    /**
+     * Clear the cache and its file.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mEntries = new HashMap<String, Entry>();
+        mCacheFile.delete();
+    }
+
+    /**
+     * Tell if an entry is older than the time to live.
+     * @param entry the entry.
+     * @param now the current time.
+     * @return true if the entry is expired.
+     */
+    private boolean isExpired(Entry entry, long now) {
+        return (now - entry.mLookedUpAt) >= mTTL;
+    }
+
+    /**
+     * Remove the expired entries.
+     */
+    private void removeExpiredEntries() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            if (isExpired(it.next().getValue(), now)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the handler of the file thread.
+     */
+    private Handler getFileHandler() {
+        if (null == mFileHandler) {
+            HandlerThread thread = new HandlerThread("PIDsCacheThread", Thread.MIN_PRIORITY);
+            thread.start();
+            mFileHandler = new Handler(thread.getLooper());
+        }
+
+        return mFileHandler;
+    }
+
+    /**
+     * Load the cache file in background.
+     * The loaded entries do not replace the results stored in the meantime.
+     * @param onLoaded called on the file thread when the cache is loaded (can be null).
+     */
+    public synchronized void load(final Runnable onLoaded) {
+        if (mIsLoadRequested) {
+            return;
+        }
+        mIsLoadRequested = true;
+
+        getFileHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                int generation = getGeneration();
+                HashMap<String, Entry> entries = read();
+
+                synchronized (PIDsCache.this) {
+                    // the cache has been cleared while it was loading
+                    if (generation == mGeneration) {
+                        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                            if (!mEntries.containsKey(entry.getKey())) {
+                                mEntries.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+
+                    mIsLoaded = true;
+                }
+
+                if (null != onLoaded) {
+                    onLoaded.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the cache file.
+     * @return the fresh entries.
+     */
+    private HashMap<String, Entry> read() {
+        HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+        if (!mCacheFile.exists()) {
+            return entries;
+        }
+
+        long now = System.currentTimeMillis();
+        long ttl;
+        DataInputStream dis = null;
+
+        synchronized (this) {
+            ttl = mTTL;
+        }
+
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mCacheFile)));
+
+            if (dis.readInt() == CACHE_VERSION) {
+                // the account ids are stored once
+                int accountsCount = dis.readInt();
+                String[] accountIds = new String[accountsCount];
+
+                for (int i = 0; i < accountsCount; i++) {
+                    accountIds[i] = dis.readUTF();
+                }
+
+                int count = dis.readInt();
+
+                for (int i = 0; i < count; i++) {
+                    String address = dis.readUTF();
+                    String matrixId = dis.readUTF();
+                    String accountId = accountIds[dis.readInt()];
+                    long lookedUpAt = dis.readLong();
+
+                    // ignore the stale entries
+                    if ((now - lookedUpAt) < ttl) {
+                        entries.put(address, new Entry(new Contact.MXID(matrixId, accountId), lookedUpAt));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "load fails " + e.getLocalizedMessage());
+            entries.clear();
+        }
+
+        if (null != dis) {
+            try {
+                dis.close();
+            } catch (Exception e) {
+            }
+        }
+
+        Log.d(LOG_TAG, "read " + entries.size() + " entries");
+
+        return entries;
+    }
+
+    /**
+     * Save the cache file in background, without the expired entries.
+     */
+    public synchronized void save() {
+        // the file has not been loaded : it would be overwritten
+        if (!mIsLoadRequested || mIsSavePending) {
+            return;
+        }
+
+        mIsSavePending = true;
+
+        // the load is posted on the same thread, so the file is written after it is loaded
+        getFileHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                HashMap<String, Entry> entries;
+
+                synchronized (PIDsCache.this) {
+                    mIsSavePending = false;
+                    removeExpiredEntries();
+                    entries = new HashMap<String, Entry>(mEntries);
+                }
+
+                write(entries);
+            }
+        });
+    }
+
+    /**
+     * Write the entries to the cache file.
+     * @param entries the entries to write.
+     */
+    private void write(HashMap<String, Entry> entries) {
+        File tmpFile = new File(mCacheFile.getPath() + ".tmp");
+        DataOutputStream dos = null;
+
+        try {
+            ArrayList<String> accountIds = new ArrayList<String>();
+            HashMap<String, Integer> accountIndexes = new HashMap<String, Integer>();
+
+            for (Entry entry : entries.values()) {
+                if (!accountIndexes.containsKey(entry.mMXID.mAccountId)) {
+                    accountIndexes.put(entry.mMXID.mAccountId, accountIds.size());
+                    accountIds.add(entry.mMXID.mAccountId);
+                }
+            }
+
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            dos.writeInt(CACHE_VERSION);
+
+            dos.writeInt(accountIds.size());
+            for (String accountId : accountIds) {
+                dos.writeUTF(accountId);
+            }
+
+            dos.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                dos.writeUTF(entry.getKey());
+                dos.writeUTF(entry.getValue().mMXID.mMatrixId);
+                dos.writeInt(accountIndexes.get(entry.getValue().mMXID.mAccountId));
+                dos.writeLong(entry.getValue().mLookedUpAt);
+            }
+
+            dos.close();
+            dos = null;
+
+            if (!tmpFile.renameTo(mCacheFile)) {
+                Log.e(LOG_TAG, "write : cannot rename " + tmpFile.getPath());
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "write fails " + e.getLocalizedMessage());
+        }
+
+        if (null != dos) {
+            try {
+                dos.close();
+            } catch (Exception e) {
+            }
+            tmpFile.delete();
+        }
+    }
+}
@@ -16,28 +16,61 @@
 package org.matrix.console.contacts;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.console.Matrix;
+import org.matrix.console.util.Metrics;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * retrieve the contact matrix IDs
  */
 public class PIDsRetriever {
+    private static final String LOG_TAG = "PIDsRetriever";
+
+    // the latency of the lookup batches, from their queueing to their last response
+    private static final Metrics.Histogram LOOKUP_LATENCY = Metrics.getInstance().getHistogram("pids.lookup_latency_us");
+    private static final Metrics.Counter LOOKUPS_COUNT = Metrics.getInstance().getCounter("pids.lookups");
+    // the number of lookup requests waiting to be sent, for every session
+    private static final Metrics.Gauge QUEUE_DEPTH = Metrics.getInstance().getGauge("pids.queue_depth");
+    // the number of addresses waiting to be batched
+    private static final Metrics.Gauge PENDING_ADDRESSES_COUNT = Metrics.getInstance().getGauge("pids.pending_addresses");
 
     public interface PIDsRetrieverListener {
         /**
-         * Called when the contact PIDs are retrieved
+         * Called when a lookup batch is done.
+         * @param accountId the account used to perform the lookup, null if the results were loaded from the cache.
+         * @param contacts the contacts whose emails were part of the batch.
+         * @param has3PIDs true if some matrix IDs have been found.
          */
-        public void onPIDsRetrieved(String accountId, Contact contact, boolean has3PIDs);
+        public void onPIDsRetrieved(String accountId, Collection<Contact> contacts, boolean has3PIDs);
     }
 
+    // the maximum number of addresses per lookup request
+    private static final int LOOKUP_BATCH_SIZE = 50;
+
+    // the pending addresses are sent after this delay if the batch is not full
+    private static final int LOOKUP_BATCH_DELAY_MS = 200;
+
+    // the maximum number of running lookup requests per session
+    private static final int MAX_CONCURRENT_LOOKUPS_PER_SESSION = 2;
+
+    // the network errors are retried with an exponential backoff
+    private static final int MAX_LOOKUP_RETRIES = 5;
+    private static final long LOOKUP_RETRY_DELAY_MS = 1000;
+
     private static PIDsRetriever mPIDsRetriever = null;
 
     public static PIDsRetriever getIntance() {
@@ -49,7 +82,34 @@ public class PIDsRetriever {
     }
 
     // MatrixID <-> email
-    private HashMap<String, Contact.MXID> mMatrixIdsByElement = new HashMap<String, Contact.MXID>();
+    // the cache is persisted and loaded in background
+    private PIDsCache mMatrixIdsByElement = null;
+
+    // the addresses to lookup with the contacts waiting for them
+    private LinkedHashMap<String, ArrayList<Contact>> mPendingContactsByAddress = new LinkedHashMap<String, ArrayList<Contact>>();
+
+    // the addresses whose lookup is in progress
+    private HashMap<String, ArrayList<Contact>> mRequestedContactsByAddress = new HashMap<String, ArrayList<Contact>>();
+
+    // the lookup requests queues by account id
+    private HashMap<String, SessionLookupQueue> mLookupQueues = new HashMap<String, SessionLookupQueue>();
+
+    // incremented at each reset, the responses of the batches sent before a reset are ignored
+    private int mGeneration = 0;
+
+    private Context mContext = null;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mIsFlushScheduled = false;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PIDsRetriever.this) {
+                mIsFlushScheduled = false;
+            }
+            flushPendingAddresses();
+        }
+    };
 
     private PIDsRetrieverListener mListener = null;
 
@@ -58,103 +118,479 @@ public class PIDsRetriever {
     }
 
     /**
-     * Clear the email to matrix id conversion table
+     * @param context the context
+     * @return the email to matrix id conversion table, it is loaded in background at the first call.
      */
-    public void onAppBackgrounded() {
-        mMatrixIdsByElement.clear();
+    private PIDsCache getMatrixIdsByElement(Context context) {
+        if (null == mMatrixIdsByElement) {
+            mMatrixIdsByElement = new PIDsCache(context);
+
+            // the addresses queued while the cache was loading are sent
+            mMatrixIdsByElement.load(new Runnable() {
+                @Override
+                public void run() {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            flushPendingAddresses();
+                        }
+                    });
+                }
+            });
+        }
+
+        return mMatrixIdsByElement;
+    }
+
+    /**
+     * Start loading the email to matrix id conversion table, so it is ready when the contacts are displayed.
+     * @param context the context
+     */
+    public synchronized void loadCache(Context context) {
+        getMatrixIdsByElement(context);
+    }
+
+    /**
+     * Forget the lookup results of a removed account.
+     * @param accountId the account id.
+     */
+    public synchronized void onAccountRemoved(String accountId) {
+        if (null != mMatrixIdsByElement) {
+            mMatrixIdsByElement.removeAccount(accountId);
+        }
+        mLookupQueues.remove(accountId);
+    }
+
+    /**
+     * Update the time to live of the lookup results.
+     * The stale results are requested again to the identity server.
+     * @param context the context
+     * @param ttl the time to live in milliseconds.
+     */
+    public synchronized void setLookupTTL(Context context, long ttl) {
+        getMatrixIdsByElement(context).setTTL(ttl);
+    }
+
+    /**
+     * Save the email to matrix id conversion table
+     */
+    public synchronized void onAppBackgrounded() {
+        if (null != mMatrixIdsByElement) {
+            mMatrixIdsByElement.save();
+        }
     }
 
     /**
      * reset
      */
-    public void reset() {
-        mMatrixIdsByElement.clear();
+    public synchronized void reset() {
+        mGeneration++;
+
+        if (null != mMatrixIdsByElement) {
+            mMatrixIdsByElement.clear();
+        }
+        mPendingContactsByAddress.clear();
+        mRequestedContactsByAddress.clear();
+        mLookupQueues.clear();
+        mHandler.removeCallbacks(mFlushRunnable);
+        mIsFlushScheduled = false;
         mListener = null;
+        updateQueueMetrics();
     }
 
     /**
      * Retrieve the matrix IDs from the contact fields (only emails are supported by now).
      * Update the contact fields with the found Matrix Ids.
      * The update could require some remote requests : they are done only localUpdateOnly is false.
+     * The unknown addresses of every contact are gathered and looked up by batches.
      * @param context the context.
      * @param contact The contact to update.
      * @param localUpdateOnly true to only support refresh from local information.
      */
     public void retrieveMatrixIds(Context context, final Contact contact, boolean localUpdateOnly) {
-        ArrayList<String> requestedAddresses = new ArrayList<String>();
+        boolean flushNow = false;
 
-        // check if the emails have only been checked
-        // i.e. requested their match PID to the identity server.
-        for(String email : contact.mEmails) {
-            if (mMatrixIdsByElement.containsKey(email)) {
-               Contact.MXID mxid = mMatrixIdsByElement.get(email);
+        synchronized (this) {
+            PIDsCache matrixIdsByElement = getMatrixIdsByElement(context);
+
+            // check if the emails have only been checked
+            // i.e. requested their match PID to the identity server.
+            for (String email : contact.mEmails) {
+                Contact.MXID mxid = matrixIdsByElement.get(email);
 
                 if (null != mxid) {
                     contact.put(email, mxid);
+                } else if (!localUpdateOnly) {
+                    // the lookup is in progress
+                    ArrayList<Contact> contacts = mRequestedContactsByAddress.get(email);
+
+                    // or not yet requested
+                    if (null == contacts) {
+                        contacts = mPendingContactsByAddress.get(email);
+
+                        if (null == contacts) {
+                            contacts = new ArrayList<Contact>();
+                            mPendingContactsByAddress.put(email, contacts);
+                        }
+                    }
+
+                    if (contacts.indexOf(contact) < 0) {
+                        contacts.add(contact);
+                    }
                 }
-            } else {
-                requestedAddresses.add(email);
             }
-        }
 
-        // the lookup has not been done on some emails
-        if ((requestedAddresses.size() > 0) && (!localUpdateOnly)) {
-            ArrayList<String> medias = new ArrayList<String>();
+            if (mPendingContactsByAddress.size() > 0) {
+                mContext = context.getApplicationContext();
 
-            for (int index = 0; index < requestedAddresses.size(); index++) {
-                medias.add("email");
+                if (mPendingContactsByAddress.size() >= LOOKUP_BATCH_SIZE) {
+                    flushNow = true;
+                } else if (!mIsFlushScheduled) {
+                    mIsFlushScheduled = true;
+                    mHandler.postDelayed(mFlushRunnable, LOOKUP_BATCH_DELAY_MS);
+                }
             }
 
-            final ArrayList<String> fRequestedAddresses = requestedAddresses;
-            Collection<MXSession> sessions = Matrix.getInstance(context.getApplicationContext()).getSessions();
+            updateQueueMetrics();
+        }
 
-            for (MXSession session : sessions) {
-                final String accountId = session.getCredentials().userId;
+        if (flushNow) {
+            flushPendingAddresses();
+        }
+    }
 
-                session.lookup3Pids(fRequestedAddresses, medias, new ApiCallback<ArrayList<String>>() {
-                    @Override
-                    public void onSuccess(ArrayList<String> pids) {
-                        boolean foundPIDs = false;
+    /**
+     * Send the pending addresses by batches of LOOKUP_BATCH_SIZE addresses.
+     * The addresses are kept pending until the cache is loaded, the cached ones are then not sent.
+     */
+    private void flushPendingAddresses() {
+        while (true) {
+            final ArrayList<String> addresses = new ArrayList<String>();
+            final HashMap<String, ArrayList<Contact>> contactsByAddress = new HashMap<String, ArrayList<Contact>>();
+            ArrayList<Contact> cachedContacts = new ArrayList<Contact>();
+            boolean foundCachedPIDs = false;
+            int cacheGeneration;
+            int generation;
+
+            synchronized (this) {
+                if ((null == mMatrixIdsByElement) || !mMatrixIdsByElement.isLoaded()) {
+                    return;
+                }
 
-                        // update the global dict
-                        // and the contact dict
-                        for (int i = 0; i < fRequestedAddresses.size(); i++) {
-                            String address = fRequestedAddresses.get(i);
-                            String pid = pids.get(i);
+                cacheGeneration = mMatrixIdsByElement.getGeneration();
+                generation = mGeneration;
+                Iterator<Map.Entry<String, ArrayList<Contact>>> it = mPendingContactsByAddress.entrySet().iterator();
 
-                            mMatrixIdsByElement.put(address, new Contact.MXID(pid, accountId));
+                while (it.hasNext() && (addresses.size() < LOOKUP_BATCH_SIZE)) {
+                    Map.Entry<String, ArrayList<Contact>> entry = it.next();
+                    Contact.MXID mxid = mMatrixIdsByElement.get(entry.getKey());
 
-                            if (pid.length() != 0) {
-                                foundPIDs = true;
-                                contact.put(address, new Contact.MXID(pid, accountId));
+                    // the address has been loaded from the cache file
+                    if (null != mxid) {
+                        for (Contact contact : entry.getValue()) {
+                            if (mxid.mMatrixId.length() != 0) {
+                                foundCachedPIDs = true;
+                                contact.put(entry.getKey(), mxid);
                             }
-                        }
 
-                        // warn the listener of the update
-                        if (null != mListener) {
-                            mListener.onPIDsRetrieved(accountId, contact, foundPIDs);
+                            if (cachedContacts.indexOf(contact) < 0) {
+                                cachedContacts.add(contact);
+                            }
                         }
+
+                        it.remove();
+                        continue;
                     }
 
-                    // ignore the network errors
-                    // will be checked again later
-                    @Override
-                    public void onNetworkError(Exception e) {
+                    addresses.add(entry.getKey());
+                    contactsByAddress.put(entry.getKey(), entry.getValue());
+                    mRequestedContactsByAddress.put(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+
+                updateQueueMetrics();
+            }
+
+            if ((cachedContacts.size() != 0) && (null != mListener)) {
+                mListener.onPIDsRetrieved(null, cachedContacts, foundCachedPIDs);
+            }
+
+            if (0 == addresses.size()) {
+                return;
+            }
+
+            lookup(addresses, contactsByAddress, generation, cacheGeneration);
+        }
+    }
 
+    /**
+     * A batch of addresses to lookup with each session.
+     */
+    private class LookupBatch {
+        final ArrayList<String> mAddresses;
+        final ArrayList<String> mMedias;
+        final HashMap<String, ArrayList<Contact>> mContactsByAddress;
+        final long mEnqueuedAt = Metrics.startTimer();
+
+        // the cache generation when the batch was built
+        final int mCacheGeneration;
+
+        // the retriever generation when the batch was built
+        final int mGeneration;
+
+        // the batch is done when each session has responded
+        int mPendingResponses;
+
+        LookupBatch(ArrayList<String> addresses, HashMap<String, ArrayList<Contact>> contactsByAddress, int sessionsCount, int generation, int cacheGeneration) {
+            mAddresses = addresses;
+            mContactsByAddress = contactsByAddress;
+            mPendingResponses = sessionsCount;
+            mCacheGeneration = cacheGeneration;
+            mGeneration = generation;
+
+            mMedias = new ArrayList<String>();
+            for (int index = 0; index < addresses.size(); index++) {
+                mMedias.add("email");
+            }
+        }
+    }
+
+    /**
+     * The lookup requests queue of a session.
+     * A limited number of requests are sent in parallel and the network errors are retried with a backoff.
+     */
+    private class SessionLookupQueue {
+        final MXSession mSession;
+        final String mAccountId;
+        final LinkedList<LookupBatch> mQueue = new LinkedList<LookupBatch>();
+        int mRunningRequestsCount = 0;
+
+        SessionLookupQueue(MXSession session) {
+            mSession = session;
+            mAccountId = session.getCredentials().userId;
+        }
+
+        /**
+         * Add a batch to the queue.
+         * @param batch the batch
+         */
+        void enqueue(LookupBatch batch) {
+            synchronized (PIDsRetriever.this) {
+                mQueue.add(batch);
+                updateQueueMetrics();
+            }
+            processQueue();
+        }
+
+        /**
+         * Send the queued requests while there are some free slots.
+         */
+        void processQueue() {
+            while (true) {
+                LookupBatch batch;
+
+                synchronized (PIDsRetriever.this) {
+                    if ((mRunningRequestsCount >= MAX_CONCURRENT_LOOKUPS_PER_SESSION) || mQueue.isEmpty()) {
+                        return;
                     }
 
-                    @Override
-                    public void onMatrixError(MatrixError e) {
+                    batch = mQueue.removeFirst();
+                    mRunningRequestsCount++;
+                    updateQueueMetrics();
+                }
+
+                send(batch, 0);
+            }
+        }
 
+        /**
+         * Send a lookup request.
+         * @param batch the batch to lookup.
+         * @param attempt the number of failed attempts.
+         */
+        void send(final LookupBatch batch, final int attempt) {
+            // the retriever has been reset while the request was waiting for a retry
+            if (isStale(batch)) {
+                return;
+            }
+
+            // the session has been closed in the meantime
+            if (!mSession.isAlive()) {
+                onBatchResponse(batch, null);
+                return;
+            }
+
+            mSession.lookup3Pids(batch.mAddresses, batch.mMedias, new ApiCallback<ArrayList<String>>() {
+                @Override
+                public void onSuccess(ArrayList<String> pids) {
+                    onBatchResponse(batch, pids);
+                }
+
+                // retry the network errors
+                @Override
+                public void onNetworkError(Exception e) {
+                    if (attempt < MAX_LOOKUP_RETRIES) {
+                        long delay = LOOKUP_RETRY_DELAY_MS << attempt;
+                        Log.d(LOG_TAG, "lookup3Pids failed for " + mAccountId + ", retry in " + delay + " ms");
+
+                        mHandler.postDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                send(batch, attempt + 1);
+                            }
+                        }, delay);
+                    } else {
+                        onBatchResponse(batch, null);
                     }
+                }
+
+                @Override
+                public void onMatrixError(MatrixError e) {
+                    onBatchResponse(batch, null);
+                }
+
+                @Override
+                public void onUnexpectedError(Exception e) {
+                    onBatchResponse(batch, null);
+                }
+            });
+        }
+
+        /**
+         * Manage a lookup response.
+         * @param batch the batch
+         * @param pids the matrix ids, null if the lookup failed.
+         */
+        void onBatchResponse(LookupBatch batch, ArrayList<String> pids) {
+            boolean foundPIDs = false;
+            ArrayList<Contact> updatedContacts = new ArrayList<Contact>();
+
+            synchronized (PIDsRetriever.this) {
+                // the batch has been sent before a reset : its queue and its contacts are discarded
+                if (isStale(batch)) {
+                    return;
+                }
 
-                    @Override
-                    public void onUnexpectedError(Exception e) {
+                mRunningRequestsCount--;
 
+                if (null != pids) {
+                    // update the global dict
+                    // and the contacts dict
+                    for (int i = 0; i < batch.mAddresses.size(); i++) {
+                        String address = batch.mAddresses.get(i);
+                        String pid = pids.get(i);
+
+                        ArrayList<Contact> contacts = batch.mContactsByAddress.get(address);
+
+                        // another session has found a matrix id
+                        // the results of the batches sent before a reset are dropped
+                        Contact.MXID knownMxid = mMatrixIdsByElement.get(address);
+                        if ((null == knownMxid) || (knownMxid.mMatrixId.length() == 0)) {
+                            mMatrixIdsByElement.put(address, new Contact.MXID(pid, mAccountId), batch.mCacheGeneration);
+                        }
+
+                        if (null != contacts) {
+                            for (Contact contact : contacts) {
+                                if (pid.length() != 0) {
+                                    foundPIDs = true;
+                                    contact.put(address, new Contact.MXID(pid, mAccountId));
+                                }
+
+                                if (updatedContacts.indexOf(contact) < 0) {
+                                    updatedContacts.add(contact);
+                                }
+                            }
+                        }
                     }
-                });
+
+                    mMatrixIdsByElement.save();
+                }
+
+                if (0 == --batch.mPendingResponses) {
+                    onLookupDone(batch);
+                }
             }
+
+            // warn the listener of the update
+            if ((null != pids) && (null != mListener)) {
+                mListener.onPIDsRetrieved(mAccountId, updatedContacts, foundPIDs);
+            }
+
+            processQueue();
         }
     }
-}
 
+    /**
+     * @param batch the batch.
+     * @return true if the batch has been built before the latest reset.
+     */
+    private synchronized boolean isStale(LookupBatch batch) {
+        return batch.mGeneration != mGeneration;
+    }
+
+    /**
+     * Lookup a batch of addresses with each session.
+     * @param addresses the addresses
+     * @param contactsByAddress the contacts waiting for each address.
+     * @param generation the retriever generation.
+     * @param cacheGeneration the cache generation.
+     */
+    private void lookup(final ArrayList<String> addresses, final HashMap<String, ArrayList<Contact>> contactsByAddress, int generation, int cacheGeneration) {
+        Collection<MXSession> sessions = Matrix.getInstance(mContext).getSessionsSnapshot();
+        LookupBatch batch = new LookupBatch(addresses, contactsByAddress, sessions.size(), generation, cacheGeneration);
+
+        if (0 == sessions.size()) {
+            onLookupDone(batch);
+            return;
+        }
+
+        for (MXSession session : sessions) {
+            String accountId = session.getCredentials().userId;
+            SessionLookupQueue queue;
+
+            synchronized (this) {
+                queue = mLookupQueues.get(accountId);
+
+                // create the queue or replace it if the session has been recreated
+                if ((null == queue) || (queue.mSession != session)) {
+                    queue = new SessionLookupQueue(session);
+                    mLookupQueues.put(accountId, queue);
+                }
+            }
+
+            queue.enqueue(batch);
+        }
+    }
+
+    /**
+     * Every session has responded to a lookup batch.
+     * The addresses without response can be requested again.
+     * @param batch the batch.
+     */
+    private synchronized void onLookupDone(LookupBatch batch) {
+        if (isStale(batch)) {
+            return;
+        }
+
+        for (String address : batch.mAddresses) {
+            mRequestedContactsByAddress.remove(address);
+        }
+
+        LOOKUPS_COUNT.inc();
+        LOOKUP_LATENCY.recordSince(batch.mEnqueuedAt);
+    }
+
+    /**
+     * Update the queues gauges.
+     */
+    private synchronized void updateQueueMetrics() {
+        int depth = 0;
+
+        for (SessionLookupQueue queue : mLookupQueues.values()) {
+            depth += queue.mQueue.size();
+        }
+
+        QUEUE_DEPTH.set(depth);
+        PENDING_ADDRESSES_COUNT.set(mPendingContactsByAddress.size());
+    }
+}
@@ -31,6 +31,8 @@ public class ConsoleContentProvider extends ContentProvider {
 
     public static String AUTHORITIES = "org.matrix.console.ConsoleApplication.provider";
 
+    // the cache sub directory of the bug report files, which are shared with the mail application
+    public static final String BUG_REPORT_DIRECTORY = "bugreport";
 
     /**
      * Convert an absolute file path to a Content path
@@ -39,6 +41,12 @@ public class ConsoleContentProvider extends ContentProvider {
      * @return the content URI.
      */
     public static Uri absolutePathToUri(Context context, String path) {
+        String bugReportPath = getBugReportDirectory(context).getAbsolutePath();
+
+        if ((null != path) && path.startsWith(bugReportPath + "/")) {
+            return Uri.parse("content://" + ConsoleContentProvider.AUTHORITIES + "/" + BUG_REPORT_DIRECTORY + path.substring(bugReportPath.length()));
+        }
+
         String basePath = context.getFilesDir().getAbsolutePath();
 
         if ((null != path) && path.startsWith(basePath)) {
@@ -48,9 +56,27 @@ public class ConsoleContentProvider extends ContentProvider {
         return null;
     }
 
+    /**
+     * The bug report files are stored in the cache, only this sub directory is shared.
+     * @param context the context
+     * @return the bug report files directory.
+     */
+    public static File getBugReportDirectory(Context context) {
+        return new File(context.getApplicationContext().getCacheDir(), BUG_REPORT_DIRECTORY);
+    }
+
     @Override
     public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
-        File privateFile = new File(getContext().getFilesDir(), uri.getPath());
+        String path = uri.getPath();
+        String bugReportPrefix = "/" + BUG_REPORT_DIRECTORY + "/";
+        File privateFile;
+
+        if ((null != path) && path.startsWith(bugReportPrefix)) {
+            privateFile = new File(getBugReportDirectory(getContext()), path.substring(bugReportPrefix.length()));
+        } else {
+            privateFile = new File(getContext().getFilesDir(), path);
+        }
+
         return ParcelFileDescriptor.open(privateFile, ParcelFileDescriptor.MODE_READ_ONLY);
     }
 
@@ -407,50 +407,6 @@ public class ConsoleMessageListFragment extends MatrixMessageListFragment {
         return false;
     }
 
-    /**
-     * @return the imageMessages list
-     */
-    private ArrayList<SlidableImageInfo> listImageMessages() {
-        ArrayList<SlidableImageInfo> res = new ArrayList<SlidableImageInfo>();
-
-        for(int position = 0; position < mAdapter.getCount(); position++) {
-            MessageRow row = mAdapter.getItem(position);
-            Message message = JsonUtils.toMessage(row.getEvent().content);
-
-            if (Message.MSGTYPE_IMAGE.equals(message.msgtype)) {
-                ImageMessage imageMessage = (ImageMessage)message;
-
-                SlidableImageInfo info = new SlidableImageInfo();
-
-                info.mImageUrl = imageMessage.url;
-                info.mRotationAngle = imageMessage.getRotation();
-                info.mOrientation = imageMessage.getOrientation();
-                info.mMimeType = imageMessage.getMimeType();
-                info.midentifier = row.getEvent().eventId;
-                res.add(info);
-            }
-        }
-
-        return res;
-    }
-
-    /**
-     * Returns the imageMessages position in listImageMessages.
-     * @param listImageMessages the messages list.
-     * @param imageMessage the imageMessage
-     * @return the imageMessage position. -1 if not found.
-     */
-    private int getImageMessagePosition(ArrayList<SlidableImageInfo> listImageMessages, ImageMessage imageMessage) {
-        for(int index = 0; index < listImageMessages.size(); index++) {
-            if (listImageMessages.get(index).mImageUrl.equals(imageMessage.url)) {
-                return index;
-            }
-        }
-
-        return -1;
-    }
-
-
     public void onContentClick(int position) {
         MessageRow row = mAdapter.getItem(position);
         Event event = row.getEvent();
@@ -461,8 +417,8 @@ public class ConsoleMessageListFragment extends MatrixMessageListFragment {
             ImageMessage imageMessage = JsonUtils.toImageMessage(event.content);
 
             if (null != imageMessage.url) {
-                ArrayList<SlidableImageInfo> listImageMessages = listImageMessages();
-                int listPosition = getImageMessagePosition(listImageMessages, imageMessage);
+                ArrayList<SlidableImageInfo> listImageMessages = new ArrayList<SlidableImageInfo>();
+                int listPosition = ((ConsoleMessagesAdapter) mAdapter).listImageMessages(row, listImageMessages);
 
                 if (listPosition >= 0) {
                     Intent viewImageIntent = new Intent(getActivity(), ImageSliderActivity.class);
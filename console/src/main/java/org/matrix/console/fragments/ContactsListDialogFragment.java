@@ -36,12 +36,12 @@ import org.matrix.console.adapters.AdapterUtils;
 import org.matrix.console.adapters.ContactsListAdapter;
 import org.matrix.console.contacts.Contact;
 import org.matrix.console.contacts.ContactsManager;
+import org.matrix.console.contacts.ContactsSearchIndex;
 import org.matrix.console.contacts.PIDsRetriever;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 
 /**
  * A dialog fragment showing the contacts list
@@ -52,7 +52,7 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
     private ListView mListView;
     private ContactsListAdapter mAdapter;
 
-    private ArrayList<Contact> mLocalContacts;
+    private ContactsSearchIndex mContactsSearchIndex;
     private ArrayList<Contact> mFilteredContacts;
     private boolean mDisplayOnlyMatrixUsers = false;
     private String mSearchPattern = "";
@@ -73,13 +73,8 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
     public Dialog onCreateDialog(Bundle savedInstanceState) {
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        Collection<Contact> contacts = ContactsManager.getLocalContactsSnapshot(getActivity());
-
-        if (contacts.size() != 0) {
-            builder.setTitle(getString(R.string.contacts) + " (" + contacts.size() + ")");
-        } else {
-            builder.setTitle(getString(R.string.contacts));
-        }
+        // the snapshot is empty until the first contacts refresh is done
+        builder.setTitle(getTitle(ContactsManager.getLocalContactsSnapshot(getActivity())));
 
         View view = getActivity().getLayoutInflater().inflate(R.layout.fragment_contacts_list, null);
         builder.setView(view);
@@ -88,16 +83,17 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
         return builder.create();
     }
 
-    // Comparator to order members alphabetically
-    private Comparator<Contact> alphaComparator = new Comparator<Contact>() {
-        @Override
-        public int compare(Contact contact1, Contact contact2) {
-            String displayname1 = (contact1.getDisplayName() == null)? contact1.mContactId : contact1.getDisplayName();
-            String displayname2 = (contact2.getDisplayName() == null)? contact2.mContactId : contact2.getDisplayName();
-
-            return String.CASE_INSENSITIVE_ORDER.compare(displayname1, displayname2);
+    /**
+     * @param contacts the displayed contacts.
+     * @return the dialog title.
+     */
+    private String getTitle(Collection<Contact> contacts) {
+        if (contacts.size() != 0) {
+            return getString(R.string.contacts) + " (" + contacts.size() + ")";
+        } else {
+            return getString(R.string.contacts);
         }
-    };
+    }
 
     /**
      * Init the dialog view.
@@ -106,14 +102,11 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
     void initView(View v) {
         mListView = ((ListView)v.findViewById(R.id.listView_contacts));
 
-        // get the local contacts
-        mLocalContacts = new ArrayList<Contact>(ContactsManager.getLocalContactsSnapshot(getActivity()));
+        // get the local contacts (sorted alphabetically)
+        mContactsSearchIndex = ContactsManager.getLocalContactsSearchIndex(getActivity());
 
         mAdapter = new ContactsListAdapter(getActivity(), R.layout.adapter_item_contact);
 
-        // sort them
-        Collections.sort(mLocalContacts, alphaComparator);
-
         mListView.setFastScrollAlwaysVisible(true);
         mListView.setFastScrollEnabled(true);
         mListView.setAdapter(mAdapter);
@@ -121,8 +114,7 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
         refreshAdapter();
 
         // a button could be added to filter the contacts to display only the matrix users
-        // but the lookup method is too slow (1 address / request).
-        // it could be enabled when a batch request will be implemented
+        // the lookups are batched by PIDsRetriever so it only requires the matrix_user drawable.
         /*
         final Button button = (Button)v.findViewById(R.id.button_matrix_users);
 
@@ -238,33 +230,27 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
     }
 
     private void refreshAdapter() {
+        // the search index answers the pattern filtering
+        List<Contact> matchingContacts = mContactsSearchIndex.search(mSearchPattern);
 
         // matrix users selection
-        ArrayList<Contact> filteredContacts = mLocalContacts;
+        ArrayList<Contact> filteredContacts;
 
-        if (mDisplayOnlyMatrixUsers || (mSearchPattern.length() != 0)) {
+        if (mDisplayOnlyMatrixUsers) {
             filteredContacts = new ArrayList<Contact>();
 
-            if (mDisplayOnlyMatrixUsers && !TextUtils.isEmpty(mSearchPattern)) {
-                for (Contact contact : mLocalContacts) {
-                    if (contact.hasMatridIds(getActivity()) && contact.matchWithPattern(mSearchPattern)) {
-                        filteredContacts.add(contact);
-                    }
+            for (Contact contact : matchingContacts) {
+                if (contact.hasMatridIds(getActivity())) {
+                    filteredContacts.add(contact);
                 }
-            } else if (!TextUtils.isEmpty(mSearchPattern)) {
-                for (Contact contact : mLocalContacts) {
+            }
+        } else {
+            filteredContacts = new ArrayList<Contact>(matchingContacts);
 
-                    if (contact.matchWithPattern(mSearchPattern)) {
-                        // trigger the matrixID retrieval.
-                        contact.hasMatridIds(getActivity());
-                        filteredContacts.add(contact);
-                    }
-                }
-            } else if (mDisplayOnlyMatrixUsers) {
-                for (Contact contact : mLocalContacts) {
-                    if (contact.hasMatridIds(getActivity())) {
-                        filteredContacts.add(contact);
-                    }
+            // trigger the matrixID retrieval.
+            if (!TextUtils.isEmpty(mSearchPattern)) {
+                for (Contact contact : filteredContacts) {
+                    contact.hasMatridIds(getActivity());
                 }
             }
         }
@@ -307,8 +293,15 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
     /**
      * Called when the contact PIDs are retrieved
      */
-    @Override public void onPIDsRetrieved(String accountId, Contact contact, final boolean has3PIDs) {
-        getActivity().runOnUiThread(new Runnable() {
+    @Override public void onPIDsRetrieved(String accountId, Collection<Contact> contacts, final boolean has3PIDs) {
+        Activity activity = getActivity();
+
+        // the fragment is detached
+        if (null == activity) {
+            return;
+        }
+
+        activity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 // refresh only if there are some updates
@@ -320,16 +313,27 @@ public class ContactsListDialogFragment extends DialogFragment implements PIDsRe
     }
 
     /**
-     * Called when the contacts list have been
+     * Called on the UI thread when the contacts list have been refreshed.
      */
     public void onRefresh() {
-        getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mLocalContacts = new ArrayList<Contact>(ContactsManager.getLocalContactsSnapshot(getActivity()));
-                refreshAdapter();
-            }
-        });
+        // the fragment is detached
+        if (null == getActivity()) {
+            return;
+        }
+
+        mContactsSearchIndex = ContactsManager.getLocalContactsSearchIndex(getActivity());
+        refreshAdapter();
+
+        if (null != getDialog()) {
+            getDialog().setTitle(getTitle(mContactsSearchIndex.getContacts()));
+        }
+    }
+
+    /**
+     * Called when some contacts have been updated.
+     */
+    public void onUpdate(Collection<Contact> updatedContacts, Collection<String> deletedContactIds) {
+        onRefresh();
     }
 }
 
@@ -21,7 +21,12 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import androidx.fragment.app.DialogFragment;
+import android.util.Log;
 import android.view.View;
 import android.widget.ListView;
 
@@ -35,11 +40,13 @@ import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.console.Matrix;
 import org.matrix.console.R;
 import org.matrix.console.adapters.MembersInvitationAdapter;
+import org.matrix.console.adapters.MembersInvitationAggregator;
+import org.matrix.console.adapters.MembersInvitationSections;
+import org.matrix.console.util.Metrics;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 
 /**
  * A dialog fragment showing a list of room members for a given room.
@@ -49,8 +56,19 @@ public class MembersInvitationDialogFragment extends DialogFragment {
 
     public static final String ARG_ROOM_ID = "org.matrix.console.fragments.MembersInvitationDialogFragment.ARG_ROOM_ID";
 
+    // the candidates list is refreshed at most once per interval while it is built
+    private static final long PUBLISH_INTERVAL_MS = 250;
+
+    private static final Metrics.Histogram AGGREGATION_DURATION = Metrics.getInstance().getHistogram("members.invitation_aggregation_us");
+
+    // the members are aggregated in background
+    private static Handler mAggregationHandler = null;
+    private volatile boolean mIsAggregationCancelled = false;
+
     private ListView mListView;
     private MembersInvitationAdapter mAdapter;
+    // the displayed candidates, updated on the UI thread
+    private final MembersInvitationSections mSections = new MembersInvitationSections();
     private MXSession mSession;
     private String mRoomId;
 
@@ -126,154 +144,162 @@ public class MembersInvitationDialogFragment extends DialogFragment {
         return builder.create();
     }
 
-    // Comparator to order members alphabetically
-    private Comparator<RoomMember> alphaComparator = new Comparator<RoomMember>() {
-        @Override
-        public int compare(RoomMember member1, RoomMember member2) {
-            String lhs = member1.displayname;
-
-            if (null == lhs) {
-                lhs = member1.getUserId();
-            }
-
-            String rhs = member2.displayname;
-
-            if (null == rhs) {
-                rhs = member2.getUserId();
-            }
-
-            if (lhs == null) {
-                return -1;
-            }
-            else if (rhs == null) {
-                return 1;
-            }
-            if (lhs.startsWith("@")) {
-                lhs = lhs.substring(1);
-            }
-            if (rhs.startsWith("@")) {
-                rhs = rhs.substring(1);
-            }
-            return String.CASE_INSENSITIVE_ORDER.compare(lhs, rhs);
+    /**
+     * @return the handler of the members aggregation thread.
+     */
+    private static synchronized Handler getAggregationHandler() {
+        if (null == mAggregationHandler) {
+            HandlerThread thread = new HandlerThread("MembersAggregationThread", Thread.MIN_PRIORITY);
+            thread.start();
+            mAggregationHandler = new Handler(thread.getLooper());
         }
-    };
+
+        return mAggregationHandler;
+    }
 
     /**
      * Init the dialog view.
+     * The candidates list is built in background and displayed progressively.
      * @param v the dialog view.
      */
     void initView(View v) {
         mListView = ((ListView)v.findViewById(R.id.listView_members));
 
-        IMXStore store = mSession.getDataHandler().getStore();
+        mAdapter = new MembersInvitationAdapter(getActivity(), mSession.getHomeserverConfig(), R.layout.adapter_item_members_invitation, getMXMediasCache());
+        mAdapter.setSectionTiles(new ArrayList<Integer>(), new ArrayList<String>());
+        mListView.setAdapter(mAdapter);
+
+        final IMXStore store = mSession.getDataHandler().getStore();
+        final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+        final String[] sectionTitles = new String[MembersInvitationAggregator.SECTIONS_COUNT];
+        sectionTitles[MembersInvitationAggregator.SECTION_ONE_TO_ONE] = getActivity().getResources().getString(R.string.members_one_to_one);
+        sectionTitles[MembersInvitationAggregator.SECTION_SMALL_ROOMS] = getActivity().getResources().getString(R.string.members_small_room_members);
+        sectionTitles[MembersInvitationAggregator.SECTION_LARGE_ROOMS] = getActivity().getResources().getString(R.string.members_large_room_members);
+
+        getAggregationHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                aggregateMembers(store, uiHandler, sectionTitles);
+            }
+        });
+    }
+
+    /**
+     * Aggregate the members of the store rooms.
+     * This method is called from the aggregation thread.
+     * @param store the store.
+     * @param uiHandler the UI thread handler.
+     * @param sectionTitles the section titles.
+     */
+    private void aggregateMembers(IMXStore store, Handler uiHandler, String[] sectionTitles) {
+        long startTime = Metrics.startTimer();
 
         // remove the current room members
         ArrayList<String> idsToIgnore = new ArrayList<String>();
         Room fromRoom = store.getRoom(mRoomId);
-        Collection<RoomMember> currentMembers = fromRoom.getMembers();
 
-        for(RoomMember member : currentMembers) {
-            idsToIgnore.add(member.getUserId());
+        // RoomState.getMembers copies the members under the room state lock,
+        // so the copy can be iterated while the events thread updates the room.
+        if (null != fromRoom) {
+            for (RoomMember member : fromRoom.getMembers()) {
+                idsToIgnore.add(member.getUserId());
+            }
         }
 
-        // get the members list
-        ArrayList<RoomMember> members_OneToOne = new ArrayList<RoomMember>();
-        ArrayList<String> ids_OneToOne = new ArrayList<String>();
+        MembersInvitationAggregator aggregator = new MembersInvitationAggregator(idsToIgnore);
+        Collection<RoomSummary> summaries = new ArrayList<RoomSummary>(store.getSummaries());
+        long lastPublishTime = SystemClock.uptimeMillis();
 
-        ArrayList<RoomMember> members_MaxTenMembers = new ArrayList<RoomMember>();
-        ArrayList<String> ids_MaxTenMembers = new ArrayList<String>();
-
-        ArrayList<RoomMember> members_BigRooms = new ArrayList<RoomMember>();
-        ArrayList<String> ids_BigRooms = new ArrayList<String>();
-
-        Collection<RoomSummary> summaries = store.getSummaries();
+        for (RoomSummary summary : summaries) {
+            if (mIsAggregationCancelled) {
+                return;
+            }
 
-        for(RoomSummary summary : summaries) {
             // not the current summary
             if (!summary.getRoomId().equals(mRoomId)) {
                 Room curRoom = store.getRoom(summary.getRoomId());
-                Collection<RoomMember> otherRoomMembers = curRoom.getMembers();
-
-                for (RoomMember member : otherRoomMembers) {
-                    String userID = member.getUserId();
 
-                    // accepted User ID or still active users
-                    if ((idsToIgnore.indexOf(userID) < 0) && (RoomMember.MEMBERSHIP_JOIN.equals(member.membership))) {
-                        int posOneToOne = ids_OneToOne.indexOf(userID);
-                        int posTenMembers = ids_MaxTenMembers.indexOf(userID);
-                        int posBigRooms = ids_BigRooms.indexOf(userID);
+                if (null != curRoom) {
+                    aggregator.addRoom(curRoom.getMembers());
+                }
 
-                        if (otherRoomMembers.size() <= 2) {
-                            if (posBigRooms >= 0) {
-                                members_BigRooms.remove(posBigRooms);
-                                ids_BigRooms.remove(posBigRooms);
-                            }
+                if ((SystemClock.uptimeMillis() - lastPublishTime) >= PUBLISH_INTERVAL_MS) {
+                    publishUpdates(aggregator.takeUpdates(), uiHandler, sectionTitles);
+                    lastPublishTime = SystemClock.uptimeMillis();
+                }
+            }
+        }
 
-                            if (posTenMembers >= 0) {
-                                members_MaxTenMembers.remove(posTenMembers);
-                                ids_MaxTenMembers.remove(posTenMembers);
-                            }
+        publishUpdates(aggregator.takeUpdates(), uiHandler, sectionTitles);
 
-                            if (posOneToOne < 0) {
-                                members_OneToOne.add(member);
-                                ids_OneToOne.add(member.getUserId());
-                            }
-                        } else if (otherRoomMembers.size() <= 10) {
-                            if (posBigRooms >= 0) {
-                                members_BigRooms.remove(posBigRooms);
-                                ids_BigRooms.remove(posBigRooms);
-                            }
+        AGGREGATION_DURATION.recordSince(startTime);
+        Log.d(LOG_TAG, "aggregateMembers : " + aggregator.size() + " members in " + summaries.size() + " rooms");
+    }
 
-                            if ((posTenMembers < 0) && (posOneToOne < 0)) {
-                                members_MaxTenMembers.add(member);
-                                ids_MaxTenMembers.add(member.getUserId());
-                            }
-                        } else {
-                            if ((posBigRooms < 0) && (posTenMembers < 0) && (posOneToOne < 0)) {
-                                members_BigRooms.add(member);
-                                ids_BigRooms.add(member.getUserId());
-                            }
-                        }
-                    }
-                }
-            }
+    /**
+     * Display the candidates updated since the previous publication.
+     * Only the updated candidates are moved, unless the list must be rebuilt.
+     * @param updates the candidates updates.
+     * @param uiHandler the UI thread handler.
+     * @param sectionTitles the section titles.
+     */
+    private void publishUpdates(final List<MembersInvitationAggregator.Update> updates, Handler uiHandler, final String[] sectionTitles) {
+        if (0 == updates.size()) {
+            return;
         }
 
-        mAdapter = new MembersInvitationAdapter(getActivity(), mSession.getHomeserverConfig(), R.layout.adapter_item_members_invitation, getMXMediasCache());
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsAggregationCancelled) {
+                    return;
+                }
 
-        Collections.sort(members_OneToOne, alphaComparator);
-        Collections.sort(members_MaxTenMembers, alphaComparator);
-        Collections.sort(members_BigRooms, alphaComparator);
+                // the list is refreshed once
+                mAdapter.setNotifyOnChange(false);
 
-        mAdapter.addAll(members_OneToOne);
-        mAdapter.addAll(members_MaxTenMembers);
-        mAdapter.addAll(members_BigRooms);
+                mSections.apply(updates, new MembersInvitationSections.Listener() {
+                    @Override
+                    public void onRemoved(int position) {
+                        mAdapter.remove(mAdapter.getItem(position));
+                    }
 
-        ArrayList<Integer> bounds = new ArrayList<Integer>();
-        ArrayList<String> sectionTitles = new ArrayList<String>();
+                    @Override
+                    public void onInserted(RoomMember member, int position) {
+                        mAdapter.insert(member, position);
+                    }
 
-        int index = 0;
+                    @Override
+                    public void onReset(List<RoomMember> members) {
+                        mAdapter.clear();
+                        mAdapter.addAll(members);
+                    }
+                });
 
-        if (members_OneToOne.size() > 0) {
-            bounds.add(index);
-            sectionTitles.add(getActivity().getResources().getString(R.string.members_one_to_one));
-            index += members_OneToOne.size();
-        }
+                ArrayList<Integer> bounds = new ArrayList<Integer>();
+                ArrayList<String> titles = new ArrayList<String>();
+                int index = 0;
 
-        if (members_MaxTenMembers.size() > 0) {
-            bounds.add(index);
-            sectionTitles.add(getActivity().getResources().getString(R.string.members_small_room_members));
-            index += members_MaxTenMembers.size();
-        }
+                for (int section = 0; section < MembersInvitationAggregator.SECTIONS_COUNT; section++) {
+                    int sectionSize = mSections.getSectionSize(section);
 
-        if (members_BigRooms.size() > 0) {
-            bounds.add(index);
-            sectionTitles.add(getActivity().getResources().getString(R.string.members_large_room_members));
-            index += members_BigRooms.size();
-        }
+                    if (sectionSize > 0) {
+                        bounds.add(index);
+                        titles.add(sectionTitles[section]);
+                        index += sectionSize;
+                    }
+                }
 
-        mAdapter.setSectionTiles(bounds, sectionTitles);
+                mAdapter.setSectionTiles(bounds, titles);
+                mAdapter.notifyDataSetChanged();
+            }
+        });
+    }
 
-        mListView.setAdapter(mAdapter);
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mIsAggregationCancelled = true;
     }
 }
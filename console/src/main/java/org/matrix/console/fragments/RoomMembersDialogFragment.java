@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import androidx.fragment.app.DialogFragment;
 import android.view.LayoutInflater;
@@ -46,9 +47,13 @@ import org.matrix.console.Matrix;
 import org.matrix.console.R;
 import org.matrix.console.activity.MemberDetailsActivity;
 import org.matrix.console.adapters.ConsoleRoomMembersAdapter;
+import org.matrix.console.adapters.RoomMembersOrder;
+import org.matrix.console.util.Metrics;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A dialog fragment showing a list of room members for a given room.
@@ -58,6 +63,14 @@ public class RoomMembersDialogFragment extends DialogFragment {
 
     public static final String ARG_ROOM_ID = "org.matrix.console.fragments.RoomMembersDialogFragment.ARG_ROOM_ID";
 
+    // the presence updates are applied at most once per interval
+    private static final long PRESENCE_REFRESH_INTERVAL_MS = 1000;
+
+    // metrics
+    private static final Metrics.Counter PRESENCE_UPDATES_COUNT = Metrics.getInstance().getCounter("members.presence_updates");
+    private static final Metrics.Counter IGNORED_PRESENCE_UPDATES_COUNT = Metrics.getInstance().getCounter("members.ignored_presence_updates");
+    private static final Metrics.Histogram PRESENCE_REFRESH_DURATION = Metrics.getInstance().getHistogram("members.presence_refresh_us");
+
     public static RoomMembersDialogFragment newInstance(MXSession session, String roomId) {
         RoomMembersDialogFragment f= new RoomMembersDialogFragment();
         Bundle args = new Bundle();
@@ -74,18 +87,54 @@ public class RoomMembersDialogFragment extends DialogFragment {
 
     private Handler uiThreadHandler;
 
+    // the last activity times of the users whose presence has been updated since the latest refresh, by user id
+    // they are read on the events thread, which updates the users.
+    // a user updated several times during an interval is only refreshed once.
+    private final HashMap<String, Long> mPendingPresenceUpdates = new HashMap<String, Long>();
+    private boolean mIsPresenceRefreshScheduled = false;
+    private long mLastPresenceRefreshTime = 0;
+
+    private final Runnable mPresenceRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshPresences();
+        }
+    };
+
+    // the presence updates are not listened while the fragment is paused
+    private final Runnable mResortRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (null != mAdapter) {
+                mAdapter.refreshLastActiveTimes();
+                mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
+
     private IMXEventListener mEventsListenener = new MXEventListener() {
         @Override
         public void onPresenceUpdate(Event event, final User user) {
-            // Someone's presence has changed, reprocess the whole list
-            uiThreadHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mAdapter.saveUser(user);
-                    mAdapter.sortMembers();
-                    mAdapter.notifyDataSetChanged();
+            if ((null == user) || (null == user.user_id)) {
+                return;
+            }
+
+            PRESENCE_UPDATES_COUNT.inc();
+
+            long delay;
+
+            synchronized (mPendingPresenceUpdates) {
+                mPendingPresenceUpdates.put(user.user_id, RoomMembersOrder.getLastActiveTime(user));
+
+                if (mIsPresenceRefreshScheduled) {
+                    return;
                 }
-            });
+
+                mIsPresenceRefreshScheduled = true;
+                delay = Math.max(0, mLastPresenceRefreshTime + PRESENCE_REFRESH_INTERVAL_MS - SystemClock.uptimeMillis());
+            }
+
+            uiThreadHandler.postDelayed(mPresenceRefreshRunnable, delay);
         }
 
         @Override
@@ -126,6 +175,58 @@ public class RoomMembersDialogFragment extends DialogFragment {
         mSession = session;
     }
 
+    /**
+     * Apply the pending presence updates.
+     * The updated members are moved to their new positions instead of sorting the whole list.
+     */
+    private void refreshPresences() {
+        HashMap<String, Long> updatedUsers;
+
+        synchronized (mPendingPresenceUpdates) {
+            updatedUsers = new HashMap<String, Long>(mPendingPresenceUpdates);
+            mPendingPresenceUpdates.clear();
+            mIsPresenceRefreshScheduled = false;
+            mLastPresenceRefreshTime = SystemClock.uptimeMillis();
+        }
+
+        if ((null == mAdapter) || (0 == updatedUsers.size())) {
+            return;
+        }
+
+        long startTime = Metrics.startTimer();
+        ArrayList<String> updatedUserIds = new ArrayList<String>();
+        boolean isDisplayedUserUpdated = false;
+
+        for (Map.Entry<String, Long> entry : updatedUsers.entrySet()) {
+            String userId = entry.getKey();
+
+            // the hidden members (e.g. the left ones) are ignored
+            if (mAdapter.isDisplayed(userId)) {
+                isDisplayedUserUpdated = true;
+
+                // the users are displayed with their current presence, only the moved members are repositioned
+                if (mAdapter.updateLastActiveTime(userId, entry.getValue())) {
+                    updatedUserIds.add(userId);
+                }
+            } else {
+                IGNORED_PRESENCE_UPDATES_COUNT.inc();
+            }
+        }
+
+        if (!isDisplayedUserUpdated) {
+            return;
+        }
+
+        // the alphabetical order does not depend on the presence
+        if (mAdapter.isSortedByLastActivePresence() && (0 != updatedUserIds.size())) {
+            mAdapter.repositionMembers(updatedUserIds);
+        }
+
+        mAdapter.notifyDataSetChanged();
+
+        PRESENCE_REFRESH_DURATION.recordSince(startTime);
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -142,12 +243,23 @@ public class RoomMembersDialogFragment extends DialogFragment {
         super.onPause();
         mSession.getDataHandler().getRoom(mRoomId).removeEventListener(mEventsListenener);
 
+        // the pending updates are applied when the fragment is resumed
+        uiThreadHandler.removeCallbacks(mPresenceRefreshRunnable);
+        uiThreadHandler.removeCallbacks(mResortRunnable);
+
+        synchronized (mPendingPresenceUpdates) {
+            mIsPresenceRefreshScheduled = false;
+        }
     }
 
     @Override
     public void onResume() {
         super.onResume();
         mSession.getDataHandler().getRoom(mRoomId).addEventListener(mEventsListenener);
+
+        // some presence updates might have been missed
+        uiThreadHandler.post(mResortRunnable);
+        uiThreadHandler.post(mPresenceRefreshRunnable);
     }
 
     @Override
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.services;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Collect the bing events of an events chunk and render only the latest one when the chunk is processed.
+ * The notifications are tagged with a generation, which is incremented each time the displayed notifications
+ * are cancelled, so a notification rendered in background is not displayed after a cancellation.
+ * @param <T> the bing event description type.
+ */
+public class BingNotificationBatcher<T> {
+
+    /**
+     * Render the notifications.
+     */
+    public interface Renderer<T> {
+        /**
+         * Render a notification, called on the rendering executor.
+         * The notification must be displayed with {@link BingNotificationBatcher#runIfCurrent(int, Runnable)}.
+         * @param pending the bing event description.
+         * @param generation the notification generation.
+         */
+        void render(T pending, int generation);
+    }
+
+    private final Renderer<T> mRenderer;
+
+    // the latest bing event of the current chunk
+    private T mPending = null;
+    private int mPendingGeneration = 0;
+
+    // incremented at each cancellation
+    private int mGeneration = 0;
+
+    /**
+     * Constructor
+     * @param renderer the notifications renderer.
+     */
+    public BingNotificationBatcher(Renderer<T> renderer) {
+        mRenderer = renderer;
+    }
+
+    /**
+     * Add the bing event of the current chunk, it replaces the previous one.
+     * @param pending the bing event description.
+     */
+    public synchronized void add(T pending) {
+        mPending = pending;
+        mPendingGeneration = mGeneration;
+    }
+
+    /**
+     * The chunk is processed : render its latest bing event.
+     * @param executor the rendering executor.
+     * @return true if a rendering has been requested.
+     */
+    public boolean onChunkProcessed(Executor executor) {
+        final T pending;
+        final int generation;
+
+        synchronized (this) {
+            pending = mPending;
+            generation = mPendingGeneration;
+            mPending = null;
+        }
+
+        if (null == pending) {
+            return false;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.render(pending, generation);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Cancel the pending and the rendering notifications.
+     * @param action the action to run with the cancellation, e.g. the displayed notifications removal (can be null).
+     */
+    public synchronized void cancel(Runnable action) {
+        mGeneration++;
+        mPending = null;
+
+        if (null != action) {
+            action.run();
+        }
+    }
+
+    /**
+     * Run an action if no cancellation has been done since a notification generation.
+     * @param generation the notification generation.
+     * @param action the action, e.g. the notification display.
+     * @return true if the action has been run.
+     */
+    public synchronized boolean runIfCurrent(int generation, Runnable action) {
+        if (generation != mGeneration) {
+            return false;
+        }
+
+        action.run();
+        return true;
+    }
+}
@@ -24,6 +24,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.text.TextUtils;
@@ -35,6 +37,7 @@ import org.matrix.androidsdk.data.IMXStore;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.RoomMember;
@@ -47,13 +50,14 @@ import org.matrix.console.ViewedRoomTracker;
 import org.matrix.console.activity.CallViewActivity;
 import org.matrix.console.activity.CommonActivityUtils;
 import org.matrix.console.activity.HomeActivity;
+import org.matrix.console.util.Metrics;
 import org.matrix.console.util.NotificationUtils;
+import org.matrix.console.util.SessionsRegistry;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A foreground service in charge of controlling whether the event stream is running or not.
@@ -77,8 +81,15 @@ public class EventStreamService extends Service {
     private static final int MSG_NOTIFICATION_ID = 43;
     private static final int PENDING_CALL_ID = 44;
 
-    private ArrayList<MXSession> mSessions;
-    private ArrayList<String> mMatrixIds;
+    // metrics
+    private static final Metrics.Histogram CHUNK_PROCESSING_DURATION = Metrics.getInstance().getHistogram("events.chunk_processing_us");
+    private static final Metrics.Histogram CHUNK_SIZE = Metrics.getInstance().getHistogram("events.chunk_size");
+    private static final Metrics.Histogram BING_EVENT_DURATION = Metrics.getInstance().getHistogram("notifications.bing_event_us");
+    private static final Metrics.Histogram NOTIFICATION_RENDERING_DURATION = Metrics.getInstance().getHistogram("notifications.rendering_us");
+
+    // the started sessions, indexed by matrix id
+    // it is read by the events threads and released by stop()
+    private volatile SessionsRegistry<MXSession> mSessions;
     private StreamAction mState = StreamAction.UNKNOWN;
 
     // store the notifications description
@@ -98,7 +109,75 @@ public class EventStreamService extends Service {
     private int mUnreadMessagesCounter = 0;
     private HashMap<String, HashMap<String, Integer>> mUnreadMessagesMapByRoomId = new HashMap<String, HashMap<String, Integer>>();
 
-    private Notification mLatestNotification = null;
+    // collect the bing events of the current events chunk
+    private final BingNotificationBatcher<PendingBingNotification> mBingNotificationBatcher = new BingNotificationBatcher<PendingBingNotification>(new BingNotificationBatcher.Renderer<PendingBingNotification>() {
+        @Override
+        public void render(PendingBingNotification pending, int generation) {
+            long startTime = Metrics.startTimer();
+            displayNotification(renderNotification(pending), generation);
+            NOTIFICATION_RENDERING_DURATION.recordSince(startTime);
+        }
+    });
+
+    // the notifications large icons
+    private final NotificationAvatarProvider<MXMediasCache, Bitmap> mNotificationAvatarProvider = new NotificationAvatarProvider<MXMediasCache, Bitmap>(new NotificationAvatarProvider.Decoder<MXMediasCache, Bitmap>() {
+        @Override
+        public Bitmap getCachedAvatar(String url, int size) {
+            return Matrix.getInstance(getApplicationContext()).getAvatarBitmapCache().getBitmap(url, size);
+        }
+
+        @Override
+        public Bitmap decodeAvatar(MXMediasCache mediasCache, String url, int size) {
+            File f = mediasCache.thumbnailCacheFile(url, size);
+            return (null == f) ? null : Matrix.getInstance(getApplicationContext()).getAvatarBitmapCache().decodeBitmap(url, size, f);
+        }
+
+        @Override
+        public Bitmap decodeDefaultAvatar() {
+            return BitmapFactory.decodeResource(getResources(), R.drawable.ic_contact_picture_holo_light);
+        }
+    });
+
+    // thread used to render the notifications
+    private HandlerThread mNotificationHandlerThread = null;
+    private Handler mNotificationHandler = null;
+
+    // post the notifications rendering to the rendering thread
+    private final Executor mNotificationExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            getNotificationHandler().post(runnable);
+        }
+    };
+
+    /**
+     * Description of a bing event whose notification has not been rendered yet.
+     */
+    private static class PendingBingNotification {
+        final MXSession mSession;
+        final Room mRoom;
+        final Event mEvent;
+        final RoomState mRoomState;
+        final RoomMember mMember;
+        final String mBody;
+        final String mCallId;
+        final int mGlobalUnseen;
+        final int mMemberUnseen;
+        final boolean mShouldPlaySound;
+
+        PendingBingNotification(MXSession session, Room room, Event event, RoomState roomState, RoomMember member, String body, String callId, int globalUnseen, int memberUnseen, boolean shouldPlaySound) {
+            mSession = session;
+            mRoom = room;
+            mEvent = event;
+            mRoomState = roomState;
+            mMember = member;
+            mBody = body;
+            mCallId = callId;
+            mGlobalUnseen = globalUnseen;
+            mMemberUnseen = memberUnseen;
+            mShouldPlaySound = shouldPlaySound;
+        }
+    }
 
     private static EventStreamService mActiveEventStreamService = null;
 
@@ -118,8 +197,15 @@ public class EventStreamService extends Service {
     }
 
     private void clearNotification() {
-        NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
-        nm.cancelAll();
+        final NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        // the notifications which are rendering must not be displayed
+        mBingNotificationBatcher.cancel(new Runnable() {
+            @Override
+            public void run() {
+                nm.cancelAll();
+            }
+        });
 
         // reset the identifiers
         mNotificationSessionId = null;
@@ -171,6 +257,10 @@ public class EventStreamService extends Service {
     }
 
     private MXEventListener mListener = new MXEventListener() {
+        // the current events chunk
+        private long mChunkStartTime = 0;
+        private int mChunkEventsCount = 0;
+
         /**
          * Manage hangup event.
          * The ringing sound is disabled and pending incoming call is dismissed.
@@ -215,6 +305,11 @@ public class EventStreamService extends Service {
 
         @Override
         public void onLiveEvent(Event event, RoomState roomState) {
+            if (0 == mChunkEventsCount) {
+                mChunkStartTime = Metrics.startTimer();
+            }
+            mChunkEventsCount++;
+
             if (Event.EVENT_TYPE_CALL_HANGUP.equals(event.type) || Event.EVENT_TYPE_CALL_ANSWER.equals(event.type)) {
                 manageHangUpEvent(event);
             }
@@ -222,6 +317,18 @@ public class EventStreamService extends Service {
 
         @Override
         public void onBingEvent(Event event, RoomState roomState, BingRule bingRule) {
+            long startTime = Metrics.startTimer();
+            manageBingEvent(event, roomState, bingRule);
+            BING_EVENT_DURATION.recordSince(startTime);
+        }
+
+        /**
+         * Prepare the notification of a bing event.
+         * @param event the event.
+         * @param roomState the room state.
+         * @param bingRule the matched bing rule.
+         */
+        private void manageBingEvent(Event event, RoomState roomState, BingRule bingRule) {
             Log.i(LOG_TAG, "onMessageEvent >>>> " + event);
 
             final String roomId = event.roomId;
@@ -268,7 +375,8 @@ public class EventStreamService extends Service {
             }
 
             Boolean isInvitationEvent = false;
-            String body;
+            // null when the body must be computed by the notification renderer
+            String body = null;
 
             mNotifiedCallId = null;
 
@@ -280,13 +388,8 @@ public class EventStreamService extends Service {
                     try {
                         mNotifiedCallId = event.getContentAsJsonObject().get("call_id").getAsString();
                      } catch (Exception e) {}
-                } else {
-                    EventDisplay eventDisplay = new EventDisplay(getApplicationContext(), event, room.getLiveState());
-                    body = eventDisplay.getTextualDisplay().toString();
                 }
             } else if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.type)) {
-                body = EventDisplay.getMembershipNotice(getApplicationContext(), event, roomState);
-
                 try {
                     isInvitationEvent = "invite".equals(event.getContentAsJsonObject().getAsJsonPrimitive("membership").getAsString());
                 } catch (Exception e) {}
@@ -318,35 +421,17 @@ public class EventStreamService extends Service {
                 countByUserIds.put(senderID, unreadNotifForThisUser);
             }
 
-            String from = "";
-            Bitmap largeBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.ic_contact_picture_holo_light);
+            RoomMember member = null;
 
             // when the event is an invitation one
             // don't check if the sender ID is known because the members list are not yet downloaded
             if (!isInvitationEvent) {
-                RoomMember member = room.getMember(senderID);
+                member = room.getMember(senderID);
 
                 // invalid member
                 if (null == member) {
                     return;
                 }
-
-                from = member.getName();
-
-                int size = getApplicationContext().getResources().getDimensionPixelSize(org.matrix.androidsdk.R.dimen.chat_avatar_size);
-
-                File f = session.getMediasCache().thumbnailCacheFile(member.avatarUrl, size);
-
-                if (null != f) {
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                    largeBitmap = BitmapFactory.decodeFile(f.getPath(), options);
-                }
-            }
-
-            String roomName = null;
-            if(session.getMyUser() != null) {
-                roomName = room.getName(session.getMyUserId());
             }
 
             mNotificationSessionId = session.getCredentials().userId;
@@ -360,47 +445,32 @@ public class EventStreamService extends Service {
                 }
             }
 
-            mLatestNotification = NotificationUtils.buildMessageNotification(
-                    EventStreamService.this,
-                    from, session.getCredentials().userId,
-                    mNotifiedCallId,
-                    Matrix.getMXSessions(getApplicationContext()).size() > 1,
-                    largeBitmap,
-                    mUnreadMessagesCounter,
-                    unreadNotifForThisUser,
-                    body,
-                    event.roomId,
-                    roomName,
-                    bingRule.isDefaultNotificationSound(bingRule.notificationSound()));
+            // the notification is only rendered when the chunk is processed
+            // only the latest bing event of the chunk is displayed.
+            mBingNotificationBatcher.add(new PendingBingNotification(session, room, event, roomState, member, body, mNotifiedCallId, mUnreadMessagesCounter, unreadNotifForThisUser,
+                    bingRule.isDefaultNotificationSound(bingRule.notificationSound())));
         }
 
         @Override
         public void onLiveEventsChunkProcessed() {
-            if (null != mLatestNotification) {
+            if (0 != mChunkEventsCount) {
+                CHUNK_PROCESSING_DURATION.recordSince(mChunkStartTime);
+                CHUNK_SIZE.record(mChunkEventsCount);
+                mChunkEventsCount = 0;
+            }
 
-                try {
-                    NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
-                    nm.cancelAll();
-                    nm.notify(MSG_NOTIFICATION_ID, mLatestNotification);
-
-                    // turn the screen on for 3 seconds
-                    PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-                    PowerManager.WakeLock wl = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK, "mcon:MXEventListener");
-                    wl.acquire(3000);
-                    wl.release();
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "onLiveEventsChunkProcessed crashed "+ e.getLocalizedMessage());
-                }
+            // render the notification outside the events thread
+            mBingNotificationBatcher.onChunkProcessed(mNotificationExecutor);
 
-                mLatestNotification = null;
-            }
+            // the service might have been stopped
+            SessionsRegistry<MXSession> sessions = mSessions;
 
             // special catchup cases
-            if (mState == StreamAction.CATCHUP) {
+            if ((mState == StreamAction.CATCHUP) && (null != sessions)) {
 
                 Boolean hasActiveCalls = false;
 
-                for(MXSession session : mSessions) {
+                for(MXSession session : sessions.getSnapshot()) {
                     hasActiveCalls |= session.mCallsManager.hasActiveCalls();
                 }
 
@@ -423,11 +493,10 @@ public class EventStreamService extends Service {
     public void startAccounts(List<String> matrixIds) {
         for(String matrixId : matrixIds) {
             // not yet started
-            if (mMatrixIds.indexOf(matrixId) < 0) {
+            if (null == mSessions.get(matrixId)) {
                 MXSession session = Matrix.getInstance(getApplicationContext()).getSession(matrixId);
 
-                mSessions.add(session);
-                mMatrixIds.add(matrixId);
+                mSessions.put(matrixId, session);
                 session.getDataHandler().addListener(mListener);
                 // perform a full sync
                 session.startEventStream(null);
@@ -441,18 +510,14 @@ public class EventStreamService extends Service {
      */
     public void stopAccounts(List<String> matrixIds) {
         for(String matrixId : matrixIds) {
-            // not yet started
-            if (mMatrixIds.indexOf(matrixId) >= 0) {
-                MXSession session = Matrix.getInstance(getApplicationContext()).getSession(matrixId);
-
-                if (null != session) {
+            // started
+            MXSession session = mSessions.get(matrixId);
 
-                    session.stopEventStream();
-                    session.getDataHandler().removeListener(mListener);
+            if (null != session) {
+                session.stopEventStream();
+                session.getDataHandler().removeListener(mListener);
 
-                    mSessions.remove(session);
-                    mMatrixIds.remove(matrixId);
-                }
+                mSessions.remove(matrixId, session);
             }
         }
     }
@@ -462,13 +527,11 @@ public class EventStreamService extends Service {
         StreamAction action = StreamAction.values()[intent.getIntExtra(EXTRA_STREAM_ACTION, StreamAction.UNKNOWN.ordinal())];
 
         if (intent.hasExtra(EXTRA_MATRIX_IDS)) {
-            if (null == mMatrixIds) {
-                mMatrixIds = new ArrayList<String>(Arrays.asList(intent.getStringArrayExtra(EXTRA_MATRIX_IDS)));
-
-                mSessions = new ArrayList<MXSession>();
+            if (null == mSessions) {
+                mSessions = new SessionsRegistry<MXSession>();
 
-                for(String matrixId : mMatrixIds) {
-                    mSessions.add(Matrix.getInstance(getApplicationContext()).getSession(matrixId));
+                for(String matrixId : intent.getStringArrayExtra(EXTRA_MATRIX_IDS)) {
+                    mSessions.put(matrixId, Matrix.getInstance(getApplicationContext()).getSession(matrixId));
                 }
             }
         }
@@ -500,6 +563,14 @@ public class EventStreamService extends Service {
     @Override
     public void onDestroy() {
         stop();
+
+        synchronized (this) {
+            if (null != mNotificationHandlerThread) {
+                mNotificationHandlerThread.quit();
+                mNotificationHandlerThread = null;
+                mNotificationHandler = null;
+            }
+        }
     }
 
     @Override
@@ -507,6 +578,117 @@ public class EventStreamService extends Service {
         return null;
     }
 
+    /**
+     * @return the handler of the notifications rendering thread.
+     */
+    private synchronized Handler getNotificationHandler() {
+        if (null == mNotificationHandler) {
+            mNotificationHandlerThread = new HandlerThread("NotificationRenderingThread", Thread.MIN_PRIORITY);
+            mNotificationHandlerThread.start();
+            mNotificationHandler = new Handler(mNotificationHandlerThread.getLooper());
+
+            // preload the default avatar, so a notification costs at most one decoding
+            mNotificationHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mNotificationAvatarProvider.getDefaultAvatar();
+                }
+            });
+        }
+
+        return mNotificationHandler;
+    }
+
+    /**
+     * Build the message notification of a bing event.
+     * It decodes at most one bitmap.
+     * @param pending the bing event description
+     * @return the notification, null if it cannot be rendered.
+     */
+    private Notification renderNotification(PendingBingNotification pending) {
+        // the session could have been closed in the meantime
+        if (!pending.mSession.isAlive()) {
+            return null;
+        }
+
+        Context context = getApplicationContext();
+        Event event = pending.mEvent;
+        String body = pending.mBody;
+
+        if (null == body) {
+            if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.type)) {
+                body = EventDisplay.getMembershipNotice(context, event, pending.mRoomState);
+            } else {
+                EventDisplay eventDisplay = new EventDisplay(context, event, pending.mRoom.getLiveState());
+                body = eventDisplay.getTextualDisplay().toString();
+            }
+        }
+
+        String from = "";
+        String avatarUrl = null;
+
+        if (null != pending.mMember) {
+            from = pending.mMember.getName();
+            avatarUrl = pending.mMember.avatarUrl;
+        }
+
+        // use the default avatar only when there is no member one.
+        int size = context.getResources().getDimensionPixelSize(org.matrix.androidsdk.R.dimen.chat_avatar_size);
+        Bitmap largeBitmap = mNotificationAvatarProvider.getAvatar(pending.mSession.getMediasCache(), avatarUrl, size);
+
+        String roomName = null;
+        if (pending.mSession.getMyUser() != null) {
+            roomName = pending.mRoom.getName(pending.mSession.getMyUserId());
+        }
+
+        return NotificationUtils.buildMessageNotification(
+                EventStreamService.this,
+                from, pending.mSession.getCredentials().userId,
+                pending.mCallId,
+                Matrix.getInstance(context).getSessionsSnapshot().size() > 1,
+                largeBitmap,
+                pending.mGlobalUnseen,
+                pending.mMemberUnseen,
+                body,
+                event.roomId,
+                roomName,
+                pending.mShouldPlaySound);
+    }
+
+    /**
+     * Display a message notification, unless the notifications have been cancelled since its bing event.
+     * @param notification the notification to display
+     * @param generation the notification generation
+     */
+    private void displayNotification(final Notification notification, int generation) {
+        if (null != notification) {
+            try {
+                final NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
+
+                boolean isDisplayed = mBingNotificationBatcher.runIfCurrent(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        nm.cancelAll();
+                        nm.notify(MSG_NOTIFICATION_ID, notification);
+                    }
+                });
+
+                if (!isDisplayed) {
+                    Log.d(LOG_TAG, "displayNotification : the notification has been cancelled");
+                    return;
+                }
+
+                // turn the screen on for 3 seconds
+                PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+                PowerManager.WakeLock wl = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK, "mcon:MXEventListener");
+                wl.acquire(3000);
+                wl.release();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "displayNotification crashed "+ e.getLocalizedMessage());
+            }
+        }
+    }
+
     private void startEventStream(final MXSession session, final IMXStore store) {
         session.getDataHandler().checkPermanentStorageData();
         session.startEventStream(store.getEventStreamToken());
@@ -536,7 +718,7 @@ public class EventStreamService extends Service {
         }
         mActiveEventStreamService = this;
 
-        for(MXSession session : mSessions) {
+        for(MXSession session : mSessions.getSnapshot()) {
             session.getDataHandler().addListener(mListener);
             final IMXStore store = session.getDataHandler().getStore();
 
@@ -572,14 +754,13 @@ public class EventStreamService extends Service {
         }
 
         if (mSessions != null) {
-            for(MXSession session : mSessions) {
+            for(MXSession session : mSessions.getSnapshot()) {
                 if (session.isAlive()) {
                     session.stopEventStream();
                     session.getDataHandler().removeListener(mListener);
                 }
             }
         }
-        mMatrixIds = null;
         mSessions = null;
         mState = StreamAction.STOP;
 
@@ -591,7 +772,7 @@ public class EventStreamService extends Service {
             Log.d(LOG_TAG, "onStartCommand pause");
 
             if (mSessions != null) {
-                for(MXSession session : mSessions) {
+                for(MXSession session : mSessions.getSnapshot()) {
                     session.pauseEventStream();
                 }
                 mState = StreamAction.PAUSE;
@@ -617,7 +798,7 @@ public class EventStreamService extends Service {
 
         if (canCatchup) {
             if (mSessions != null) {
-                for (MXSession session : mSessions) {
+                for (MXSession session : mSessions.getSnapshot()) {
                     session.catchupEventStream();
                 }
             } else {
@@ -632,7 +813,7 @@ public class EventStreamService extends Service {
 
     private void resume() {
         if (mSessions != null) {
-            for(MXSession session : mSessions) {
+            for(MXSession session : mSessions.getSnapshot()) {
                 session.resumeEventStream();
             }
         }
@@ -710,8 +891,14 @@ public class EventStreamService extends Service {
 
         // hide the "incoming call" notification
         if (TextUtils.equals(mNotifiedCallId, callId)) {
-            NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
-            nm.cancelAll();
+            final NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
+
+            mBingNotificationBatcher.cancel(new Runnable() {
+                @Override
+                public void run() {
+                    nm.cancelAll();
+                }
+            });
             mNotifiedCallId = null;
         }
     }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provide the large icons of the notifications.
+ * A notification costs at most one decoding : the member avatar is decoded once if it is not cached,
+ * and the default avatar is decoded once and then kept.
+ * @param <S> the avatars source type, e.g. the medias cache of a session.
+ * @param <B> the bitmap type.
+ */
+public class NotificationAvatarProvider<S, B> {
+
+    /**
+     * The bitmaps source.
+     */
+    public interface Decoder<S, B> {
+        /**
+         * Retrieve a cached avatar, without decoding.
+         * @param url the avatar url.
+         * @param size the avatar size in pixels.
+         * @return the bitmap, null if it is not cached.
+         */
+        B getCachedAvatar(String url, int size);
+
+        /**
+         * Decode an avatar.
+         * @param source the avatars source.
+         * @param url the avatar url.
+         * @param size the avatar size in pixels.
+         * @return the bitmap, null if it cannot be decoded.
+         */
+        B decodeAvatar(S source, String url, int size);
+
+        /**
+         * @return the decoded default avatar.
+         */
+        B decodeDefaultAvatar();
+    }
+
+    private final Decoder<S, B> mDecoder;
+    private B mDefaultAvatar = null;
+    private final AtomicInteger mDecodeCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param decoder the bitmaps source.
+     */
+    public NotificationAvatarProvider(Decoder<S, B> decoder) {
+        mDecoder = decoder;
+    }
+
+    /**
+     * Retrieve the default avatar, it is decoded at the first call.
+     * It should be preloaded, so a notification never costs two decodings.
+     * @return the default avatar.
+     */
+    public synchronized B getDefaultAvatar() {
+        if (null == mDefaultAvatar) {
+            mDecodeCount.incrementAndGet();
+            mDefaultAvatar = mDecoder.decodeDefaultAvatar();
+        }
+
+        return mDefaultAvatar;
+    }
+
+    /**
+     * Retrieve the avatar of a member, or the default avatar when it cannot be decoded.
+     * The member avatar is only decoded when it is not cached.
+     * @param source the avatars source.
+     * @param url the avatar url (can be null).
+     * @param size the avatar size in pixels.
+     * @return the bitmap.
+     */
+    public B getAvatar(S source, String url, int size) {
+        B bitmap = null;
+
+        if (null != url) {
+            bitmap = mDecoder.getCachedAvatar(url, size);
+
+            if (null == bitmap) {
+                mDecodeCount.incrementAndGet();
+                bitmap = mDecoder.decodeAvatar(source, url, size);
+            }
+        }
+
+        return (null != bitmap) ? bitmap : getDefaultAvatar();
+    }
+
+    /**
+     * @return the number of bitmap decodings.
+     */
+    public int getDecodeCount() {
+        return mDecodeCount.get();
+    }
+}
@@ -18,6 +18,7 @@ package org.matrix.console.store;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.gson.Gson;
@@ -30,9 +31,15 @@ import org.matrix.androidsdk.rest.model.login.Credentials;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Stores login credentials in SharedPreferences.
+ * The stored string is decoded once into an unmodifiable snapshot, which is replaced at each update,
+ * so the reads do not allocate. The sessions update their connection configs : the snapshot configs
+ * must be copied with copyConfig before creating a session.
+ * The snapshot is saved from the JSON strings of its configs, and persisted asynchronously with SharedPreferences.Editor.apply().
  */
 public class LoginStorage {
     private static final String LOG_TAG = "LoginStorage";
@@ -55,6 +62,13 @@ public class LoginStorage {
     private Context mContext;
     private Gson mGson;
 
+    // the decoded credentials, null until the first load
+    // the snapshot is replaced at each update, its configs are never given to a session
+    private volatile List<HomeserverConnectionConfig> mConfigs = null;
+
+    // the JSON strings of the snapshot configs, only used with the instance lock
+    private List<String> mSerializedConfigs = null;
+
     public LoginStorage(Context appContext) {
         mContext = appContext.getApplicationContext();
         mGson = new Gson();
@@ -76,35 +90,60 @@ public class LoginStorage {
     }
 
     /**
-     * Return a list of HomeserverConnectionConfig.
-     * @return a list of HomeserverConnectionConfig.
+     * Copy a connection config, so it can be updated without updating the credentials snapshot.
+     * @param config the config to copy.
+     * @return the copy.
+     */
+    public static HomeserverConnectionConfig copyConfig(HomeserverConnectionConfig config) {
+        try {
+            return HomeserverConnectionConfig.fromJson(config.toJson());
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to copy connection config " + e.getMessage(), e);
+            throw new RuntimeException("Failed to copy connection config");
+        }
+    }
+
+    /**
+     * Serialize a connection config.
+     * @param config the config.
+     * @return its JSON string.
+     */
+    private static String serializeConfig(HomeserverConnectionConfig config) {
+        try {
+            return config.toJson().toString();
+        } catch (JSONException e) {
+            throw new RuntimeException("Failed to serialize connection config");
+        }
+    }
+
+    /**
+     * Parse the stored credentials.
+     * @return the JSON strings of the credentials.
      */
-    public ArrayList<HomeserverConnectionConfig> getCredentialsList() {
+    private ArrayList<String> loadSerializedConfigs() {
         SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
 
         String connectionConfigsString = prefs.getString(PREFS_KEY_CONNECTION_CONFIGS, null);
 
-        Log.d(LOG_TAG, "Got connection json: " + connectionConfigsString);
-
         if (connectionConfigsString == null) {
-            return new ArrayList<HomeserverConnectionConfig>();
+            return new ArrayList<String>();
         }
 
         try {
 
             JSONArray connectionConfigsStrings = new JSONArray(connectionConfigsString);
 
-            ArrayList<HomeserverConnectionConfig> configList = new ArrayList<HomeserverConnectionConfig>(
+            ArrayList<String> serializedConfigs = new ArrayList<String>(
                     connectionConfigsStrings.length()
             );
 
             for (int i = 0; i < connectionConfigsStrings.length(); i++) {
-                configList.add(
-                        HomeserverConnectionConfig.fromJson(connectionConfigsStrings.getJSONObject(i))
-                );
+                serializedConfigs.add(connectionConfigsStrings.getJSONObject(i).toString());
             }
 
-            return configList;
+            Log.d(LOG_TAG, "Loaded " + serializedConfigs.size() + " credentials");
+
+            return serializedConfigs;
         } catch (JSONException e) {
             Log.e(LOG_TAG, "Failed to deserialize accounts " + e.getMessage(), e);
             throw new RuntimeException("Failed to deserialize accounts");
@@ -112,34 +151,84 @@ public class LoginStorage {
     }
 
     /**
-     * Add a credentials to the credentials list
-     * @param config the HomeserverConnectionConfig to add.
+     * Decode the credentials and publish them.
+     * The caller must hold the instance lock.
+     * @param serializedConfigs the JSON strings of the credentials.
      */
-    public void addCredentials(HomeserverConnectionConfig config) {
-        if (null != config && config.getCredentials() != null) {
-            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
+    private void publishCredentialsList(ArrayList<String> serializedConfigs) {
+        ArrayList<HomeserverConnectionConfig> configs = new ArrayList<HomeserverConnectionConfig>(serializedConfigs.size());
+
+        try {
+            for (String serializedConfig : serializedConfigs) {
+                configs.add(HomeserverConnectionConfig.fromJson(new JSONObject(serializedConfig)));
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to deserialize accounts " + e.getMessage(), e);
+            throw new RuntimeException("Failed to deserialize accounts");
+        }
+
+        mSerializedConfigs = Collections.unmodifiableList(serializedConfigs);
+        mConfigs = Collections.unmodifiableList(configs);
+    }
+
+    /**
+     * Retrieve the JSON strings of the credentials, loading them if they are not yet loaded.
+     * The caller must hold the instance lock.
+     * @return the JSON strings of the snapshot configs.
+     */
+    private List<String> getSerializedConfigs() {
+        if (null == mConfigs) {
+            publishCredentialsList(loadSerializedConfigs());
+        }
 
-            ArrayList<HomeserverConnectionConfig> configs = getCredentialsList();
+        return mSerializedConfigs;
+    }
 
-            configs.add(config);
+    /**
+     * Replace the credentials snapshot and persist it.
+     * The caller must hold the instance lock, so the snapshots are persisted in the update order.
+     * @param serializedConfigs the JSON strings of the new credentials list.
+     */
+    private void saveCredentialsList(ArrayList<String> serializedConfigs) {
+        publishCredentialsList(serializedConfigs);
 
-            ArrayList<JSONObject> serialized = new ArrayList<JSONObject>(configs.size());
+        Log.d(LOG_TAG, "Storing " + serializedConfigs.size() + " credentials");
 
-            try {
-                for (HomeserverConnectionConfig c : configs) {
-                    serialized.add(c.toJson());
-                }
-            } catch (JSONException e) {
-                throw new RuntimeException("Failed to serialize connection config");
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(PREFS_KEY_CONNECTION_CONFIGS, "[" + TextUtils.join(",", serializedConfigs) + "]");
+        editor.apply();
+    }
+
+    /**
+     * Return the unmodifiable credentials snapshot.
+     * The configs are shared : use copyConfig to get a config which can be updated.
+     * @return a list of HomeserverConnectionConfig.
+     */
+    public List<HomeserverConnectionConfig> getCredentialsList() {
+        List<HomeserverConnectionConfig> configs = mConfigs;
+
+        if (null == configs) {
+            synchronized (this) {
+                getSerializedConfigs();
+                configs = mConfigs;
             }
+        }
 
-            String ser = new JSONArray(serialized).toString();
+        return configs;
+    }
+
+    /**
+     * Add a credentials to the credentials list
+     * @param config the HomeserverConnectionConfig to add.
+     */
+    public synchronized void addCredentials(HomeserverConnectionConfig config) {
+        if (null != config && config.getCredentials() != null) {
+            ArrayList<String> serializedConfigs = new ArrayList<String>(getSerializedConfigs());
 
-            Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
+            serializedConfigs.add(serializeConfig(config));
 
-            editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
-            editor.commit();
+            saveCredentialsList(serializedConfigs);
         }
     }
 
@@ -147,37 +236,27 @@ public class LoginStorage {
      * Remove the credentials from credentials list
      * @param config the credentials to remove
      */
-    public void removeCredentials(HomeserverConnectionConfig config) {
+    public synchronized void removeCredentials(HomeserverConnectionConfig config) {
         if (null != config && config.getCredentials() != null) {
             Log.d(LOG_TAG, "Removing account: " + config.getCredentials().userId);
 
-            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
-
-            ArrayList<HomeserverConnectionConfig> configs = getCredentialsList();
-            ArrayList<JSONObject> serialized = new ArrayList<JSONObject>(configs.size());
+            List<String> serializedConfigs = getSerializedConfigs();
+            List<HomeserverConnectionConfig> configs = mConfigs;
+            ArrayList<String> updatedConfigs = new ArrayList<String>(configs.size());
 
             boolean found = false;
-            try {
-                for (HomeserverConnectionConfig c : configs) {
-                    if (c.getCredentials().userId.equals(config.getCredentials().userId)) {
-                        found = true;
-                    } else {
-                        serialized.add(c.toJson());
-                    }
+
+            for (int i = 0; i < configs.size(); i++) {
+                if (configs.get(i).getCredentials().userId.equals(config.getCredentials().userId)) {
+                    found = true;
+                } else {
+                    updatedConfigs.add(serializedConfigs.get(i));
                 }
-            } catch (JSONException e) {
-                throw new RuntimeException("Failed to serialize connection config");
             }
 
             if (!found) return;
 
-            String ser = new JSONArray(serialized).toString();
-
-            Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
-
-            editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
-            editor.commit();
+            saveCredentialsList(updatedConfigs);
         }
     }
 
@@ -186,47 +265,40 @@ public class LoginStorage {
      * If it does not match an existing credential it does *not* insert the new credentials.
      * @param config the credentials to insert
      */
-    public void replaceCredentials(HomeserverConnectionConfig config) {
+    public synchronized void replaceCredentials(HomeserverConnectionConfig config) {
         if (null != config && config.getCredentials() != null) {
-            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
-
-            ArrayList<HomeserverConnectionConfig> configs = getCredentialsList();
-            ArrayList<JSONObject> serialized = new ArrayList<JSONObject>(configs.size());
+            List<String> serializedConfigs = getSerializedConfigs();
+            List<HomeserverConnectionConfig> configs = mConfigs;
+            ArrayList<String> updatedConfigs = new ArrayList<String>(configs.size());
 
             boolean found = false;
-            try {
-                for (HomeserverConnectionConfig c : configs) {
-                    if (c.getCredentials().userId.equals(config.getCredentials().userId)) {
-                        serialized.add(config.toJson());
-                        found = true;
-                    } else {
-                        serialized.add(c.toJson());
-                    }
+
+            for (int i = 0; i < configs.size(); i++) {
+                if (configs.get(i).getCredentials().userId.equals(config.getCredentials().userId)) {
+                    updatedConfigs.add(serializeConfig(config));
+                    found = true;
+                } else {
+                    updatedConfigs.add(serializedConfigs.get(i));
                 }
-            } catch (JSONException e) {
-                throw new RuntimeException("Failed to serialize connection config");
             }
 
             if (!found) return;
 
-            String ser = new JSONArray(serialized).toString();
-
-            Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
-
-            editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
-            editor.commit();
+            saveCredentialsList(updatedConfigs);
         }
     }
 
     /**
      * Clear the stored values
      */
-    public void clear() {
+    public synchronized void clear() {
+        mSerializedConfigs = Collections.unmodifiableList(new ArrayList<String>());
+        mConfigs = Collections.unmodifiableList(new ArrayList<HomeserverConnectionConfig>());
+
         SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
         editor.remove(PREFS_KEY_CONNECTION_CONFIGS);
-        editor.commit();
+        editor.apply();
     }
 
 }
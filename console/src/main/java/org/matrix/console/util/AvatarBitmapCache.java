@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Application wide cache of downsampled avatar bitmaps.
+ * The bitmaps are indexed by (avatar url, size) and the cache is bounded by the bitmaps byte count.
+ */
+public class AvatarBitmapCache {
+    private static final String LOG_TAG = "AvatarBitmapCache";
+
+    // use 1/16 of the application heap
+    private static final int HEAP_FRACTION = 16;
+
+    private final LruCache<String, Bitmap> mBitmapsCache;
+
+    // statistics
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    /**
+     * Create a cache bounded to a fraction of the application heap.
+     */
+    public AvatarBitmapCache() {
+        this((int)(Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+    }
+
+    /**
+     * Create a cache.
+     * @param maxBytes the maximum size of the cached bitmaps in bytes.
+     */
+    public AvatarBitmapCache(int maxBytes) {
+        mBitmapsCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    synchronized (AvatarBitmapCache.this) {
+                        mEvictionCount++;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Compute the cache key.
+     * @param url the avatar url
+     * @param size the avatar size in pixels
+     * @return the key
+     */
+    private static String getKey(String url, int size) {
+        return url + "|" + size;
+    }
+
+    /**
+     * Retrieve a cached bitmap.
+     * @param url the avatar url
+     * @param size the avatar size in pixels
+     * @return the bitmap, null if it is not cached.
+     */
+    public Bitmap getBitmap(String url, int size) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+
+        Bitmap bitmap = mBitmapsCache.get(getKey(url, size));
+
+        synchronized (this) {
+            if (null != bitmap) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Add a bitmap to the cache.
+     * @param url the avatar url
+     * @param size the avatar size in pixels
+     * @param bitmap the bitmap
+     */
+    public void putBitmap(String url, int size, Bitmap bitmap) {
+        if (!TextUtils.isEmpty(url) && (null != bitmap)) {
+            mBitmapsCache.put(getKey(url, size), bitmap);
+        }
+    }
+
+    /**
+     * Retrieve an avatar bitmap from the cache or decode it from a local file.
+     * @param url the avatar url
+     * @param size the avatar size in pixels
+     * @param file the file containing the avatar thumbnail.
+     * @return the bitmap, null if it cannot be decoded.
+     */
+    public Bitmap getBitmap(String url, int size, File file) {
+        Bitmap bitmap = getBitmap(url, size);
+
+        if (null == bitmap) {
+            bitmap = decodeBitmap(url, size, file);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Decode an avatar bitmap from a local file and add it to the cache.
+     * The cache is not checked : it must be used after a cache miss.
+     * It must not be called from the UI thread.
+     * @param url the avatar url
+     * @param size the avatar size in pixels
+     * @param file the file containing the avatar thumbnail.
+     * @return the bitmap, null if it cannot be decoded.
+     */
+    public Bitmap decodeBitmap(String url, int size, File file) {
+        if (TextUtils.isEmpty(url) || (null == file)) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        options.inSampleSize = computeSampleSize(options, size);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        putBitmap(url, size, bitmap);
+
+        return bitmap;
+    }
+
+    /**
+     * Decode an avatar bitmap from a content uri and add it to the cache.
+     * The cache is not checked : it must be used after a cache miss.
+     * The content is expected to be a thumbnail (e.g. a contact photo thumbnail), so it is read once
+     * and the decoded bitmap is scaled down when it is larger than the expected size.
+     * It must not be called from the UI thread.
+     * @param context the context
+     * @param uri the content uri
+     * @param size the avatar size in pixels
+     * @return the bitmap, null if it cannot be decoded.
+     */
+    public Bitmap decodeBitmap(Context context, String uri, int size) {
+        if (TextUtils.isEmpty(uri)) {
+            return null;
+        }
+
+        Bitmap bitmap = null;
+        InputStream stream = null;
+
+        try {
+            stream = context.getContentResolver().openInputStream(Uri.parse(uri));
+            bitmap = BitmapFactory.decodeStream(stream);
+
+            if ((null != bitmap) && (size > 0) && (Math.min(bitmap.getWidth(), bitmap.getHeight()) > size)) {
+                float scale = (float)size / Math.min(bitmap.getWidth(), bitmap.getHeight());
+                Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+
+                if (scaledBitmap != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaledBitmap;
+                }
+            }
+
+            putBitmap(uri, size, bitmap);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "decodeBitmap failed " + e.getLocalizedMessage());
+        }
+
+        if (null != stream) {
+            try {
+                stream.close();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "decodeBitmap close failed " + e.getLocalizedMessage());
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Compute the largest power of 2 sample size which keeps the image larger than the expected size.
+     * @param options the options filled with the image bounds.
+     * @param size the expected size in pixels
+     * @return the sample size
+     */
+    private static int computeSampleSize(BitmapFactory.Options options, int size) {
+        int sampleSize = 1;
+
+        if (size > 0) {
+            while (((options.outWidth / (sampleSize * 2)) >= size) && ((options.outHeight / (sampleSize * 2)) >= size)) {
+                sampleSize *= 2;
+            }
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Release some memory according to the trim level.
+     * @param level the level provided by onTrimMemory.
+     */
+    public void trimMemory(int level) {
+        Log.d(LOG_TAG, "trimMemory " + level + " : " + getStatistics());
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mBitmapsCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mBitmapsCache.trimToSize(mBitmapsCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public void clear() {
+        mBitmapsCache.evictAll();
+    }
+
+    /**
+     * @return the number of cache hits.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of cache misses.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of evicted bitmaps.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return a human readable description of the cache statistics.
+     */
+    public synchronized String getStatistics() {
+        return "size " + mBitmapsCache.size() + "/" + mBitmapsCache.maxSize() + " bytes, hits " + mHitCount + ", misses " + mMissCount + ", evictions " + mEvictionCount;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Static bitmap decoding methods.
+ * The images are never decoded at full resolution : the bounds are read first
+ * and the pixels are subsampled to the expected size.
+ */
+public class BitmapUtils {
+
+    private static final String LOG_TAG = "BitmapUtils";
+
+    /**
+     * Read the image bounds and mimetype without decoding the pixels.
+     * @param path the image file path.
+     * @return the options filled with outWidth, outHeight and outMimeType (outWidth <= 0 if the file is not an image).
+     */
+    public static BitmapFactory.Options decodeBounds(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        return options;
+    }
+
+    /**
+     * Compute the largest power of 2 sample size which keeps the decoded image larger than the expected size.
+     * @param width the image width.
+     * @param height the image height.
+     * @param reqWidth the expected width.
+     * @param reqHeight the expected height.
+     * @return the sample size.
+     */
+    public static int computeSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+
+        if ((reqWidth > 0) && (reqHeight > 0)) {
+            while (((width / (sampleSize * 2)) >= reqWidth) && ((height / (sampleSize * 2)) >= reqHeight)) {
+                sampleSize *= 2;
+            }
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Compute the sample size of an image which is scaled to fit in a box.
+     * The image is subsampled to its fitted size rather than to the box, so an image
+     * whose orientation differs from the box one is not decoded larger than needed.
+     * @param width the image width.
+     * @param height the image height.
+     * @param reqWidth the box width.
+     * @param reqHeight the box height.
+     * @return the sample size.
+     */
+    public static int computeFitSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        if ((reqWidth <= 0) || (reqHeight <= 0)) {
+            return 1;
+        }
+
+        int[] fitSize = computeFitSize(width, height, reqWidth, reqHeight);
+        return computeSampleSize(width, height, fitSize[0], fitSize[1]);
+    }
+
+    /**
+     * Compute the bitmaps bytes allocated at the same time to build a thumbnail with decodeSampledBitmap then scaleToFit :
+     * the subsampled image, at most twice larger than the thumbnail on each side, and the scaled thumbnail.
+     * @param reqWidth the thumbnail width.
+     * @param reqHeight the thumbnail height.
+     * @return the bytes count (ARGB_8888).
+     */
+    public static long getMaxThumbnailBytes(int reqWidth, int reqHeight) {
+        return 5L * 4L * reqWidth * reqHeight;
+    }
+
+    /**
+     * Decode a subsampled image, which is at most twice larger than the expected size.
+     * @param path the image file path.
+     * @param bounds the image bounds provided by decodeBounds.
+     * @param reqWidth the expected width.
+     * @param reqHeight the expected height.
+     * @return the bitmap, null if it cannot be decoded.
+     */
+    public static Bitmap decodeSampledBitmap(String path, BitmapFactory.Options bounds, int reqWidth, int reqHeight) {
+        if ((null == bounds) || (bounds.outWidth <= 0) || (bounds.outHeight <= 0)) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = computeFitSampleSize(bounds.outWidth, bounds.outHeight, reqWidth, reqHeight);
+
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+
+        if (null == bitmap) {
+            Log.e(LOG_TAG, "decodeSampledBitmap : cannot decode " + path);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Compute the size of an image scaled to fit in a box, keeping its aspect ratio.
+     * @param width the image width.
+     * @param height the image height.
+     * @param maxWidth the box width.
+     * @param maxHeight the box height.
+     * @return the scaled width and height.
+     */
+    public static int[] computeFitSize(int width, int height, int maxWidth, int maxHeight) {
+        if ((width <= maxWidth) && (height <= maxHeight)) {
+            return new int[]{width, height};
+        }
+
+        double ratio = Math.min((double) maxWidth / width, (double) maxHeight / height);
+        return new int[]{Math.max(1, (int) (width * ratio)), Math.max(1, (int) (height * ratio))};
+    }
+
+    /**
+     * Scale a bitmap to fit in a box, keeping its aspect ratio.
+     * The source bitmap is recycled when a new one is created.
+     * @param bitmap the bitmap.
+     * @param maxWidth the box width.
+     * @param maxHeight the box height.
+     * @return the scaled bitmap.
+     */
+    public static Bitmap scaleToFit(Bitmap bitmap, int maxWidth, int maxHeight) {
+        if ((null == bitmap) || ((bitmap.getWidth() <= maxWidth) && (bitmap.getHeight() <= maxHeight))) {
+            return bitmap;
+        }
+
+        int[] size = computeFitSize(bitmap.getWidth(), bitmap.getHeight(), maxWidth, maxHeight);
+        Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, size[0], size[1], true);
+
+        if (scaledBitmap != bitmap) {
+            bitmap.recycle();
+        }
+
+        return scaledBitmap;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A directory of files bounded in size : the least recently used files are deleted when it is full.
+ * The files are written to a temporary file and then added, so a partially written file is never returned.
+ * The directory is scanned at the first use, so the usage order survives the application restarts.
+ */
+public class BoundedFileCache {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    // the file sizes by file name, in access order
+    private LinkedHashMap<String, Long> mSizesByName = null;
+    private long mSize = 0;
+
+    /**
+     * Constructor
+     * @param directory the cache directory.
+     * @param maxSize the maximum size of the files in bytes.
+     */
+    public BoundedFileCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Build the file name of a key.
+     * @param key the key.
+     * @return the file name.
+     */
+    private static String getFileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder builder = new StringBuilder();
+
+            for (byte b : digest.digest(key.getBytes("UTF-8"))) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+
+            return builder.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * Scan the directory at the first call.
+     */
+    private void load() {
+        if (null != mSizesByName) {
+            return;
+        }
+
+        mSizesByName = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        mDirectory.mkdirs();
+
+        File[] files = mDirectory.listFiles();
+
+        if (null == files) {
+            return;
+        }
+
+        // the least recently used files first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsDate = lhs.lastModified();
+                long rhsDate = rhs.lastModified();
+                return (lhsDate < rhsDate) ? -1 : ((lhsDate == rhsDate) ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            // remove the files whose writing has been interrupted
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            } else {
+                mSizesByName.put(file.getName(), file.length());
+                mSize += file.length();
+            }
+        }
+
+        trim();
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits in its maximum size.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = mSizesByName.entrySet().iterator();
+
+        while ((mSize > mMaxSize) && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+
+            new File(mDirectory, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Retrieve the file of a key.
+     * @param key the key.
+     * @return the file, null if it is not cached.
+     */
+    public synchronized File get(String key) {
+        load();
+
+        String name = getFileName(key);
+
+        if (null == mSizesByName.get(name)) {
+            return null;
+        }
+
+        File file = new File(mDirectory, name);
+
+        // the file has been deleted in the meantime (e.g. by the system)
+        if (!file.exists()) {
+            mSize -= mSizesByName.remove(name);
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Provide the temporary file to write the file of a key, before adding it with {@link #put(String, File)}.
+     * @param key the key.
+     * @return the temporary file.
+     */
+    public synchronized File getTemporaryFile(String key) {
+        load();
+        return new File(mDirectory, getFileName(key) + TMP_SUFFIX);
+    }
+
+    /**
+     * Add the written file of a key, it replaces the previous one.
+     * The least recently used files are deleted if the cache is full.
+     * @param key the key.
+     * @param temporaryFile the file provided by {@link #getTemporaryFile(String)}.
+     * @return the cached file, null if it cannot be added.
+     */
+    public synchronized File put(String key, File temporaryFile) {
+        load();
+
+        String name = getFileName(key);
+        File file = new File(mDirectory, name);
+        Long previousSize = mSizesByName.remove(name);
+
+        if (null != previousSize) {
+            mSize -= previousSize;
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            file.delete();
+            return null;
+        }
+
+        mSizesByName.put(name, file.length());
+        mSize += file.length();
+        trim();
+
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * @return the size of the cached files in bytes.
+     */
+    public synchronized long getSize() {
+        load();
+        return mSize;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Build a bug report zip file in background.
+ * Every source (the screenshot, the metrics, the startup trace, the logcat dumps and the stored logs)
+ * is streamed into the zip file with a fixed size buffer, so the memory consumption does not depend on the logs size.
+ * The screenshot is first encoded to its own file, which is stored without compression in the zip file,
+ * or provided to be attached alone if the zip file cannot be built.
+ * The screenshot file is written in a private directory, it is deleted when the zip file is built
+ * or by the next build.
+ */
+public class BugReportBuilder {
+    private static final String LOG_TAG = "BugReportBuilder";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String SCREENSHOT_SUFFIX = "-screenshot.jpg";
+
+    private static final int SCREENSHOT_JPEG_QUALITY = 70;
+
+    /**
+     * The build listener, called on the UI thread.
+     */
+    public interface BugReportListener {
+        /**
+         * The build is in progress.
+         * @param percentage the progress percentage.
+         */
+        void onProgress(int percentage);
+
+        /**
+         * The report is built.
+         * @param reportFile the report file.
+         */
+        void onReportBuilt(File reportFile);
+
+        /**
+         * The report cannot be built.
+         * @param screenshotFile the screenshot file, null if there is no screenshot.
+         */
+        void onReportFailed(File screenshotFile);
+    }
+
+    private static Handler mBuildHandler = null;
+
+    private final File mReportFile;
+    private final File mScreenshotDirectory;
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private Bitmap mScreenshot = null;
+    private File mScreenshotFile = null;
+    private long mScreenshotCrc = 0;
+    private long mScreenshotEncodingDuration = 0;
+    private long mScreenshotSize = 0;
+
+    /**
+     * Constructor
+     * @param reportFile the zip file to build.
+     * @param screenshotDirectory the private directory of the screenshot file.
+     */
+    public BugReportBuilder(File reportFile, File screenshotDirectory) {
+        mReportFile = reportFile;
+        mScreenshotDirectory = screenshotDirectory;
+    }
+
+    /**
+     * Add a screenshot to the report.
+     * It is JPEG encoded to a file during the build and recycled.
+     * @param screenshot the screenshot.
+     */
+    public void setScreenshot(Bitmap screenshot) {
+        mScreenshot = screenshot;
+    }
+
+    /**
+     * @return the screenshot encoding duration in milliseconds.
+     */
+    public long getScreenshotEncodingDuration() {
+        return mScreenshotEncodingDuration;
+    }
+
+    /**
+     * @return the encoded screenshot size in bytes.
+     */
+    public long getScreenshotSize() {
+        return mScreenshotSize;
+    }
+
+    /**
+     * @return the handler of the build thread.
+     */
+    private static synchronized Handler getBuildHandler() {
+        if (null == mBuildHandler) {
+            HandlerThread thread = new HandlerThread("BugReportThread", Thread.MIN_PRIORITY);
+            thread.start();
+            mBuildHandler = new Handler(thread.getLooper());
+        }
+
+        return mBuildHandler;
+    }
+
+    /**
+     * Build the report in background.
+     * @param listener the listener.
+     */
+    public void build(final BugReportListener listener) {
+        getBuildHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final boolean succeeded = buildReport(listener);
+
+                mUIHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (succeeded) {
+                            listener.onReportBuilt(mReportFile);
+                        } else {
+                            listener.onReportFailed(mScreenshotFile);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Publish the build progress.
+     * @param listener the listener.
+     * @param done the number of written sources.
+     * @param total the number of sources.
+     */
+    private void publishProgress(final BugReportListener listener, int done, int total) {
+        final int percentage = done * 100 / total;
+
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(percentage);
+            }
+        });
+    }
+
+    /**
+     * Encode the screenshot to a JPEG file in the screenshot directory, and recycle it.
+     * The screenshots of the previous reports are deleted.
+     * The CRC is computed while the file is written, so the zip entry can be stored without compression.
+     * @return the screenshot file, null if it cannot be written.
+     */
+    private File encodeScreenshot() {
+        long encodingStartTime = System.currentTimeMillis();
+
+        File[] previousFiles = mScreenshotDirectory.listFiles();
+
+        if (null != previousFiles) {
+            for (File file : previousFiles) {
+                file.delete();
+            }
+        } else {
+            mScreenshotDirectory.mkdirs();
+        }
+
+        String reportName = mReportFile.getName();
+        int extensionPos = reportName.lastIndexOf('.');
+        File screenshotFile = new File(mScreenshotDirectory, ((extensionPos > 0) ? reportName.substring(0, extensionPos) : reportName) + SCREENSHOT_SUFFIX);
+
+        CRC32 crc = new CRC32();
+        OutputStream outputStream = null;
+        boolean isEncoded = false;
+
+        try {
+            outputStream = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(screenshotFile), BUFFER_SIZE), crc);
+            isEncoded = mScreenshot.compress(Bitmap.CompressFormat.JPEG, SCREENSHOT_JPEG_QUALITY, outputStream);
+            outputStream.close();
+            outputStream = null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "encodeScreenshot failed " + e.getLocalizedMessage());
+            isEncoded = false;
+        }
+
+        if (null != outputStream) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+            }
+        }
+
+        mScreenshot.recycle();
+        mScreenshot = null;
+
+        if (!isEncoded) {
+            screenshotFile.delete();
+            return null;
+        }
+
+        mScreenshotCrc = crc.getValue();
+        mScreenshotSize = screenshotFile.length();
+        mScreenshotEncodingDuration = System.currentTimeMillis() - encodingStartTime;
+        Log.d(LOG_TAG, "encodeScreenshot : screenshot encoded in " + mScreenshotEncodingDuration + " ms (" + mScreenshotSize + " bytes)");
+
+        return screenshotFile;
+    }
+
+    /**
+     * Write the report file.
+     * @param listener the listener.
+     * @return true if the report is built.
+     */
+    private boolean buildReport(BugReportListener listener) {
+        long startTime = System.currentTimeMillis();
+
+        if (null != mScreenshot) {
+            mScreenshotFile = encodeScreenshot();
+        }
+
+        ArrayList<File> logFiles = LogUtilities.getLogsFileList();
+        // the screenshot + the metrics + the startup trace + the logcat dumps + the stored logs
+        int total = 5 + logFiles.size();
+        int done = 0;
+
+        ZipOutputStream zipOutputStream = null;
+        boolean succeeded = false;
+
+        try {
+            zipOutputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(mReportFile), BUFFER_SIZE));
+
+            if (null != mScreenshotFile) {
+                // the JPEG is already compressed : it is stored as is
+                ZipEntry screenshotEntry = new ZipEntry("screenshot.jpg");
+                screenshotEntry.setMethod(ZipEntry.STORED);
+                screenshotEntry.setSize(mScreenshotSize);
+                screenshotEntry.setCompressedSize(mScreenshotSize);
+                screenshotEntry.setCrc(mScreenshotCrc);
+                zipOutputStream.putNextEntry(screenshotEntry);
+
+                InputStream inputStream = new FileInputStream(mScreenshotFile);
+
+                try {
+                    copy(inputStream, zipOutputStream);
+                } finally {
+                    inputStream.close();
+                }
+
+                zipOutputStream.closeEntry();
+            }
+            publishProgress(listener, ++done, total);
+
+            zipOutputStream.putNextEntry(new ZipEntry("metrics.txt"));
+            Metrics.getInstance().writeTo(zipOutputStream);
+            zipOutputStream.closeEntry();
+            publishProgress(listener, ++done, total);
+
+            zipOutputStream.putNextEntry(new ZipEntry("startup-trace.json"));
+            StartupTracer.getInstance().writeTo(zipOutputStream);
+            zipOutputStream.closeEntry();
+            publishProgress(listener, ++done, total);
+
+            zipOutputStream.putNextEntry(new ZipEntry("logcat-error.log"));
+            LogUtilities.writeLog(LogUtilities.LOGCAT_CMD, zipOutputStream);
+            zipOutputStream.closeEntry();
+            publishProgress(listener, ++done, total);
+
+            zipOutputStream.putNextEntry(new ZipEntry("logcat-debug.log"));
+            LogUtilities.writeLog(LogUtilities.LOGCAT_CMD_DEBUG, zipOutputStream);
+            zipOutputStream.closeEntry();
+            publishProgress(listener, ++done, total);
+
+            for (File logFile : logFiles) {
+                String name = logFile.getName();
+                InputStream inputStream = null;
+
+                try {
+                    inputStream = new FileInputStream(logFile);
+
+                    // the stored logs are uncompressed : the zip file compresses them
+                    if (name.endsWith(GZIP_SUFFIX)) {
+                        inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+                        name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+                    }
+
+                    zipOutputStream.putNextEntry(new ZipEntry("logs/" + name));
+                    copy(inputStream, zipOutputStream);
+                    zipOutputStream.closeEntry();
+                } catch (IOException e) {
+                    // the segment might have been deleted by the retention policy
+                    Log.e(LOG_TAG, "buildReport : cannot add " + name + " " + e.getLocalizedMessage());
+                } finally {
+                    if (null != inputStream) {
+                        try {
+                            inputStream.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+
+                publishProgress(listener, ++done, total);
+            }
+
+            succeeded = true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "buildReport failed " + e.getLocalizedMessage());
+        }
+
+        if (null != zipOutputStream) {
+            try {
+                zipOutputStream.close();
+            } catch (IOException e) {
+                succeeded = false;
+            }
+        }
+
+        if (!succeeded) {
+            mReportFile.delete();
+        } else if (null != mScreenshotFile) {
+            // the screenshot is in the report
+            mScreenshotFile.delete();
+            mScreenshotFile = null;
+        }
+
+        Log.d(LOG_TAG, "buildReport : " + mReportFile.length() + " bytes in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        return succeeded;
+    }
+
+    /**
+     * Copy a stream with the builder buffer.
+     * @param inputStream the input stream.
+     * @param zipOutputStream the zip stream.
+     * @throws IOException if the copy fails.
+     */
+    private void copy(InputStream inputStream, ZipOutputStream zipOutputStream) throws IOException {
+        int len;
+        while ((len = inputStream.read(mBuffer)) != -1) {
+            zipOutputStream.write(mBuffer, 0, len);
+        }
+    }
+}
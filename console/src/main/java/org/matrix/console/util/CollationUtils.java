@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Sortable names : the names are converted once to collation keys, which are compared
+ * without allocation nor case folding.
+ * The keys follow the device locale and ignore the case and the diacritics.
+ */
+public class CollationUtils {
+
+    private static final Pattern DIACRITICS_PATTERN = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static Collator mCollator = null;
+    private static Locale mCollatorLocale = null;
+
+    /**
+     * Normalize a text : lower case and without diacritics.
+     * @param text the text to normalize.
+     * @return the normalized text.
+     */
+    public static String normalize(String text) {
+        String res = Normalizer.normalize(text, Normalizer.Form.NFD);
+        res = DIACRITICS_PATTERN.matcher(res).replaceAll("");
+        return res.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Remove the leading "@" of the matrix ids.
+     * @param name the name.
+     * @return the name to sort.
+     */
+    private static String getSortableName(String name) {
+        if (null == name) {
+            return "";
+        }
+
+        return name.startsWith("@") ? name.substring(1) : name;
+    }
+
+    /**
+     * Compute the collation key of a name.
+     * The keys must not be compared with the keys computed before a locale update.
+     * @param name the name (can be null).
+     * @return the collation key.
+     */
+    public static synchronized CollationKey getCollationKey(String name) {
+        return getCollator().getCollationKey(getSortableName(name));
+    }
+
+    /**
+     * Retrieve the collator of the device locale.
+     * The collator is not thread safe, it must only be used by the synchronized methods.
+     * @return the collator.
+     */
+    private static Collator getCollator() {
+        Locale locale = Locale.getDefault();
+
+        if ((null == mCollator) || !locale.equals(mCollatorLocale)) {
+            mCollator = Collator.getInstance(locale);
+            // ignore the case and the diacritics
+            mCollator.setStrength(Collator.PRIMARY);
+            mCollator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+            mCollatorLocale = locale;
+        }
+
+        return mCollator;
+    }
+
+    /**
+     * Compute the section title of a name : its first letter, upper case.
+     * The diacritics are removed only when the collator ignores them, so the sections follow the sort order
+     * (e.g. an accented E is in the "E" section in French, but an A with diaeresis has its own section after "Z" in Swedish).
+     * @param name the name.
+     * @return the section title, null if the name is empty.
+     */
+    public static synchronized String getSectionTitle(String name) {
+        String sortableName = getSortableName(name);
+
+        if (sortableName.isEmpty()) {
+            return null;
+        }
+
+        // surrogate pairs are kept together
+        String firstLetter = sortableName.substring(0, sortableName.offsetByCodePoints(0, 1));
+        String baseLetter = normalize(firstLetter);
+
+        if (!baseLetter.isEmpty() && (0 == getCollator().compare(firstLetter, baseLetter))) {
+            firstLetter = baseLetter;
+        }
+
+        return firstLetter.toUpperCase(Locale.getDefault());
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.util.Log;
+
+import org.matrix.androidsdk.util.ImageUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Transcode the outgoing images according to a size policy.
+ * The images larger than the policy maximum side (which depends on the network type) are
+ * decoded with subsampling, scaled, rotated according to their EXIF orientation and re-encoded.
+ */
+public class ImageTranscoder {
+    private static final String LOG_TAG = "ImageTranscoder";
+
+    // metrics
+    private static final Metrics.Counter TRANSCODED_IMAGES_COUNT = Metrics.getInstance().getCounter("medias.transcoded_images");
+    private static final Metrics.Counter TRANSCODING_BYTES_SAVED = Metrics.getInstance().getCounter("medias.transcoding_bytes_saved");
+
+    /**
+     * The transcoding policy.
+     */
+    public static class Policy {
+        // the maximum image side in pixels on a metered network (0 means no limit)
+        public int mMeteredMaxSide = 1600;
+        // the maximum image side in pixels on an unmetered network (0 means no limit)
+        public int mUnmeteredMaxSide = 0;
+        // the encoding format
+        public Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+        // the encoding quality (0..100)
+        public int mQuality = 80;
+    }
+
+    /**
+     * The transcoding result.
+     */
+    public static class Result {
+        public final String mMediaUrl;
+        public final String mMimeType;
+        // the original file size in bytes
+        public final long mOriginalSize;
+        // the file size to upload in bytes
+        public final long mSize;
+
+        Result(String mediaUrl, String mimeType, long originalSize, long size) {
+            mMediaUrl = mediaUrl;
+            mMimeType = mimeType;
+            mOriginalSize = originalSize;
+            mSize = size;
+        }
+
+        /**
+         * @return true if the image has been re-encoded.
+         */
+        public boolean isTranscoded() {
+            return mOriginalSize != mSize;
+        }
+    }
+
+    private Policy mPolicy = new Policy();
+
+    private long mFileIndex = 0;
+
+    /**
+     * Update the transcoding policy.
+     * @param policy the new policy.
+     */
+    public synchronized void setPolicy(Policy policy) {
+        if (null != policy) {
+            mPolicy = policy;
+        }
+    }
+
+    /**
+     * @return the transcoding policy.
+     */
+    public synchronized Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Retrieve the maximum image side for the current network.
+     * @param context the context.
+     * @return the maximum side in pixels, 0 if the images are not resized.
+     */
+    public int getMaxSide(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        boolean isMetered = (null == connectivityManager) || connectivityManager.isActiveNetworkMetered();
+        Policy policy = getPolicy();
+
+        return isMetered ? policy.mMeteredMaxSide : policy.mUnmeteredMaxSide;
+    }
+
+    /**
+     * Estimate the memory used to transcode an image.
+     * The subsampled bitmap long side is at most twice the maximum side, then it is scaled
+     * and possibly rotated, so up to 4 + 1 + 1 bitmaps of maxSide x maxSide ARGB pixels are allocated.
+     * @param maxSide the maximum side in pixels, 0 if the images are not resized.
+     * @return the memory in bytes, 0 if the images are not transcoded.
+     */
+    public static long getTranscodingMemory(int maxSide) {
+        return (maxSide <= 0) ? 0 : 6L * 4L * maxSide * maxSide;
+    }
+
+    /**
+     * Transcode an image according to the current network policy.
+     * @param context the context.
+     * @param mediaUrl the image url in the medias cache.
+     * @param mimeType the image mimetype.
+     * @return the transcoding result.
+     */
+    public Result transcode(Context context, String mediaUrl, String mimeType) {
+        return transcode(context, mediaUrl, mimeType, getMaxSide(context));
+    }
+
+    /**
+     * Transcode an image to fit in a maximum side.
+     * The image is kept as is if it is small enough, if its format cannot be safely re-encoded
+     * (PNG transparency, animated GIF) or if the re-encoded file would be larger.
+     * @param context the context.
+     * @param mediaUrl the image url in the medias cache.
+     * @param mimeType the image mimetype.
+     * @param maxSide the maximum side in pixels, 0 to keep the image size.
+     * @return the transcoding result.
+     */
+    public Result transcode(Context context, String mediaUrl, String mimeType, int maxSide) {
+        if (null == mediaUrl) {
+            return new Result(null, mimeType, 0, 0);
+        }
+
+        String path = Uri.parse(mediaUrl).getPath();
+        long originalSize = new File(path).length();
+        Result unchanged = new Result(mediaUrl, mimeType, originalSize, originalSize);
+
+        if ((maxSide <= 0) || !("image/jpeg".equals(mimeType) || "image/jpg".equals(mimeType) || "image/webp".equals(mimeType))) {
+            return unchanged;
+        }
+
+        BitmapFactory.Options bounds = BitmapUtils.decodeBounds(path);
+        int longSide = Math.max(bounds.outWidth, bounds.outHeight);
+
+        if ((bounds.outWidth <= 0) || (bounds.outHeight <= 0) || (longSide <= maxSide)) {
+            return unchanged;
+        }
+
+        long startTime = System.currentTimeMillis();
+        Policy policy = getPolicy();
+
+        // the subsampled image long side is at most twice the expected one
+        int sampleSize = 1;
+        while ((longSide / (sampleSize * 2)) >= maxSide) {
+            sampleSize *= 2;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = sampleSize;
+
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+
+        if (null == bitmap) {
+            Log.e(LOG_TAG, "transcode : cannot decode " + path);
+            return unchanged;
+        }
+
+        bitmap = BitmapUtils.scaleToFit(bitmap, maxSide, maxSide);
+
+        // the EXIF orientation is lost by the encoding, so it is applied to the pixels
+        int rotationAngle = ImageUtils.getRotationAngleForBitmap(context, Uri.parse(mediaUrl));
+
+        if (0 != rotationAngle) {
+            android.graphics.Matrix rotation = new android.graphics.Matrix();
+            rotation.postRotate(rotationAngle);
+
+            Bitmap rotatedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotation, true);
+
+            if (rotatedBitmap != bitmap) {
+                bitmap.recycle();
+                bitmap = rotatedBitmap;
+            }
+        }
+
+        // the image is encoded straight to a file of the medias cache, next to the original one
+        String transcodedMimeType = (Bitmap.CompressFormat.JPEG == policy.mFormat) ? "image/jpeg" : "image/webp";
+        File transcodedFile = new File(new File(path).getParentFile(), getUniqueFilename(transcodedMimeType));
+        boolean isEncoded = false;
+        OutputStream outputStream = null;
+
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(transcodedFile));
+            isEncoded = bitmap.compress(policy.mFormat, policy.mQuality, outputStream);
+            outputStream.close();
+            outputStream = null;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "transcode : cannot write " + transcodedFile.getPath() + " " + e.getLocalizedMessage());
+            isEncoded = false;
+        }
+
+        if (null != outputStream) {
+            try {
+                outputStream.close();
+            } catch (Exception e) {
+            }
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        bitmap.recycle();
+
+        long size = transcodedFile.length();
+
+        if (!isEncoded || (size >= originalSize)) {
+            Log.d(LOG_TAG, "transcode : keep " + path + " (" + originalSize + " bytes)");
+            transcodedFile.delete();
+            return unchanged;
+        }
+
+        String transcodedUrl = Uri.fromFile(transcodedFile).toString();
+
+        TRANSCODED_IMAGES_COUNT.inc();
+        TRANSCODING_BYTES_SAVED.add(originalSize - size);
+
+        Log.d(LOG_TAG, "transcode : " + bounds.outWidth + "x" + bounds.outHeight + " -> " + width + "x" + height
+                + " saves " + (originalSize - size) + " bytes in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        return new Result(transcodedUrl, transcodedMimeType, originalSize, size);
+    }
+
+    /**
+     * Build a unique filename in the medias cache.
+     * The images can be transcoded in parallel so the cache default filename (based on the current time) cannot be used.
+     * @param mimeType the mimetype.
+     * @return the filename.
+     */
+    private synchronized String getUniqueFilename(String mimeType) {
+        return "transcoded" + System.currentTimeMillis() + "_" + (mFileIndex++) + ("image/jpeg".equals(mimeType) ? ".jpg" : ".webp");
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Background sink of the application logs.
+ * The logcat output is streamed into size-bounded segment files. The closed segments are gzipped on
+ * a compression thread and the oldest ones are deleted when the retention budget is exceeded.
+ * The most recent lines are also kept in a memory ring buffer.
+ * The files are only created, renamed or deleted under the sink lock, so the listed files are complete.
+ * Everything (including the logs directory creation) is done on the sink threads.
+ */
+public class LogSink {
+    private static final String LOG_TAG = "LogSink";
+
+    private static final String LOGS_DIRECTORY = "logs";
+    private static final String SEGMENT_PREFIX = "logcat-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPRESSED_SEGMENT_SUFFIX = ".log.gz";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // the logs files of the previous versions
+    private static final String[] LEGACY_LOGS_FILES = new String[] {"logcat.0", "logcat.1", "logcat.2", "logcat.3"};
+
+    // default settings
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    public static final int DEFAULT_RETENTION_BUDGET = 2 * 1024 * 1024;
+    public static final int DEFAULT_RING_BUFFER_SIZE = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static LogSink instance = null;
+
+    private int mSegmentSize = DEFAULT_SEGMENT_SIZE;
+    private int mRetentionBudget = DEFAULT_RETENTION_BUDGET;
+    private int mRingBufferSize = DEFAULT_RING_BUFFER_SIZE;
+
+    private Thread mThread = null;
+    private File mLogDirectory = null;
+
+    // the closed segments are compressed in background
+    private Handler mCompressionHandler = null;
+
+    private final Runnable mCompressionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            compressClosedSegments();
+        }
+    };
+
+    // the current segment
+    private FileOutputStream mSegmentOutputStream = null;
+    private BufferedWriter mSegmentWriter = null;
+    private File mSegmentFile = null;
+    private long mSegmentLength = 0;
+    private long mSegmentIndex = 0;
+
+    // the most recent lines
+    private final ArrayDeque<String> mRingBuffer = new ArrayDeque<String>();
+    private int mRingBufferLength = 0;
+
+    public synchronized static LogSink getInstance() {
+        if (null == instance) {
+            instance = new LogSink();
+        }
+        return instance;
+    }
+
+    /**
+     * Update the segment files size.
+     * @param segmentSize the segment size in bytes.
+     */
+    public synchronized void setSegmentSize(int segmentSize) {
+        mSegmentSize = segmentSize;
+    }
+
+    /**
+     * Update the maximum size of the stored segments.
+     * @param retentionBudget the budget in bytes.
+     */
+    public synchronized void setRetentionBudget(int retentionBudget) {
+        mRetentionBudget = retentionBudget;
+    }
+
+    /**
+     * Update the ring buffer size.
+     * @param ringBufferSize the size in characters.
+     */
+    public synchronized void setRingBufferSize(int ringBufferSize) {
+        mRingBufferSize = ringBufferSize;
+    }
+
+    /**
+     * Start the sink thread.
+     * @param context the context.
+     */
+    public synchronized void start(Context context) {
+        if (null != mThread) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File logDirectory = new File(appContext.getCacheDir(), LOGS_DIRECTORY);
+
+                if (!logDirectory.exists()) {
+                    logDirectory.mkdirs();
+                }
+
+                HandlerThread compressionThread = new HandlerThread("LogSinkCompressionThread", Thread.MIN_PRIORITY);
+                compressionThread.start();
+
+                synchronized (LogSink.this) {
+                    mLogDirectory = logDirectory;
+                    mCompressionHandler = new Handler(compressionThread.getLooper());
+                }
+
+                for (String filename : LEGACY_LOGS_FILES) {
+                    new File(logDirectory, filename).delete();
+                }
+
+                mCompressionHandler.post(mCompressionRunnable);
+                streamLogcat();
+
+                synchronized (LogSink.this) {
+                    closeSegment();
+                    mThread = null;
+                }
+            }
+        }, "LogSinkThread");
+
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Stream the logcat output until the process ends.
+     */
+    private void streamLogcat() {
+        // the logcat command follows the logs instead of dumping them
+        ArrayList<String> command = new ArrayList<String>(Arrays.asList(LogUtilities.LOGCAT_CMD_DEBUG));
+        command.remove("-d");
+
+        Process process;
+
+        try {
+            process = Runtime.getRuntime().exec(command.toArray(new String[command.size()]));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "streamLogcat : cannot start logcat " + e.getLocalizedMessage());
+            return;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(process.getInputStream()), BUFFER_SIZE);
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                write(line);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "streamLogcat : " + e.getLocalizedMessage());
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+            process.destroy();
+        }
+    }
+
+    /**
+     * Write a log line in the ring buffer and in the current segment.
+     * @param line the line.
+     */
+    private synchronized void write(String line) {
+        mRingBuffer.addLast(line);
+        mRingBufferLength += line.length() + 1;
+
+        while ((mRingBufferLength > mRingBufferSize) && !mRingBuffer.isEmpty()) {
+            mRingBufferLength -= mRingBuffer.removeFirst().length() + 1;
+        }
+
+        try {
+            if (null == mSegmentWriter) {
+                openSegment();
+            }
+
+            mSegmentWriter.write(line);
+            mSegmentWriter.newLine();
+            mSegmentLength += line.length() + 1;
+
+            if (mSegmentLength >= mSegmentSize) {
+                closeSegment();
+                mCompressionHandler.post(mCompressionRunnable);
+            }
+        } catch (IOException e) {
+            // do not log the error : it would be written in the segment
+            closeSegment();
+        }
+    }
+
+    /**
+     * Open a new segment file.
+     * @throws IOException if the file cannot be created.
+     */
+    private void openSegment() throws IOException {
+        // the segments are named after their creation time so they are sorted by name
+        mSegmentIndex = Math.max(mSegmentIndex + 1, System.currentTimeMillis());
+        mSegmentFile = new File(mLogDirectory, SEGMENT_PREFIX + mSegmentIndex + SEGMENT_SUFFIX);
+        mSegmentOutputStream = new FileOutputStream(mSegmentFile);
+        mSegmentWriter = new BufferedWriter(new OutputStreamWriter(mSegmentOutputStream), BUFFER_SIZE);
+        mSegmentLength = 0;
+    }
+
+    /**
+     * Close the current segment.
+     * The file is closed even if the buffered lines cannot be written.
+     */
+    private void closeSegment() {
+        if (null != mSegmentWriter) {
+            try {
+                mSegmentWriter.close();
+            } catch (IOException e) {
+            }
+
+            try {
+                mSegmentOutputStream.close();
+            } catch (IOException e) {
+            }
+
+            mSegmentWriter = null;
+            mSegmentOutputStream = null;
+            mSegmentFile = null;
+        }
+    }
+
+    /**
+     * Flush the current segment to the filesystem.
+     */
+    public synchronized void flush() {
+        if (null != mSegmentWriter) {
+            try {
+                mSegmentWriter.flush();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * List the segment files, from the oldest to the newest one.
+     * @param directory the logs directory.
+     * @return the segment files.
+     */
+    private static File[] listSegments(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.startsWith(SEGMENT_PREFIX) && !filename.endsWith(TMP_SUFFIX);
+            }
+        });
+
+        if (null == files) {
+            return new File[0];
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+
+        return files;
+    }
+
+    /**
+     * Compress the closed segments and apply the retention budget.
+     * This method is only called from the compression thread, the segments are gzipped outside the sink lock.
+     */
+    private void compressClosedSegments() {
+        File[] segments;
+        File currentSegment;
+
+        synchronized (this) {
+            segments = listSegments(mLogDirectory);
+            currentSegment = mSegmentFile;
+        }
+
+        for (File segment : segments) {
+            // the current segment cannot be closed in the meantime : it was opened after the listing
+            if (segment.getName().endsWith(SEGMENT_SUFFIX) && !segment.equals(currentSegment)) {
+                compress(segment);
+            }
+        }
+
+        // delete the oldest segments
+        synchronized (this) {
+            segments = listSegments(mLogDirectory);
+            currentSegment = mSegmentFile;
+            long totalSize = 0;
+
+            for (int index = segments.length - 1; index >= 0; index--) {
+                totalSize += segments[index].length();
+
+                if ((totalSize > mRetentionBudget) && !segments[index].equals(currentSegment)) {
+                    segments[index].delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gzip a segment file into a temporary file, then replace the segment by it.
+     * @param segment the segment file.
+     */
+    private void compress(File segment) {
+        String path = segment.getPath();
+        String compressedPath = path.substring(0, path.length() - SEGMENT_SUFFIX.length()) + COMPRESSED_SEGMENT_SUFFIX;
+        // a previous compression might have been interrupted
+        File compressedSegment = new File(compressedPath + TMP_SUFFIX);
+
+        FileInputStream inputStream = null;
+        FileOutputStream fileOutputStream = null;
+        boolean isCompressed = false;
+
+        try {
+            inputStream = new FileInputStream(segment);
+            fileOutputStream = new FileOutputStream(compressedSegment);
+            GZIPOutputStream outputStream = new GZIPOutputStream(fileOutputStream, BUFFER_SIZE);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, len);
+            }
+
+            // the gzip trailer is written by close, which reports the write errors (e.g. a full disk)
+            outputStream.close();
+            fileOutputStream = null;
+            isCompressed = true;
+        } catch (IOException e) {
+            // do not log the error : the segment is kept uncompressed
+        } finally {
+            if (null != inputStream) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                }
+            }
+
+            if (null != fileOutputStream) {
+                try {
+                    fileOutputStream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (isCompressed && compressedSegment.renameTo(new File(compressedPath))) {
+                segment.delete();
+            } else {
+                compressedSegment.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the stored log files, from the newest to the oldest one.
+     * The current segment is flushed before.
+     */
+    public synchronized ArrayList<File> getLogsFileList() {
+        flush();
+
+        ArrayList<File> list = new ArrayList<File>();
+
+        if (null != mLogDirectory) {
+            list.addAll(Arrays.asList(listSegments(mLogDirectory)));
+            Collections.reverse(list);
+        }
+
+        return list;
+    }
+
+    /**
+     * @return the most recent log lines.
+     */
+    public synchronized String getRecentLogs() {
+        StringBuilder builder = new StringBuilder(mRingBufferLength);
+
+        for (String line : mRingBuffer) {
+            builder.append(line).append('\n');
+        }
+
+        return builder.toString();
+    }
+}
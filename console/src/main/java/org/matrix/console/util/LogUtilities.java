@@ -16,20 +16,16 @@
 
 package org.matrix.console.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 /** Manages all the logs which are sent to us when a user sends a bug report.
  */
 public class LogUtilities {
 
-    private static File mLogDirectory = null;
-
     public static final String[] LOGCAT_CMD = new String[] { 
              "logcat", ///< Run 'logcat' command
              "-d",  ///< Dump the log rather than continue outputting it
@@ -77,156 +73,35 @@ public class LogUtilities {
 
     private static final int BUFFER_SIZE = 1024;
 
-    private static String getLog(String[] cmd) {
-        Process logcatProc = null;
-        try {
-            logcatProc = Runtime.getRuntime().exec(cmd);
-        }
-        catch (IOException e1) {
-            return "";
-        }
-
-        BufferedReader reader = null;
-        String response = "";
-        try {
-            String separator = System.getProperty("line.separator");
-            StringBuilder sb = new StringBuilder();
-            reader = new BufferedReader(new InputStreamReader(logcatProc.getInputStream()), BUFFER_SIZE);
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-                sb.append(separator);
-            }
-            response = sb.toString();
-        }
-        catch (IOException e) {
-        }
-        finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                }
-                catch (IOException e) {}
-            }
-        }
-        return response;
-    }
-
     /**
-     *
-     * @return the logcat error
+     * Stream a log command output with a fixed size buffer.
+     * @param cmd the log command.
+     * @param outputStream the output stream.
+     * @throws IOException if the command cannot be run or the output cannot be written.
      */
-    public static String getLogCatError() {
-        return getLog(LOGCAT_CMD);
-    }
-
-    public static String getLogCatDebug() {
-        return getLog(LOGCAT_CMD_DEBUG);
-    }
+    public static void writeLog(String[] cmd, OutputStream outputStream) throws IOException {
+        Process logcatProc = Runtime.getRuntime().exec(cmd);
+        InputStream inputStream = logcatProc.getInputStream();
 
-    // general method to store several logs
-
-    public static void setLogDirectory(File logDirectory) {
-        mLogDirectory = logDirectory;
-    }
-
-    private static File ensureLogDirectoryExists() throws IOException {
-        if (mLogDirectory == null) {
-            return null;
-        }
-        if (!mLogDirectory.exists()) {
-            mLogDirectory.mkdirs();
-        }
-        return mLogDirectory;
-    }
-
-    public static void storeLogcat() {
-        LogUtilities.rotateLogs();
-
-        File cacheDirectory;
         try {
-            cacheDirectory = LogUtilities.ensureLogDirectoryExists();
-        }
-        catch (IOException e) {
-            return;
-        }
-
-        File file = new File(cacheDirectory, "logcat.0");
-        FileOutputStream stream = null;
-        try {
-            stream = new FileOutputStream(file);
-            stream.write(LogUtilities.getLogCatDebug().getBytes());
-        }
-        catch (FileNotFoundException e) {
-        }
-        catch (IOException e) {
-        }
-        finally {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, len);
+            }
+        } finally {
             try {
-                stream.close();
+                inputStream.close();
+            } catch (IOException e) {
             }
-            catch (IOException e) {}
+            logcatProc.destroy();
         }
     }
 
+    /**
+     * @return the stored log files, from the newest to the oldest one.
+     */
     public static ArrayList<File> getLogsFileList() {
-        ArrayList<File> list = new ArrayList<File>();
-
-        try {
-            File logDir = LogUtilities.ensureLogDirectoryExists();
-
-            File log1 = new File(logDir, "logcat.0");
-            if (log1.exists()) {
-                list.add(log1);
-            }
-
-            File log2 = new File(logDir, "logcat.1");
-            if (log2.exists()) {
-                list.add(log2);
-            }
-
-            File log3 = new File(logDir, "logcat.2");
-            if (log3.exists()) {
-                list.add(log3);
-            }
-
-            File log4 = new File(logDir, "logcat.3");
-            if (log4.exists()) {
-                list.add(log4);
-            }
-
-        } catch (Exception e) {
-
-        }
-
-        return list;
-    }
-
-    private static void rotateLogs() {
-        try {
-            File logDir = LogUtilities.ensureLogDirectoryExists();
-
-            File log1 = new File(logDir, "logcat.0");
-            File log2 = new File(logDir, "logcat.1");
-            File log3 = new File(logDir, "logcat.2");
-            File log4 = new File(logDir, "logcat.3");
-
-            if (log4.exists()) {
-                log4.delete();
-            }
-
-            if (log3.exists()) {
-                log3.renameTo(log4);
-            }
-
-            if (log2.exists()) {
-                log2.renameTo(log3);
-            }
-
-            if (log1.exists()) {
-                log1.renameTo(log2);
-            }
-        }
-        catch (IOException e) {}
+        return LogSink.getInstance().getLogsFileList();
     }
 }
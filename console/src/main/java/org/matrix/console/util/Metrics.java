@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process metrics registry : counters, gauges and latency histograms.
+ * The metrics are created once (typically in static fields) and then updated from any thread
+ * without lock nor allocation, so they can be used on the hot paths.
+ * The durations are recorded in microseconds, the metric names end with "_us".
+ */
+public class Metrics {
+    private static final String LOG_TAG = "Metrics";
+
+    /**
+     * A monotonic counter.
+     */
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void inc() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * The latest value of a quantity.
+     */
+    public static class Gauge {
+        private volatile long mValue = 0;
+
+        public void set(long value) {
+            mValue = value;
+        }
+
+        public long get() {
+            return mValue;
+        }
+    }
+
+    /**
+     * A log-linear histogram (HDR-like) : every power of 2 range is split in SUB_BUCKETS_COUNT linear buckets,
+     * so the recorded values are kept with a relative precision of 1 / SUB_BUCKETS_COUNT.
+     * The buckets are preallocated, recording a value is allocation free.
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKETS_BITS = 4;
+        private static final int SUB_BUCKETS_COUNT = 1 << SUB_BUCKETS_BITS;
+        private static final int BUCKETS_COUNT = (64 - SUB_BUCKETS_BITS + 1) * SUB_BUCKETS_COUNT;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotal = new AtomicLong();
+        private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Compute the bucket of a value.
+         * @param value the positive value.
+         * @return the bucket index.
+         */
+        private static int getBucketIndex(long value) {
+            if (value < SUB_BUCKETS_COUNT) {
+                return (int) value;
+            }
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKETS_BITS)) & (SUB_BUCKETS_COUNT - 1);
+
+            return (exponent - SUB_BUCKETS_BITS + 1) * SUB_BUCKETS_COUNT + subBucket;
+        }
+
+        /**
+         * Compute the lowest value of a bucket.
+         * @param index the bucket index.
+         * @return the lowest value.
+         */
+        private static long getBucketLowestValue(int index) {
+            if (index < SUB_BUCKETS_COUNT) {
+                return index;
+            }
+
+            int exponent = index / SUB_BUCKETS_COUNT + SUB_BUCKETS_BITS - 1;
+            long subBucket = index % SUB_BUCKETS_COUNT;
+
+            return (SUB_BUCKETS_COUNT + subBucket) << (exponent - SUB_BUCKETS_BITS);
+        }
+
+        /**
+         * Record a value.
+         * @param value the value, the negative values are recorded as 0.
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+
+            mBuckets.incrementAndGet(getBucketIndex(value));
+            mCount.incrementAndGet();
+            mTotal.addAndGet(value);
+
+            long min;
+            while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+            }
+
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            }
+        }
+
+        /**
+         * Record the duration since a timer start.
+         * @param startTime the value returned by {@link Metrics#startTimer()}.
+         */
+        public void recordSince(long startTime) {
+            record((System.nanoTime() - startTime) / 1000);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getTotal() {
+            return mTotal.get();
+        }
+
+        public long getMin() {
+            return (0 == getCount()) ? 0 : mMin.get();
+        }
+
+        public long getMax() {
+            return (0 == getCount()) ? 0 : mMax.get();
+        }
+
+        /**
+         * Retrieve the value below which a percentage of the recorded values fall.
+         * The result is the highest value of the matching bucket, bounded by the recorded maximum.
+         * @param percentile the percentile (0..100).
+         * @return the value, 0 if no value has been recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long count = getCount();
+
+            if (0 == count) {
+                return 0;
+            }
+
+            long threshold = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long cumulated = 0;
+
+            for (int index = 0; index < BUCKETS_COUNT; index++) {
+                cumulated += mBuckets.get(index);
+
+                if (cumulated >= threshold) {
+                    long highestValue = (index + 1 < BUCKETS_COUNT) ? (getBucketLowestValue(index + 1) - 1) : Long.MAX_VALUE;
+                    return Math.min(highestValue, getMax());
+                }
+            }
+
+            return getMax();
+        }
+    }
+
+    private static Metrics instance = null;
+
+    // sorted by name to have a readable dump
+    private final TreeMap<String, Counter> mCounters = new TreeMap<String, Counter>();
+    private final TreeMap<String, Gauge> mGauges = new TreeMap<String, Gauge>();
+    private final TreeMap<String, Histogram> mHistograms = new TreeMap<String, Histogram>();
+
+    private final long mCreationTime = System.currentTimeMillis();
+
+    public synchronized static Metrics getInstance() {
+        if (null == instance) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    /**
+     * @return a timer start value, to give to {@link Histogram#recordSince(long)}.
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Retrieve a counter, it is created if it does not exist.
+     * @param name the counter name.
+     * @return the counter.
+     */
+    public synchronized Counter getCounter(String name) {
+        Counter counter = mCounters.get(name);
+
+        if (null == counter) {
+            counter = new Counter();
+            mCounters.put(name, counter);
+        }
+
+        return counter;
+    }
+
+    /**
+     * Retrieve a gauge, it is created if it does not exist.
+     * @param name the gauge name.
+     * @return the gauge.
+     */
+    public synchronized Gauge getGauge(String name) {
+        Gauge gauge = mGauges.get(name);
+
+        if (null == gauge) {
+            gauge = new Gauge();
+            mGauges.put(name, gauge);
+        }
+
+        return gauge;
+    }
+
+    /**
+     * Retrieve a histogram, it is created if it does not exist.
+     * @param name the histogram name.
+     * @return the histogram.
+     */
+    public synchronized Histogram getHistogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+
+        if (null == histogram) {
+            histogram = new Histogram();
+            mHistograms.put(name, histogram);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Write a text dump of the metrics.
+     * The stream is not closed.
+     * @param outputStream the output stream.
+     * @throws IOException if the dump cannot be written.
+     */
+    public synchronized void writeTo(OutputStream outputStream) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream));
+
+        writer.println("uptime_ms " + (System.currentTimeMillis() - mCreationTime));
+
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            writer.println("counter " + entry.getKey() + " " + entry.getValue().get());
+        }
+
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            writer.println("gauge " + entry.getKey() + " " + entry.getValue().get());
+        }
+
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.getCount();
+
+            writer.println("histogram " + entry.getKey()
+                    + " count=" + count
+                    + " mean=" + ((0 == count) ? 0 : (histogram.getTotal() / count))
+                    + " min=" + histogram.getMin()
+                    + " p50=" + histogram.getValueAtPercentile(50)
+                    + " p90=" + histogram.getValueAtPercentile(90)
+                    + " p99=" + histogram.getValueAtPercentile(99)
+                    + " max=" + histogram.getMax());
+        }
+
+        writer.flush();
+
+        // the print writer does not throw
+        if (writer.checkError()) {
+            throw new IOException("the metrics cannot be written");
+        }
+    }
+
+    /**
+     * Dump the metrics in a file for offline analysis.
+     * @param file the file.
+     * @return true if the file is written.
+     */
+    public boolean dumpToFile(File file) {
+        FileOutputStream outputStream = null;
+        boolean succeeded = false;
+
+        try {
+            outputStream = new FileOutputStream(file);
+            writeTo(outputStream);
+            succeeded = true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "dumpToFile failed " + e.getLocalizedMessage());
+        }
+
+        if (null != outputStream) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                succeeded = false;
+            }
+        }
+
+        return succeeded;
+    }
+}
@@ -15,20 +15,16 @@
  */
 package org.matrix.console.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -44,7 +40,6 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.preference.PreferenceManager;
-import android.provider.MediaStore;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
@@ -55,11 +50,15 @@ import org.matrix.console.ConsoleApplication;
 import org.matrix.console.Matrix;
 import org.matrix.androidsdk.data.MyUser;
 import org.matrix.console.R;
+import org.matrix.console.db.ConsoleContentProvider;
 
 
 public class RageShake implements SensorEventListener {
     private static final String LOG_TAG = "RageShake";
 
+    // the screenshot is downscaled to this maximum side
+    private static final int SCREENSHOT_MAX_SIDE = 1024;
+
     private static RageShake instance;
 
     private Context mContext;
@@ -93,112 +92,108 @@ public class RageShake implements SensorEventListener {
     }
 
     public void sendBugReport() {
+        // the screenshot is taken on the UI thread, it is encoded in background with the logs
+        long captureStartTime = System.currentTimeMillis();
         Bitmap screenShot = this.takeScreenshot();
+        final long captureDuration = System.currentTimeMillis() - captureStartTime;
 
-        if (null != screenShot) {
-            try {
-                // store the file in shared place
-                String path = MediaStore.Images.Media.insertImage(mContext.getContentResolver(), screenShot, "screenshot-" + new Date(), null);
+        // Cannot report a bug, no active activity.
+        if (ConsoleApplication.getCurrentActivity() == null) {
+            return;
+        }
 
-                Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
-                intent.setType("text/html");
-                intent.putExtra(Intent.EXTRA_EMAIL, new String[]{"rageshake@matrix.org"});
-                intent.putExtra(Intent.EXTRA_SUBJECT, "Matrix bug report");
+        try {
+            final Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+            intent.setType("text/html");
+            intent.putExtra(Intent.EXTRA_EMAIL, new String[]{"rageshake@matrix.org"});
+            intent.putExtra(Intent.EXTRA_SUBJECT, "Matrix bug report");
 
-                String message = "Something went wrong on my Matrix client : \n\n\n";
-                message += "-----> my comments <-----\n\n\n";
-                message += "------------------------------\n";
+            String message = "Something went wrong on my Matrix client : \n\n\n";
+            message += "-----> my comments <-----\n\n\n";
+            message += "------------------------------\n";
 
-                message += "Application info\n";
+            message += "Application info\n";
 
-                Collection<MXSession> sessions = Matrix.getMXSessions(mContext);
-                int profileIndex = 1;
+            Collection<MXSession> sessions = Matrix.getInstance(mContext).getSessionsSnapshot();
+            int profileIndex = 1;
 
-                for(MXSession session : sessions) {
-                    message += "Profile " + profileIndex + " :\n";
-                    profileIndex++;
+            for(MXSession session : sessions) {
+                message += "Profile " + profileIndex + " :\n";
+                profileIndex++;
 
-                    MyUser mMyUser = session.getMyUser();
-                    message += "userId : "+ mMyUser.user_id + "\n";
-                    message += "displayname : " + mMyUser.displayname + "\n";
-                    message += "homeServer :" + session.getCredentials().homeServer + "\n";
-                }
-
-                message += "\n";
+                MyUser mMyUser = session.getMyUser();
+                message += "userId : "+ mMyUser.user_id + "\n";
+                message += "displayname : " + mMyUser.displayname + "\n";
+                message += "homeServer :" + session.getCredentials().homeServer + "\n";
+            }
 
-                message += "matrixConsole version: " + Matrix.getInstance(mContext).getVersion(true) + "\n";
-                message += "SDK version:  " + Matrix.getInstance(mContext).getDefaultSession().getVersion(true) + "\n";
+            message += "\n";
 
-                message += "\n\n\n";
+            message += "matrixConsole version: " + Matrix.getInstance(mContext).getVersion(true) + "\n";
+            message += "SDK version:  " + Matrix.getInstance(mContext).getDefaultSession().getVersion(true) + "\n";
 
-                intent.putExtra(Intent.EXTRA_TEXT, message);
+            message += "\n\n\n";
 
-                ArrayList<Uri> attachmentUris = new ArrayList<Uri>();
+            // attachments
+            intent.setType("application/zip");
+            final ArrayList<Uri> attachmentUris = new ArrayList<Uri>();
+            final String fMessage = message;
 
-                // attachments
-                intent.setType("image/jpg");
-                attachmentUris.add(Uri.parse(path));
+            final Activity activity = ConsoleApplication.getCurrentActivity();
+            final ProgressDialog progressDialog = ProgressDialog.show(activity, null, mContext.getString(R.string.bug_report_building), true);
 
-                String errorLog = LogUtilities.getLogCatError();
-                String debugLog = LogUtilities.getLogCatDebug();
+            // the logs are streamed in background into a single zip file
+            File reportFile = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), "bugreport-" + System.currentTimeMillis() + ".zip");
 
-                errorLog += "\n\n\n\n\n\n\n\n\n\n------------------ Debug logs ------------------\n\n\n\n\n\n\n\n";
-                errorLog += debugLog;
+            // the screenshot is kept in the cache, to be attached alone if the report cannot be built
+            final BugReportBuilder builder = new BugReportBuilder(reportFile, ConsoleContentProvider.getBugReportDirectory(mContext));
+            builder.setScreenshot(screenShot);
 
-                try {
+            builder.build(new BugReportBuilder.BugReportListener() {
+                @Override
+                public void onProgress(int percentage) {
+                    progressDialog.setMessage(mContext.getString(R.string.bug_report_building) + " (" + percentage + "%)");
+                }
 
-                    // add the current device logs
-                    {
-                        ByteArrayOutputStream os = new ByteArrayOutputStream();
-                        GZIPOutputStream gzip = new GZIPOutputStream(os);
-                        gzip.write(errorLog.getBytes());
-                        gzip.finish();
+                @Override
+                public void onReportBuilt(File reportFile) {
+                    attachmentUris.add(Uri.fromFile(reportFile));
+                    sendReport();
+                }
 
-                        File debugLogFile = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), "logs-" + new Date() + ".gz");
-                        FileOutputStream fos = new FileOutputStream(debugLogFile);
-                        os.writeTo(fos);
-                        os.flush();
-                        os.close();
+                @Override
+                public void onReportFailed(File screenshotFile) {
+                    // send the description and the screenshot anyway
+                    Uri screenshotUri = (null != screenshotFile) ? ConsoleContentProvider.absolutePathToUri(mContext, screenshotFile.getAbsolutePath()) : null;
 
-                        attachmentUris.add(Uri.fromFile(debugLogFile));
+                    if (null != screenshotUri) {
+                        attachmentUris.add(screenshotUri);
                     }
+                    sendReport();
+                }
 
-                    // add the stored logs
-                    ArrayList<File> logsList = LogUtilities.getLogsFileList();
-
-                    long marker = System.currentTimeMillis();
+                private void sendReport() {
+                    try {
+                        progressDialog.dismiss();
+                    } catch (Exception e) {
+                        // the activity might have been destroyed
+                    }
 
-                    for(File file : logsList) {
-                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                        GZIPOutputStream glogzip = new GZIPOutputStream(bos);
+                    // the screenshot timings help to spot the slow devices
+                    String screenshotInfo = "Screenshot : capture " + captureDuration + " ms, encoding " + builder.getScreenshotEncodingDuration() + " ms (" + builder.getScreenshotSize() + " bytes)\n";
+                    intent.putExtra(Intent.EXTRA_TEXT, fMessage + screenshotInfo);
 
-                        FileInputStream inputStream = new FileInputStream(file);
+                    intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, attachmentUris);
 
-                        byte[] buffer = new byte[1024 * 10];
-                        int len;
-                        while ((len = inputStream.read(buffer)) != -1) {
-                            glogzip.write(buffer, 0, len);
-                        }
-                        glogzip.finish();
+                    Activity currentActivity = ConsoleApplication.getCurrentActivity();
 
-                        File storedLogFile = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), marker + "-" + file.getName() + ".gz");
-                        FileOutputStream flogOs = new FileOutputStream(storedLogFile);
-                        bos.writeTo(flogOs);
-                        flogOs.flush();
-                        flogOs.close();
-
-                        attachmentUris.add(Uri.fromFile(storedLogFile));
+                    if (null != currentActivity) {
+                        currentActivity.startActivity(intent);
                     }
                 }
-                catch (IOException e) {
-                    Log.e(LOG_TAG, "" + e);
-                }
-
-                intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, attachmentUris);
-
-                ConsoleApplication.getCurrentActivity().startActivity(intent);
-            } catch (Exception e) {
-            }
+            });
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "sendBugReport failed " + e.getLocalizedMessage());
         }
     }
 
@@ -241,6 +236,12 @@ public class RageShake implements SensorEventListener {
 
     }
 
+    /**
+     * Take a downscaled screenshot of the current activity and of its displayed dialogs.
+     * The views are directly drawn at the screenshot scale, so no full size bitmap is allocated.
+     * This method must be called from the UI thread.
+     * @return the screenshot, null if it cannot be taken.
+     */
     private Bitmap takeScreenshot() {
         if (ConsoleApplication.getCurrentActivity() == null) {
             return null;
@@ -259,13 +260,23 @@ public class RageShake implements SensorEventListener {
             Log.e(LOG_TAG, "Cannot find root view on " + ConsoleApplication.getCurrentActivity() + ". Cannot take screenshot.");
             return null;
         }
-        // refresh it
-        rootView.setDrawingCacheEnabled(false);
-        rootView.setDrawingCacheEnabled(true);
-        
+
+        int screenWidth = rootView.getWidth();
+        int screenHeight = rootView.getHeight();
+
+        if ((0 == screenWidth) || (0 == screenHeight)) {
+            Log.e(LOG_TAG, "The root view is not laid out. Cannot take screenshot.");
+            return null;
+        }
+
+        float scale = Math.min(1.0f, (float) SCREENSHOT_MAX_SIDE / Math.max(screenWidth, screenHeight));
+
         try {
-            Bitmap baseScreen = rootView.getDrawingCache();
-            
+            Bitmap screenshot = Bitmap.createBitmap(Math.max(1, (int) (screenWidth * scale)), Math.max(1, (int) (screenHeight * scale)), Bitmap.Config.RGB_565);
+            Canvas c = new Canvas(screenshot);
+            c.scale(scale, scale);
+            rootView.draw(c);
+
             // loop the dialogs and prune old/not visible ones
             List<Dialog> onScreenDialogs = new ArrayList<Dialog>();
             for (int i=0; i<mDialogs.size(); i++) {
@@ -279,58 +290,46 @@ public class RageShake implements SensorEventListener {
                 }
                 onScreenDialogs.add(d);
             }
-        
-            if (onScreenDialogs.size() == 0) {
-                Log.d(LOG_TAG, "No on screen dialogs.");
-                return baseScreen;
-            }
-            else {
-                // use a canvas to draw on top of the base screen.
-                Canvas c = new Canvas(baseScreen);
-                for (Dialog d : onScreenDialogs) {
-                    if (d.getWindow() != null && d.getWindow().getAttributes() != null) {
-                        View dialogView = d.getWindow().peekDecorView();
-                        Bitmap dialogBitmap = null;
-                        // get the dialog bitmap
-                        if (dialogView != null) {
-                            dialogView.setDrawingCacheEnabled(false);
-                            dialogView.setDrawingCacheEnabled(true);
-                            dialogBitmap = dialogView.getDrawingCache();
-                        }
-                        if (dialogBitmap == null) {
-                            Log.w(LOG_TAG, "Cannot get dialog bitmap.");
-                            continue;
-                        }
-                        
-                        // draw it to the canvas in the right place
-                        WindowManager.LayoutParams params = d.getWindow().getAttributes();
-                        int x = params.x;
-                        int y = params.y;
-                        int w = dialogView.getWidth();
-                        int h = dialogView.getHeight();
-                        int gravity = params.gravity;
-                        Log.d(LOG_TAG, "Dialog x "+x+" y "+y+" w "+w+" h "+h+" gravity "+gravity);
-                        if (x == 0 && y == 0 && w < baseScreen.getWidth() && h < baseScreen.getHeight()) {
-                            switch (gravity) {
-                            case Gravity.CENTER:
-                                // mid-point - 1/2
-                                x = baseScreen.getWidth()/2 - (w/2);
-                                y = baseScreen.getHeight()/2 - (h/2);
-                                break;
-                            default:
-                                Log.w(LOG_TAG, "Unhandled gravity: "+gravity);
-                                break;
-                            }
+
+            for (Dialog d : onScreenDialogs) {
+                if (d.getWindow() != null && d.getWindow().getAttributes() != null) {
+                    View dialogView = d.getWindow().peekDecorView();
+
+                    if (dialogView == null) {
+                        Log.w(LOG_TAG, "Cannot get dialog view.");
+                        continue;
+                    }
+
+                    // draw it to the canvas in the right place
+                    WindowManager.LayoutParams params = d.getWindow().getAttributes();
+                    int x = params.x;
+                    int y = params.y;
+                    int w = dialogView.getWidth();
+                    int h = dialogView.getHeight();
+                    int gravity = params.gravity;
+                    Log.d(LOG_TAG, "Dialog x "+x+" y "+y+" w "+w+" h "+h+" gravity "+gravity);
+                    if (x == 0 && y == 0 && w < screenWidth && h < screenHeight) {
+                        switch (gravity) {
+                        case Gravity.CENTER:
+                            // mid-point - 1/2
+                            x = screenWidth/2 - (w/2);
+                            y = screenHeight/2 - (h/2);
+                            break;
+                        default:
+                            Log.w(LOG_TAG, "Unhandled gravity: "+gravity);
+                            break;
                         }
-                        c.drawBitmap(dialogBitmap, x, y, null);
-                        Log.d(LOG_TAG, "Drew a dialog to the canvas");
                     }
+
+                    c.save();
+                    c.translate(x, y);
+                    dialogView.draw(c);
+                    c.restore();
+                    Log.d(LOG_TAG, "Drew a dialog to the canvas");
                 }
-                return baseScreen;
             }
-        }
-        catch (OutOfMemoryError oom) {
-            Log.e(LOG_TAG, "Cannot get drawing cache for "+ ConsoleApplication.getCurrentActivity() +" OOM.");
+
+            return screenshot;
         }
         catch (Exception e) {
             Log.e(LOG_TAG, "Cannot get snapshot of screen: "+e);
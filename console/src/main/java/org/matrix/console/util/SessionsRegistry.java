@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Registry of per session items (the sessions themselves, their managers...), indexed by the session user id.
+ * The registry is copy-on-write : the updates are serialized and publish an immutable state,
+ * so the lookups and the iterations are lock free and never see a partial update.
+ * The items are listed in their insertion order.
+ * There are only a few sessions, so copying the state at each update is cheap.
+ * @param <T> the item type.
+ */
+public class SessionsRegistry<T> {
+
+    /**
+     * An immutable state of the registry.
+     */
+    private static class State<T> {
+        final LinkedHashMap<String, T> mItemsByUserId;
+        final List<T> mItems;
+
+        State(LinkedHashMap<String, T> itemsByUserId) {
+            mItemsByUserId = itemsByUserId;
+            mItems = Collections.unmodifiableList(new ArrayList<T>(itemsByUserId.values()));
+        }
+    }
+
+    private volatile State<T> mState = new State<T>(new LinkedHashMap<String, T>());
+
+    /**
+     * Retrieve the user id of a session.
+     * @param session the session.
+     * @return the user id, null if the session has no credentials.
+     */
+    public static String getUserId(MXSession session) {
+        Credentials credentials = (null == session) ? null : session.getCredentials();
+        return (null == credentials) ? null : credentials.userId;
+    }
+
+    /**
+     * Retrieve the item of a user.
+     * @param userId the user id.
+     * @return the item, null if there is none.
+     */
+    public T get(String userId) {
+        return (null == userId) ? null : mState.mItemsByUserId.get(userId);
+    }
+
+    /**
+     * @return the immutable list of the items, which is not updated by the next registry updates.
+     */
+    public List<T> getSnapshot() {
+        return mState.mItems;
+    }
+
+    /**
+     * @return the number of items.
+     */
+    public int size() {
+        return mState.mItems.size();
+    }
+
+    /**
+     * Set the item of a user.
+     * A replaced item keeps its position, the caller must release it.
+     * @param userId the user id.
+     * @param item the item.
+     * @return the replaced item, null if there was none.
+     */
+    public synchronized T put(String userId, T item) {
+        if ((null == userId) || (null == item)) {
+            return null;
+        }
+
+        LinkedHashMap<String, T> itemsByUserId = new LinkedHashMap<String, T>(mState.mItemsByUserId);
+        T replacedItem = itemsByUserId.put(userId, item);
+        mState = new State<T>(itemsByUserId);
+
+        return replacedItem;
+    }
+
+    /**
+     * Remove the item of a user, only if it is the expected one.
+     * @param userId the user id.
+     * @param item the expected item.
+     * @return true if the item has been removed.
+     */
+    public synchronized boolean remove(String userId, T item) {
+        if ((null == item) || (item != get(userId))) {
+            return false;
+        }
+
+        LinkedHashMap<String, T> itemsByUserId = new LinkedHashMap<String, T>(mState.mItemsByUserId);
+        itemsByUserId.remove(userId);
+        mState = new State<T>(itemsByUserId);
+
+        return true;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.util;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Record the named spans of the application startup phases.
+ * The spans can be exported in the Chrome trace JSON format (chrome://tracing or Perfetto).
+ * The recording stops when the startup is completed, or when MAX_SPANS_COUNT spans have been recorded.
+ */
+public class StartupTracer {
+    private static final String LOG_TAG = "StartupTracer";
+
+    private static final int MAX_SPANS_COUNT = 512;
+
+    /**
+     * A startup phase.
+     */
+    public static class Span {
+        final String mName;
+        // the session user id, null if the phase is not related to a session
+        final String mSessionId;
+        final long mThreadId;
+        final String mThreadName;
+        final long mStartTime;
+        long mEndTime = -1;
+
+        Span(String name, String sessionId, long startTime) {
+            mName = name;
+            mSessionId = sessionId;
+            mThreadId = Thread.currentThread().getId();
+            mThreadName = Thread.currentThread().getName();
+            mStartTime = startTime;
+        }
+    }
+
+    private static StartupTracer instance = null;
+
+    // the trace time origin : the process start when it is known, else the first use of the class
+    // the application class uses the tracer in its static initializer, so it is before Application.onCreate
+    private final long mOriginTime = getProcessStartTime();
+
+    private final ArrayList<Span> mSpans = new ArrayList<Span>();
+    private boolean mIsStartupCompleted = false;
+    private long mStartupDuration = -1;
+
+    /**
+     * @return the process start time in the elapsed realtime clock, in nanoseconds.
+     */
+    private static long getProcessStartTime() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime() * 1000000L;
+        }
+
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public synchronized static StartupTracer getInstance() {
+        if (null == instance) {
+            instance = new StartupTracer();
+        }
+        return instance;
+    }
+
+    /**
+     * Start a phase.
+     * @param name the phase name.
+     * @return the span to give to {@link #end(Span)}, null if the recording is stopped.
+     */
+    public Span begin(String name) {
+        return begin(name, null);
+    }
+
+    /**
+     * Start a session phase.
+     * @param name the phase name.
+     * @param sessionId the session user id.
+     * @return the span to give to {@link #end(Span)}, null if the recording is stopped.
+     */
+    public synchronized Span begin(String name, String sessionId) {
+        if (mIsStartupCompleted || (mSpans.size() >= MAX_SPANS_COUNT)) {
+            return null;
+        }
+
+        Span span = new Span(name, sessionId, SystemClock.elapsedRealtimeNanos());
+        mSpans.add(span);
+        return span;
+    }
+
+    /**
+     * End a phase.
+     * A phase can be ended from another thread than the one which started it.
+     * @param span the span returned by begin (can be null).
+     */
+    public synchronized void end(Span span) {
+        if ((null != span) && (span.mEndTime < 0)) {
+            span.mEndTime = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    /**
+     * Stop the recording : the application is ready to be used.
+     */
+    public synchronized void onStartupCompleted() {
+        if (!mIsStartupCompleted) {
+            mIsStartupCompleted = true;
+            mStartupDuration = (SystemClock.elapsedRealtimeNanos() - mOriginTime) / 1000000;
+            Log.d(LOG_TAG, "onStartupCompleted : " + mStartupDuration + " ms, " + mSpans.size() + " spans");
+        }
+    }
+
+    /**
+     * @return the startup duration in milliseconds, -1 if the startup is not completed.
+     */
+    public synchronized long getStartupDuration() {
+        return mStartupDuration;
+    }
+
+    /**
+     * Build the Chrome trace description of the recorded spans.
+     * The phases which are not yet ended are closed at the current time and flagged as unfinished.
+     * @return the trace description.
+     * @throws JSONException if the description cannot be built.
+     */
+    private synchronized JSONObject toTraceJson() throws JSONException {
+        JSONArray events = new JSONArray();
+        HashMap<Long, String> threadNames = new HashMap<Long, String>();
+        int pid = Process.myPid();
+        long now = SystemClock.elapsedRealtimeNanos();
+
+        for (Span span : mSpans) {
+            JSONObject event = new JSONObject();
+            event.put("name", span.mName);
+            event.put("cat", "startup");
+            event.put("ph", "X");
+            event.put("pid", pid);
+            event.put("tid", span.mThreadId);
+            // the trace timestamps are in microseconds
+            event.put("ts", (span.mStartTime - mOriginTime) / 1000);
+            event.put("dur", (((span.mEndTime < 0) ? now : span.mEndTime) - span.mStartTime) / 1000);
+
+            JSONObject args = new JSONObject();
+
+            if (null != span.mSessionId) {
+                args.put("session", span.mSessionId);
+            }
+
+            if (span.mEndTime < 0) {
+                args.put("unfinished", true);
+            }
+
+            if (args.length() > 0) {
+                event.put("args", args);
+            }
+
+            events.put(event);
+            threadNames.put(span.mThreadId, span.mThreadName);
+        }
+
+        // name the threads in the trace viewer
+        for (Long threadId : threadNames.keySet()) {
+            JSONObject event = new JSONObject();
+            event.put("name", "thread_name");
+            event.put("ph", "M");
+            event.put("pid", pid);
+            event.put("tid", threadId);
+
+            JSONObject args = new JSONObject();
+            args.put("name", threadNames.get(threadId));
+            event.put("args", args);
+
+            events.put(event);
+        }
+
+        JSONObject trace = new JSONObject();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+
+        return trace;
+    }
+
+    /**
+     * Write the Chrome trace JSON.
+     * The stream is not closed.
+     * @param outputStream the output stream.
+     * @throws IOException if the trace cannot be written.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        String trace;
+
+        try {
+            trace = toTraceJson().toString();
+        } catch (JSONException e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        writer.write(trace);
+        writer.flush();
+    }
+
+    /**
+     * Write the Chrome trace JSON in a file.
+     * @param file the file.
+     * @return true if the file is written.
+     */
+    public boolean dumpToFile(File file) {
+        FileOutputStream outputStream = null;
+        boolean succeeded = false;
+
+        try {
+            outputStream = new FileOutputStream(file);
+            writeTo(outputStream);
+            succeeded = true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "dumpToFile failed " + e.getLocalizedMessage());
+        }
+
+        if (null != outputStream) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                succeeded = false;
+            }
+        }
+
+        return succeeded;
+    }
+}
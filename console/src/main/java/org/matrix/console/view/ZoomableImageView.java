@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.console.view;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.widget.ImageView;
+
+/**
+ * An ImageView which fits its image in the view and supports pinch to zoom, panning and double tap.
+ * A zoomed image reports that it can scroll horizontally while it can still pan in that direction,
+ * and the parent is not allowed to intercept the touch events during a pinch or such a pan,
+ * so a zoomed image can be panned inside a ViewPager which swipes once the image border is reached.
+ */
+public class ZoomableImageView extends ImageView {
+
+    private static final float MAX_ZOOM = 4.0f;
+    private static final float DOUBLE_TAP_ZOOM = 2.0f;
+
+    private final Matrix mImageMatrix = new Matrix();
+    private final RectF mImageRect = new RectF();
+
+    // the zoom relatively to the fit in view scale
+    private float mZoom = 1.0f;
+
+    // the latest touch X coordinate, to find the pan direction
+    private float mLastTouchX = 0;
+
+    private ScaleGestureDetector mScaleGestureDetector;
+    private GestureDetector mGestureDetector;
+
+    public ZoomableImageView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public ZoomableImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    private void init(Context context) {
+        setScaleType(ScaleType.MATRIX);
+
+        mScaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                float zoom = Math.max(1.0f, Math.min(MAX_ZOOM, mZoom * detector.getScaleFactor()));
+                zoomTo(zoom, detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (isZoomed()) {
+                    mImageMatrix.postTranslate(-distanceX, -distanceY);
+                    applyMatrix();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                return performClick();
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                if (isZoomed()) {
+                    resetZoom();
+                } else {
+                    zoomTo(DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return true if the image is zoomed.
+     */
+    public boolean isZoomed() {
+        return mZoom > 1.0f;
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        resetZoom();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetZoom();
+    }
+
+    /**
+     * Fit and center the image in the view.
+     */
+    public void resetZoom() {
+        Drawable drawable = getDrawable();
+        int width = getWidth();
+        int height = getHeight();
+
+        mZoom = 1.0f;
+
+        // the init is not yet completed
+        if ((null == mImageMatrix) || (null == drawable) || (drawable.getIntrinsicWidth() <= 0) || (drawable.getIntrinsicHeight() <= 0) || (0 == width) || (0 == height)) {
+            return;
+        }
+
+        float scale = Math.min((float) width / drawable.getIntrinsicWidth(), (float) height / drawable.getIntrinsicHeight());
+
+        mImageMatrix.setScale(scale, scale);
+        mImageMatrix.postTranslate((width - drawable.getIntrinsicWidth() * scale) / 2, (height - drawable.getIntrinsicHeight() * scale) / 2);
+        applyMatrix();
+    }
+
+    /**
+     * Zoom around a point.
+     * @param zoom the zoom relatively to the fit in view scale.
+     * @param focusX the focus X coordinate.
+     * @param focusY the focus Y coordinate.
+     */
+    private void zoomTo(float zoom, float focusX, float focusY) {
+        float factor = zoom / mZoom;
+        mZoom = zoom;
+        mImageMatrix.postScale(factor, factor, focusX, focusY);
+        applyMatrix();
+    }
+
+    /**
+     * Keep the image inside the view (or centered when it is smaller) and apply the matrix.
+     */
+    private void applyMatrix() {
+        Drawable drawable = getDrawable();
+
+        if (null != drawable) {
+            mImageRect.set(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+            mImageMatrix.mapRect(mImageRect);
+
+            float dx = getTranslationToFit(mImageRect.left, mImageRect.right, getWidth());
+            float dy = getTranslationToFit(mImageRect.top, mImageRect.bottom, getHeight());
+            mImageMatrix.postTranslate(dx, dy);
+            mImageRect.offset(dx, dy);
+        }
+
+        setImageMatrix(mImageMatrix);
+    }
+
+    /**
+     * Compute the translation which keeps an image side inside the view.
+     * @param start the image start coordinate.
+     * @param end the image end coordinate.
+     * @param viewSize the view size.
+     * @return the translation.
+     */
+    private static float getTranslationToFit(float start, float end, int viewSize) {
+        float size = end - start;
+
+        if (size <= viewSize) {
+            return (viewSize - size) / 2 - start;
+        } else if (start > 0) {
+            return -start;
+        } else if (end < viewSize) {
+            return viewSize - end;
+        }
+
+        return 0;
+    }
+
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        if (!isZoomed() || (null == getDrawable())) {
+            return false;
+        }
+
+        // keep a half pixel tolerance for the rounding errors
+        if (direction < 0) {
+            return mImageRect.left < -0.5f;
+        } else {
+            return mImageRect.right > (getWidth() + 0.5f);
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        mScaleGestureDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+
+        boolean disallowIntercept = mScaleGestureDetector.isInProgress();
+
+        // the pager can swipe once the image border is reached
+        if (MotionEvent.ACTION_MOVE == event.getActionMasked()) {
+            float dx = event.getX() - mLastTouchX;
+
+            if (0 != dx) {
+                disallowIntercept |= canScrollHorizontally((dx > 0) ? -1 : 1);
+            }
+        }
+
+        mLastTouchX = event.getX();
+
+        if (null != getParent()) {
+            getParent().requestDisallowInterceptTouchEvent(disallowIntercept);
+        }
+
+        return true;
+    }
+}
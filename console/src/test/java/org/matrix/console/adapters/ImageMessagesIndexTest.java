@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.matrix.androidsdk.adapters.MessageRow;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.console.util.SlidableImageInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageMessagesIndexTest {
+
+    private static final int ROWS_COUNT = 10000;
+
+    private ImageMessagesIndex mIndex;
+
+    // the indexed rows, in the display order
+    private List<MessageRow> mExpectedRows;
+
+    // the image rows, in the display order
+    private List<MessageRow> mImageRows;
+
+    /**
+     * Build a message row.
+     * @param index the row index.
+     * @param msgType the message type.
+     * @return the row.
+     */
+    private static MessageRow buildRow(int index, String msgType) {
+        JsonObject content = new JsonObject();
+        content.addProperty("msgtype", msgType);
+        content.addProperty("body", "message " + index);
+
+        if (Message.MSGTYPE_IMAGE.equals(msgType)) {
+            content.addProperty("url", "mxc://matrix.org/image" + index);
+        }
+
+        Event event = new Event();
+        event.eventId = "$event" + index;
+        event.content = content;
+
+        return new MessageRow(event, null);
+    }
+
+    @Before
+    public void setUp() {
+        mIndex = new ImageMessagesIndex();
+        mExpectedRows = new ArrayList<MessageRow>();
+        mImageRows = new ArrayList<MessageRow>();
+
+        // the live events are added to the back, the back paginated ones to the front
+        for (int i = 0; i < ROWS_COUNT; i++) {
+            MessageRow row = buildRow(i, (0 == (i % 3)) ? Message.MSGTYPE_IMAGE : Message.MSGTYPE_TEXT);
+            boolean isImage = ImageMessagesIndex.isImageRow(row);
+
+            if (0 == (i % 2)) {
+                mIndex.add(row);
+
+                if (isImage) {
+                    mImageRows.add(row);
+                }
+            } else {
+                mIndex.addToFront(row);
+
+                if (isImage) {
+                    mImageRows.add(0, row);
+                }
+            }
+        }
+
+        mExpectedRows.addAll(mImageRows);
+    }
+
+    /**
+     * Check the index content and the positions of its rows.
+     */
+    private void checkIndex() {
+        assertEquals(mExpectedRows.size(), mIndex.size());
+        assertEquals(mExpectedRows, mIndex.getRows());
+
+        for (int position = 0; position < mExpectedRows.size(); position++) {
+            assertEquals(position, mIndex.indexOf(mExpectedRows.get(position)));
+        }
+    }
+
+    @Test
+    public void onlyImagesAreIndexed() {
+        assertEquals((ROWS_COUNT + 2) / 3, mIndex.size());
+        checkIndex();
+    }
+
+    @Test
+    public void removedRowsKeepTheOrder() {
+        Random random = new Random(42);
+
+        // remove rows at random positions, on both sides
+        for (int i = 0; i < 500; i++) {
+            MessageRow row = mExpectedRows.remove(random.nextInt(mExpectedRows.size()));
+            mIndex.remove(row);
+            assertEquals(-1, mIndex.indexOf(row));
+        }
+
+        // the ends
+        MessageRow firstRow = mExpectedRows.remove(0);
+        mIndex.remove(firstRow);
+        mIndex.remove(mExpectedRows.remove(mExpectedRows.size() - 1));
+
+        checkIndex();
+
+        // a removed row can be added again
+        mIndex.addToFront(firstRow);
+        mExpectedRows.add(0, firstRow);
+
+        checkIndex();
+    }
+
+    @Test
+    public void imageInfosAreListed() {
+        MessageRow selectedRow = mImageRows.get(mImageRows.size() / 2);
+        ArrayList<SlidableImageInfo> infos = new ArrayList<SlidableImageInfo>();
+
+        int selectedPosition = mIndex.fillImageInfos(selectedRow, infos);
+
+        assertEquals(mImageRows.size(), infos.size());
+        assertEquals(mImageRows.size() / 2, selectedPosition);
+        assertEquals(selectedRow.getEvent().eventId, infos.get(selectedPosition).midentifier);
+    }
+
+    @Test
+    public void localEchoReplacementKeepsTheIndex() {
+        int replacementsCount = 10000;
+
+        // a local echo is appended then replaced by the sent event
+        for (int i = 0; i < replacementsCount; i++) {
+            MessageRow echoRow = buildRow(ROWS_COUNT + i, Message.MSGTYPE_IMAGE);
+            mIndex.add(echoRow);
+            assertEquals(mExpectedRows.size(), mIndex.indexOf(echoRow));
+
+            mIndex.remove(echoRow);
+            assertEquals(-1, mIndex.indexOf(echoRow));
+        }
+
+        checkIndex();
+    }
+}
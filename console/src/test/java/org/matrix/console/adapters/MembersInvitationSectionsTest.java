@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.matrix.androidsdk.rest.model.RoomMember;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MembersInvitationSectionsTest {
+
+    private static final int USERS_COUNT = 20000;
+    private static final int MEMBERSHIPS_COUNT = 50000;
+
+    // the room members, 50000 memberships in rooms of 1 to 200 members
+    private List<List<RoomMember>> mRooms;
+
+    // the displayed list, updated by the listener
+    private final List<RoomMember> mDisplayedMembers = new ArrayList<RoomMember>();
+    private int mResetsCount = 0;
+
+    private final MembersInvitationSections.Listener mListener = new MembersInvitationSections.Listener() {
+        @Override
+        public void onRemoved(int position) {
+            mDisplayedMembers.remove(position);
+        }
+
+        @Override
+        public void onInserted(RoomMember member, int position) {
+            mDisplayedMembers.add(position, member);
+        }
+
+        @Override
+        public void onReset(List<RoomMember> members) {
+            mDisplayedMembers.clear();
+            mDisplayedMembers.addAll(members);
+            mResetsCount++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        mRooms = new ArrayList<List<RoomMember>>();
+        int membershipsCount = 0;
+
+        while (membershipsCount < MEMBERSHIPS_COUNT) {
+            // mostly small rooms
+            int roomSize = (0 == random.nextInt(10)) ? (11 + random.nextInt(190)) : (1 + random.nextInt(10));
+            ArrayList<RoomMember> members = new ArrayList<RoomMember>();
+
+            for (int i = 0; i < roomSize; i++) {
+                int userIndex = random.nextInt(USERS_COUNT);
+
+                RoomMember member = new RoomMember();
+                member.setUserId("@user" + userIndex + ":matrix.org");
+                member.displayname = (0 == (userIndex % 5)) ? null : ("User " + userIndex);
+                member.membership = (0 == random.nextInt(20)) ? RoomMember.MEMBERSHIP_LEAVE : RoomMember.MEMBERSHIP_JOIN;
+                members.add(member);
+            }
+
+            mRooms.add(members);
+            membershipsCount += roomSize;
+        }
+    }
+
+    /**
+     * Sort candidates by section then by name, as the whole list was sorted before each publication.
+     * @param candidates the candidates.
+     * @return the user ids of the sorted candidates.
+     */
+    private static List<String> sortCandidates(Collection<MembersInvitationAggregator.Update> candidates) {
+        ArrayList<MembersInvitationAggregator.Update> sortedCandidates = new ArrayList<MembersInvitationAggregator.Update>(candidates);
+        Collections.sort(sortedCandidates);
+
+        ArrayList<String> userIds = new ArrayList<String>();
+
+        for (int section = 0; section < MembersInvitationAggregator.SECTIONS_COUNT; section++) {
+            for (MembersInvitationAggregator.Update candidate : sortedCandidates) {
+                if (candidate.mSection == section) {
+                    userIds.add(candidate.mUserId);
+                }
+            }
+        }
+
+        return userIds;
+    }
+
+    /**
+     * Build the expected list with an aggregation in one pass.
+     * @param roomsCount the number of aggregated rooms.
+     * @return the expected user ids.
+     */
+    private List<String> getExpectedUserIds(int roomsCount) {
+        MembersInvitationAggregator aggregator = new MembersInvitationAggregator(new ArrayList<String>());
+
+        for (int index = 0; index < roomsCount; index++) {
+            aggregator.addRoom(mRooms.get(index));
+        }
+
+        return sortCandidates(aggregator.takeUpdates());
+    }
+
+    /**
+     * @param members the members.
+     * @return their user ids.
+     */
+    private static List<String> getUserIds(List<RoomMember> members) {
+        ArrayList<String> userIds = new ArrayList<String>();
+
+        for (RoomMember member : members) {
+            userIds.add(member.getUserId());
+        }
+
+        return userIds;
+    }
+
+    @Test
+    public void displayedListMatchesTheSortedCandidates() {
+        MembersInvitationAggregator aggregator = new MembersInvitationAggregator(new ArrayList<String>());
+        MembersInvitationSections sections = new MembersInvitationSections();
+        int roomsCount = 300;
+
+        // a publication every 10 rooms
+        for (int index = 0; index < roomsCount; index++) {
+            aggregator.addRoom(mRooms.get(index));
+
+            if (0 == (index % 10)) {
+                sections.apply(aggregator.takeUpdates(), mListener);
+                assertEquals(getUserIds(sections.getMembers()), getUserIds(mDisplayedMembers));
+            }
+        }
+
+        sections.apply(aggregator.takeUpdates(), mListener);
+
+        assertEquals(getExpectedUserIds(roomsCount), getUserIds(mDisplayedMembers));
+        assertEquals(aggregator.size(), sections.size());
+    }
+
+    @Test
+    public void ignoredUsersAreNotCandidates() {
+        ArrayList<String> ignoredUserIds = new ArrayList<String>();
+
+        for (RoomMember member : mRooms.get(0)) {
+            ignoredUserIds.add(member.getUserId());
+        }
+
+        MembersInvitationAggregator aggregator = new MembersInvitationAggregator(ignoredUserIds);
+        MembersInvitationSections sections = new MembersInvitationSections();
+
+        for (List<RoomMember> members : mRooms) {
+            aggregator.addRoom(members);
+        }
+
+        sections.apply(aggregator.takeUpdates(), mListener);
+
+        for (RoomMember member : mDisplayedMembers) {
+            assertTrue(!ignoredUserIds.contains(member.getUserId()));
+            assertEquals(RoomMember.MEMBERSHIP_JOIN, member.membership);
+        }
+    }
+
+    @Test
+    public void publicationsOnlyApplyTheDelta() {
+        MembersInvitationAggregator aggregator = new MembersInvitationAggregator(new ArrayList<String>());
+        MembersInvitationSections sections = new MembersInvitationSections();
+
+        // the rooms aggregated between two publications
+        int roomsPerPublication = 20;
+        int publicationsCount = 0;
+        HashMap<String, MembersInvitationAggregator.Update> candidatesByUserId = new HashMap<String, MembersInvitationAggregator.Update>();
+
+        for (int index = 0; index < mRooms.size(); index++) {
+            aggregator.addRoom(mRooms.get(index));
+
+            if ((0 == ((index + 1) % roomsPerPublication)) || (index == (mRooms.size() - 1))) {
+                List<MembersInvitationAggregator.Update> updates = aggregator.takeUpdates();
+
+                sections.apply(updates, mListener);
+
+                // the previous publication : sort every candidate and rebuild the list
+                for (MembersInvitationAggregator.Update update : updates) {
+                    candidatesByUserId.put(update.mUserId, update);
+                }
+
+                List<String> sortedUserIds = sortCandidates(candidatesByUserId.values());
+
+                assertEquals(sortedUserIds, getUserIds(mDisplayedMembers));
+                publicationsCount++;
+            }
+        }
+
+        // most publications are applied without rebuilding the list
+        assertTrue(mResetsCount < publicationsCount);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.adapters;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoomMembersOrderTest {
+
+    private static final int MEMBERS_COUNT = 5000;
+
+    private final HashMap<String, String> mNamesByUserId = new HashMap<String, String>();
+    private int mNameRequestsCount = 0;
+
+    private RoomMembersOrder mOrder;
+    private List<RoomMember> mMembers;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        mOrder = new RoomMembersOrder(new RoomMembersOrder.NameProvider() {
+            @Override
+            public String getMemberName(String userId) {
+                mNameRequestsCount++;
+                return mNamesByUserId.get(userId);
+            }
+        });
+
+        mMembers = new ArrayList<RoomMember>();
+
+        for (int i = 0; i < MEMBERS_COUNT; i++) {
+            String userId = "@user" + i + ":matrix.org";
+
+            RoomMember member = new RoomMember();
+            member.setUserId(userId);
+            member.membership = (0 == (i % 10)) ? RoomMember.MEMBERSHIP_INVITE : RoomMember.MEMBERSHIP_JOIN;
+            mMembers.add(member);
+
+            mNamesByUserId.put(userId, "User " + random.nextInt(MEMBERS_COUNT) + " " + i);
+
+            // some users have no known activity
+            mOrder.setLastActiveTime(userId, (0 == (i % 7)) ? null : Long.valueOf(random.nextInt(1000000)));
+        }
+
+        Collections.sort(mMembers, mOrder.getComparator());
+    }
+
+    /**
+     * @param list the members.
+     * @return the user ids of the members.
+     */
+    private static List<String> getUserIds(List<RoomMember> list) {
+        ArrayList<String> userIds = new ArrayList<String>();
+
+        for (RoomMember member : list) {
+            userIds.add(member.getUserId());
+        }
+
+        return userIds;
+    }
+
+    @Test
+    public void lastActiveTimeIsCopied() {
+        User user = new User();
+        user.user_id = "@user1:matrix.org";
+
+        assertNull(RoomMembersOrder.getLastActiveTime(user));
+
+        user.lastActiveAgo = 1000L;
+        user.lastActiveReceived();
+        Long lastActiveTime = RoomMembersOrder.getLastActiveTime(user);
+
+        assertTrue(mOrder.setLastActiveTime(user.user_id, lastActiveTime));
+        assertFalse(mOrder.setLastActiveTime(user.user_id, lastActiveTime));
+
+        Collections.sort(mMembers, mOrder.getComparator());
+        List<String> userIds = getUserIds(mMembers);
+
+        // the user is updated by the events thread : the order does not change until the time is copied again
+        user.lastActiveAgo = Long.MAX_VALUE / 2;
+        Collections.sort(mMembers, mOrder.getComparator());
+
+        assertEquals(userIds, getUserIds(mMembers));
+        assertEquals("@user1:matrix.org", mMembers.get(0).getUserId());
+    }
+
+    @Test
+    public void presenceFloodIsRepositionedInOrder() {
+        Random random = new Random(7);
+        int refreshesCount = 200;
+        int updatesPerRefresh = 25;
+
+        List<RoomMember> sortedMembers = new ArrayList<RoomMember>(mMembers);
+
+        for (int refresh = 0; refresh < refreshesCount; refresh++) {
+            // the updates of a refresh interval, a user updated twice is refreshed once
+            LinkedHashMap<String, RoomMember> movedMembers = new LinkedHashMap<String, RoomMember>();
+
+            for (int update = 0; update < updatesPerRefresh; update++) {
+                RoomMember member = mMembers.get(random.nextInt(MEMBERS_COUNT));
+
+                if (mOrder.setLastActiveTime(member.getUserId(), 1000000L + (refresh * updatesPerRefresh) + update)) {
+                    movedMembers.put(member.getUserId(), member);
+                }
+            }
+
+            // the repositioned list matches a full sort
+            RoomMembersOrder.reposition(mMembers, movedMembers.values(), mOrder.getComparator());
+            Collections.sort(sortedMembers, mOrder.getComparator());
+
+            assertEquals(sortedMembers, mMembers);
+        }
+    }
+
+    @Test
+    public void alphabeticalOrderIgnoresThePresence() {
+        mOrder.setSortByLastActive(false);
+        Collections.sort(mMembers, mOrder.getComparator());
+
+        for (int i = 1; i < MEMBERS_COUNT; i++) {
+            assertTrue(mOrder.getComparator().compare(mMembers.get(i - 1), mMembers.get(i)) <= 0);
+        }
+
+        assertEquals(RoomMember.MEMBERSHIP_JOIN, mMembers.get(0).membership);
+        assertEquals(RoomMember.MEMBERSHIP_INVITE, mMembers.get(MEMBERS_COUNT - 1).membership);
+    }
+
+    @Test
+    public void sortKeysAreKept() {
+        mOrder.setSortByLastActive(false);
+        Collections.sort(mMembers, mOrder.getComparator());
+        assertEquals(MEMBERS_COUNT, mNameRequestsCount);
+
+        // a full sort does not compute the keys again
+        Collections.shuffle(mMembers, new Random(7));
+        Collections.sort(mMembers, mOrder.getComparator());
+        assertEquals(MEMBERS_COUNT, mNameRequestsCount);
+
+        // only the renamed member key is computed again
+        String userId = mMembers.get(0).getUserId();
+        mNamesByUserId.put(userId, "zzz");
+        mOrder.invalidateName(userId);
+        Collections.sort(mMembers, mOrder.getComparator());
+
+        assertEquals(MEMBERS_COUNT + 1, mNameRequestsCount);
+        assertEquals(userId, mMembers.get(MEMBERS_COUNT - 501).getUserId());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.contacts;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.matrix.console.util.Metrics;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContactTest {
+
+    private static final int CONTACTS_COUNT = 10000;
+
+    private static final String[] FIRST_NAMES = {"Ana\u00efs", "Bertrand", "Chlo\u00e9", "David", "\u00c9mile", "Fran\u00e7ois", "Gr\u00e9goire", "H\u00e9l\u00e8ne", "In\u00e8s", "J\u00e9r\u00f4me"};
+    private static final String[] LAST_NAMES = {"Martin", "Bernard", "Dubois", "Thomas", "Robert", "Richard", "Petit", "Durand", "Leroy", "Moreau"};
+
+    private final Metrics.Counter mSortKeysCount = Metrics.getInstance().getCounter("contacts.sort_keys");
+
+    private List<Contact> mContacts;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        mContacts = new ArrayList<Contact>();
+
+        for (int i = 0; i < CONTACTS_COUNT; i++) {
+            Contact contact = new Contact("" + i);
+            String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " " + i;
+
+            // some contacts are only named by their email, their phone number or their id
+            if (0 == (i % 10)) {
+                contact.mEmails.add(name.replace(' ', '.') + "@matrix.org");
+            } else if (1 == (i % 10)) {
+                contact.mPhoneNumbers.add("+33 6 " + random.nextInt(100000000));
+            } else if (2 != (i % 10)) {
+                contact.setDisplayName(name);
+            }
+
+            mContacts.add(contact);
+        }
+    }
+
+    @Test
+    public void sortKeysAreComputedOnce() {
+        long sortKeysCount = mSortKeysCount.get();
+
+        Collections.sort(mContacts, ContactsManager.alphaComparator);
+        assertEquals(sortKeysCount + CONTACTS_COUNT, mSortKeysCount.get());
+
+        for (int i = 1; i < CONTACTS_COUNT; i++) {
+            assertTrue(ContactsManager.alphaComparator.compare(mContacts.get(i - 1), mContacts.get(i)) <= 0);
+        }
+
+        // a new sort reuses the keys
+        HashMap<Contact, CollationKey> keyByContact = new HashMap<Contact, CollationKey>();
+
+        for (Contact contact : mContacts) {
+            keyByContact.put(contact, contact.getSortKey());
+        }
+
+        Collections.shuffle(mContacts, new Random(7));
+        Collections.sort(mContacts, ContactsManager.alphaComparator);
+
+        assertEquals(sortKeysCount + CONTACTS_COUNT, mSortKeysCount.get());
+
+        for (Contact contact : mContacts) {
+            assertSame(keyByContact.get(contact), contact.getSortKey());
+        }
+    }
+
+    @Test
+    public void renamedContactKeyIsComputedAgain() {
+        Collections.sort(mContacts, ContactsManager.alphaComparator);
+        long sortKeysCount = mSortKeysCount.get();
+
+        Contact contact = mContacts.get(0);
+        contact.setDisplayName("zzz");
+
+        Collections.sort(mContacts, ContactsManager.alphaComparator);
+
+        assertEquals(sortKeysCount + 1, mSortKeysCount.get());
+        assertEquals("zzz", contact.getSortKey().getSourceString());
+        assertSame(contact, mContacts.get(CONTACTS_COUNT - 1));
+    }
+}
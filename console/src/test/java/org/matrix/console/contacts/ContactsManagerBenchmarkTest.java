@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.contacts;
+
+import android.provider.ContactsContract;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmark the local contacts reading on a fake contacts provider of 10k contacts :
+ * a single Data query against the previous names, phones and emails queries.
+ */
+public class ContactsManagerBenchmarkTest {
+
+    private static final int CONTACTS_COUNT = 10000;
+    private static final int ROUNDS = 20;
+
+    private static final String NAME_TYPE = ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE;
+    private static final String PHONE_TYPE = ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE;
+    private static final String EMAIL_TYPE = ContactsContract.CommonDataKinds.Email.CONTENT_ITEM_TYPE;
+
+    // the columns of the fake Data table
+    private static final String[] DATA_COLUMNS = {
+            ContactsContract.Data.MIMETYPE,
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.DATA1,
+            ContactsContract.Contacts.DISPLAY_NAME_PRIMARY,
+            ContactsContract.Contacts.PHOTO_THUMBNAIL_URI
+    };
+
+    // the Data table rows, grouped by contact
+    private List<String[]> mDataRows;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        mDataRows = new ArrayList<String[]>();
+
+        for (int i = 0; i < CONTACTS_COUNT; i++) {
+            String contactId = String.valueOf(i);
+            String thumbnailUri = (0 == (i % 3)) ? ("content://com.android.contacts/contacts/" + i + "/photo") : null;
+
+            mDataRows.add(new String[]{NAME_TYPE, contactId, "Contact " + i, "Contact " + i, thumbnailUri});
+
+            for (int phone = random.nextInt(3); phone > 0; phone--) {
+                mDataRows.add(new String[]{PHONE_TYPE, contactId, "+33 6 " + (10000000 + random.nextInt(90000000)), "Contact " + i, thumbnailUri});
+            }
+
+            for (int email = random.nextInt(3); email > 0; email--) {
+                mDataRows.add(new String[]{EMAIL_TYPE, contactId, "contact." + i + "." + email + "@example.org", "Contact " + i, thumbnailUri});
+            }
+        }
+    }
+
+    /**
+     * Query the fake contacts provider.
+     * @param projection the columns.
+     * @param mimeTypes the selected mime types.
+     * @return the cursor.
+     */
+    private FakeCursor query(String[] projection, String... mimeTypes) {
+        List<String> selectedTypes = Arrays.asList(mimeTypes);
+        List<String> dataColumns = Arrays.asList(DATA_COLUMNS);
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+
+        for (String[] dataRow : mDataRows) {
+            if (selectedTypes.contains(dataRow[0])) {
+                String[] row = new String[projection.length];
+
+                for (int index = 0; index < projection.length; index++) {
+                    row[index] = dataRow[dataColumns.indexOf(projection[index])];
+                }
+
+                rows.add(row);
+            }
+        }
+
+        return new FakeCursor(projection, rows);
+    }
+
+    /**
+     * @return the cursor of the single Data query.
+     */
+    private FakeCursor queryData() {
+        return query(DATA_COLUMNS, NAME_TYPE, PHONE_TYPE, EMAIL_TYPE);
+    }
+
+    /**
+     * @return the cursors of the previous names, phones and emails queries.
+     */
+    private FakeCursor[] queryNamesPhonesAndEmails() {
+        return new FakeCursor[]{
+                query(new String[]{ContactsContract.Contacts.DISPLAY_NAME_PRIMARY, ContactsContract.CommonDataKinds.StructuredName.CONTACT_ID, ContactsContract.Contacts.PHOTO_THUMBNAIL_URI}, NAME_TYPE),
+                query(new String[]{ContactsContract.CommonDataKinds.Phone.DATA, ContactsContract.CommonDataKinds.Phone.CONTACT_ID}, PHONE_TYPE),
+                query(new String[]{ContactsContract.CommonDataKinds.Email.DATA, ContactsContract.CommonDataKinds.Email.CONTACT_ID}, EMAIL_TYPE)
+        };
+    }
+
+    /**
+     * Retrieve a contact from its id, create it if it does not exist.
+     */
+    private static Contact getOrCreateContact(HashMap<String, Contact> dict, String contactId) {
+        Contact contact = dict.get(contactId);
+
+        if (null == contact) {
+            contact = new Contact(contactId);
+            dict.put(contactId, contact);
+        }
+
+        return contact;
+    }
+
+    /**
+     * Read the contacts as they were read before the single Data query :
+     * a cursor per data kind and the columns are retrieved on each row.
+     * @param cursors the names, phones and emails cursors.
+     * @return the contacts by contact id.
+     */
+    private static HashMap<String, Contact> readNamesPhonesAndEmails(FakeCursor[] cursors) {
+        HashMap<String, Contact> dict = new HashMap<String, Contact>();
+
+        FakeCursor namesCur = cursors[0];
+
+        while (namesCur.moveToNext()) {
+            String displayName = namesCur.getString(namesCur.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY));
+            String contactId = namesCur.getString(namesCur.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.CONTACT_ID));
+            String thumbnailUri = namesCur.getString(namesCur.getColumnIndex(ContactsContract.CommonDataKinds.StructuredName.PHOTO_THUMBNAIL_URI));
+
+            if (null != contactId) {
+                Contact contact = getOrCreateContact(dict, contactId);
+
+                if (null != displayName) {
+                    contact.setDisplayName(displayName);
+                }
+
+                if (null != thumbnailUri) {
+                    contact.mThumbnailUri = thumbnailUri;
+                }
+            }
+        }
+
+        FakeCursor phonesCur = cursors[1];
+
+        while (phonesCur.moveToNext()) {
+            String phone = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.DATA));
+            String contactId = phonesCur.getString(phonesCur.getColumnIndex(ContactsContract.CommonDataKinds.Phone.CONTACT_ID));
+
+            if ((null != phone) && (phone.length() > 0) && (null != contactId)) {
+                getOrCreateContact(dict, contactId).mPhoneNumbers.add(phone);
+            }
+        }
+
+        FakeCursor emailsCur = cursors[2];
+
+        while (emailsCur.moveToNext()) {
+            String email = emailsCur.getString(emailsCur.getColumnIndex(ContactsContract.CommonDataKinds.Email.DATA));
+            String contactId = emailsCur.getString(emailsCur.getColumnIndex(ContactsContract.CommonDataKinds.Email.CONTACT_ID));
+
+            if ((null != email) && (email.length() > 0) && (null != contactId)) {
+                getOrCreateContact(dict, contactId).mEmails.add(email);
+            }
+        }
+
+        return dict;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, 0 if the JVM does not count them.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Describe the contacts read from a cursor, to compare both ways of reading them.
+     * @param dict the contacts by contact id.
+     * @return the contacts descriptions by contact id.
+     */
+    private static HashMap<String, String> describe(HashMap<String, Contact> dict) {
+        HashMap<String, String> descriptions = new HashMap<String, String>();
+
+        for (Contact contact : dict.values()) {
+            descriptions.put(contact.mContactId, contact.getDisplayName() + "|" + contact.mThumbnailUri + "|" + contact.mPhoneNumbers + "|" + contact.mEmails);
+        }
+
+        return descriptions;
+    }
+
+    @Test
+    public void singleDataQueryReadsTheSameContacts() {
+        FakeCursor dataCur = queryData();
+        HashMap<String, Contact> dict = new HashMap<String, Contact>();
+        ContactsManager.readContacts(dataCur, dict);
+
+        assertEquals(CONTACTS_COUNT, dict.size());
+        assertEquals(describe(readNamesPhonesAndEmails(queryNamesPhonesAndEmails())), describe(dict));
+
+        // the columns are retrieved once
+        assertEquals(DATA_COLUMNS.length, dataCur.getColumnLookupsCount());
+    }
+
+    @Test
+    public void readRowsBenchmark() {
+        int rowsCount = mDataRows.size();
+
+        // warm up
+        ContactsManager.readContacts(queryData(), new HashMap<String, Contact>());
+        readNamesPhonesAndEmails(queryNamesPhonesAndEmails());
+
+        long singleQueryDuration = 0;
+        long singleQueryAllocatedBytes = 0;
+        long threeQueriesDuration = 0;
+        long threeQueriesAllocatedBytes = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            // the provider queries are not measured
+            FakeCursor dataCur = queryData();
+            FakeCursor[] cursors = queryNamesPhonesAndEmails();
+
+            long allocatedBytes = getAllocatedBytes();
+            long startTime = System.nanoTime();
+            HashMap<String, Contact> dict = new HashMap<String, Contact>();
+            ContactsManager.readContacts(dataCur, dict);
+            singleQueryDuration += System.nanoTime() - startTime;
+            singleQueryAllocatedBytes += getAllocatedBytes() - allocatedBytes;
+
+            allocatedBytes = getAllocatedBytes();
+            startTime = System.nanoTime();
+            readNamesPhonesAndEmails(cursors);
+            threeQueriesDuration += System.nanoTime() - startTime;
+            threeQueriesAllocatedBytes += getAllocatedBytes() - allocatedBytes;
+
+            assertEquals(CONTACTS_COUNT, dict.size());
+        }
+
+        long readRowsCount = (long) rowsCount * ROUNDS;
+
+        System.out.println("ContactsManager : " + CONTACTS_COUNT + " contacts, " + rowsCount + " data rows"
+                + ", before " + (readRowsCount * 1000000000L / Math.max(1, threeQueriesDuration)) + " rows/s, " + (threeQueriesAllocatedBytes / readRowsCount) + " bytes/row"
+                + ", after " + (readRowsCount * 1000000000L / Math.max(1, singleQueryDuration)) + " rows/s, " + (singleQueryAllocatedBytes / readRowsCount) + " bytes/row");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.contacts;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.matrix.console.util.CollationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContactsSearchIndexTest {
+
+    private static final int CONTACTS_COUNT = 10000;
+
+    private static final String[] FIRST_NAMES = {"Ana\u00efs", "Bertrand", "Chlo\u00e9", "David", "\u00c9mile", "Fran\u00e7ois", "Gr\u00e9goire", "H\u00e9l\u00e8ne", "In\u00e8s", "J\u00e9r\u00f4me"};
+    private static final String[] LAST_NAMES = {"Martin", "Bernard", "Dubois", "Thomas", "Robert", "Richard", "Petit", "Durand", "Leroy", "Moreau"};
+
+    private List<Contact> mContacts;
+    private ContactsSearchIndex mSearchIndex;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        mContacts = new ArrayList<Contact>();
+
+        for (int i = 0; i < CONTACTS_COUNT; i++) {
+            Contact contact = new Contact(String.valueOf(i));
+            String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+
+            contact.setDisplayName(firstName + " " + lastName + " " + i);
+            contact.mEmails.add(CollationUtils.normalize(firstName) + "." + i + "@example.org");
+            contact.mPhoneNumbers.add("+33 6 " + (10000000 + random.nextInt(90000000)));
+            mContacts.add(contact);
+        }
+
+        mSearchIndex = new ContactsSearchIndex(mContacts);
+    }
+
+    /**
+     * Search a pattern by scanning every contact.
+     * @param pattern the pattern.
+     * @return the matched contacts.
+     */
+    private List<Contact> scan(String pattern) {
+        String normalizedPattern = CollationUtils.normalize(pattern);
+        ArrayList<Contact> res = new ArrayList<Contact>();
+
+        for (Contact contact : mContacts) {
+            boolean matches = CollationUtils.normalize(contact.getDisplayName()).contains(normalizedPattern);
+
+            for (String email : contact.mEmails) {
+                matches |= CollationUtils.normalize(email).contains(normalizedPattern);
+            }
+
+            for (String phoneNumber : contact.mPhoneNumbers) {
+                matches |= CollationUtils.normalize(phoneNumber).contains(normalizedPattern);
+            }
+
+            if (matches) {
+                res.add(contact);
+            }
+        }
+
+        return res;
+    }
+
+    @Test
+    public void emptyPatternMatchesEveryContact() {
+        assertEquals(CONTACTS_COUNT, mSearchIndex.search("").size());
+        assertEquals(CONTACTS_COUNT, mSearchIndex.search(null).size());
+    }
+
+    @Test
+    public void searchMatchesTheScan() {
+        String[] patterns = {"a", "\u00e9", "h\u00e9", "CHLO", "chloe martin", "durand 99", "@example", ".42@", "+33 6 1", "zzz", "t 12", "\u00e9mile.1", "ber", "dubois 1", "jerome.5", "+33 6 9", "helene", "leroy 77"};
+
+        for (String pattern : patterns) {
+            assertEquals(pattern, scan(pattern), mSearchIndex.search(pattern));
+        }
+    }
+
+    @Test
+    public void patternDoesNotOverlapTwoFields() {
+        Contact contact = new Contact("0");
+        contact.setDisplayName("Alice");
+        contact.mEmails.add("bob@example.org");
+
+        ArrayList<Contact> contacts = new ArrayList<Contact>();
+        contacts.add(contact);
+        ContactsSearchIndex searchIndex = new ContactsSearchIndex(contacts);
+
+        assertEquals(1, searchIndex.search("alice").size());
+        assertEquals(1, searchIndex.search("bob@").size());
+        assertEquals(0, searchIndex.search("ceb").size());
+        assertEquals(0, searchIndex.search("alicebob").size());
+    }
+}
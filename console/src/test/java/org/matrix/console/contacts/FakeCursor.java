@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.contacts;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.List;
+
+/**
+ * A forward only cursor over in memory rows, as returned by a contacts provider query.
+ * The rows are not copied and the column lookups are counted.
+ */
+public class FakeCursor implements Cursor {
+
+    private final String[] mColumnNames;
+    private final List<String[]> mRows;
+
+    private int mPosition = -1;
+    private boolean mIsClosed = false;
+    private int mColumnLookupsCount = 0;
+
+    /**
+     * Constructor
+     * @param columnNames the columns names.
+     * @param rows the rows, a value per column.
+     */
+    public FakeCursor(String[] columnNames, List<String[]> rows) {
+        mColumnNames = columnNames;
+        mRows = rows;
+    }
+
+    /**
+     * @return the number of getColumnIndex calls.
+     */
+    public int getColumnLookupsCount() {
+        return mColumnLookupsCount;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        mPosition = Math.max(-1, Math.min(position, mRows.size()));
+        return (mPosition >= 0) && (mPosition < mRows.size());
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(mRows.size() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPosition - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return (0 == mPosition) && (0 != mRows.size());
+    }
+
+    @Override
+    public boolean isLast() {
+        return (mPosition == (mRows.size() - 1)) && (0 != mRows.size());
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return (-1 == mPosition) || (0 == mRows.size());
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return (mPosition == mRows.size()) || (0 == mRows.size());
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        mColumnLookupsCount++;
+
+        for (int index = 0; index < mColumnNames.length; index++) {
+            if (mColumnNames[index].equals(columnName)) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
+        int index = getColumnIndex(columnName);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumnNames[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumnNames.length;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return mRows.get(mPosition)[columnIndex];
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return Short.parseShort(getString(columnIndex));
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return Integer.parseInt(getString(columnIndex));
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return Long.parseLong(getString(columnIndex));
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return Float.parseFloat(getString(columnIndex));
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return Double.parseDouble(getString(columnIndex));
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        return isNull(columnIndex) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return null == getString(columnIndex);
+    }
+
+    @Override
+    public void deactivate() {
+    }
+
+    @Override
+    public boolean requery() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        mIsClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mIsClosed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver cr, Uri notifyUri) {
+    }
+
+    @Override
+    public Uri getNotificationUri() {
+        return null;
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    @Override
+    public void setExtras(Bundle extras) {
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return null;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        return null;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BingNotificationBatcherTest {
+
+    private static final int AVATAR_SIZE = 48;
+
+    // run the renderings when they are flushed
+    private final List<Runnable> mPendingRenderings = new ArrayList<Runnable>();
+
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            mPendingRenderings.add(runnable);
+        }
+    };
+
+    // the urls of the cached avatars
+    private final HashSet<String> mCachedAvatars = new HashSet<String>();
+
+    // the urls of the avatars which cannot be decoded
+    private final HashSet<String> mBrokenAvatars = new HashSet<String>();
+
+    private final NotificationAvatarProvider<Object, String> mAvatarProvider = new NotificationAvatarProvider<Object, String>(new NotificationAvatarProvider.Decoder<Object, String>() {
+        @Override
+        public String getCachedAvatar(String url, int size) {
+            return mCachedAvatars.contains(url) ? url : null;
+        }
+
+        @Override
+        public String decodeAvatar(Object source, String url, int size) {
+            if (mBrokenAvatars.contains(url)) {
+                return null;
+            }
+
+            mCachedAvatars.add(url);
+            return url;
+        }
+
+        @Override
+        public String decodeDefaultAvatar() {
+            return "default";
+        }
+    });
+
+    private final List<String> mDisplayedAvatars = new ArrayList<String>();
+
+    private BingNotificationBatcher<String> mBatcher;
+
+    @Before
+    public void setUp() {
+        mBatcher = new BingNotificationBatcher<String>(new BingNotificationBatcher.Renderer<String>() {
+            @Override
+            public void render(String avatarUrl, int generation) {
+                final String avatar = mAvatarProvider.getAvatar(null, avatarUrl, AVATAR_SIZE);
+
+                mBatcher.runIfCurrent(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        mDisplayedAvatars.add(avatar);
+                    }
+                });
+            }
+        });
+
+        // the service preloads the default avatar
+        mAvatarProvider.getDefaultAvatar();
+    }
+
+    private void flushRenderings() {
+        for (Runnable runnable : mPendingRenderings) {
+            runnable.run();
+        }
+        mPendingRenderings.clear();
+    }
+
+    @Test
+    public void chunkCostsAtMostOneDecode() {
+        int chunksCount = 100;
+        int bingsPerChunk = 50;
+
+        for (int chunk = 0; chunk < chunksCount; chunk++) {
+            int decodeCount = mAvatarProvider.getDecodeCount();
+
+            for (int bing = 0; bing < bingsPerChunk; bing++) {
+                // some avatars cannot be decoded
+                String url = "mxc://avatar/" + chunk + "/" + bing;
+
+                if (0 == (chunk % 3)) {
+                    mBrokenAvatars.add(url);
+                }
+
+                mBatcher.add(url);
+            }
+
+            assertTrue(mBatcher.onChunkProcessed(mExecutor));
+            flushRenderings();
+
+            assertTrue(mAvatarProvider.getDecodeCount() - decodeCount <= 1);
+        }
+
+        assertEquals(chunksCount, mDisplayedAvatars.size());
+        assertEquals("mxc://avatar/1/" + (bingsPerChunk - 1), mDisplayedAvatars.get(1));
+        assertEquals("default", mDisplayedAvatars.get(0));
+    }
+
+    @Test
+    public void cachedAvatarIsNotDecoded() {
+        mBatcher.add("mxc://avatar/cached");
+        mBatcher.onChunkProcessed(mExecutor);
+        flushRenderings();
+
+        int decodeCount = mAvatarProvider.getDecodeCount();
+
+        mBatcher.add("mxc://avatar/cached");
+        mBatcher.onChunkProcessed(mExecutor);
+        flushRenderings();
+
+        assertEquals(decodeCount, mAvatarProvider.getDecodeCount());
+        assertEquals(2, mDisplayedAvatars.size());
+    }
+
+    @Test
+    public void emptyChunkRendersNothing() {
+        assertFalse(mBatcher.onChunkProcessed(mExecutor));
+        assertTrue(mPendingRenderings.isEmpty());
+    }
+
+    @Test
+    public void cancelledNotificationIsNotDisplayed() {
+        mBatcher.add("mxc://avatar/1");
+        mBatcher.onChunkProcessed(mExecutor);
+
+        // the notifications are cancelled while the notification is rendering
+        mBatcher.cancel(null);
+        flushRenderings();
+
+        assertTrue(mDisplayedAvatars.isEmpty());
+
+        // the next bing events are displayed
+        mBatcher.add("mxc://avatar/2");
+        mBatcher.onChunkProcessed(mExecutor);
+        flushRenderings();
+
+        assertEquals(1, mDisplayedAvatars.size());
+    }
+
+    @Test
+    public void cancelDropsTheChunkPendingEvent() {
+        mBatcher.add("mxc://avatar/1");
+        mBatcher.cancel(null);
+
+        assertFalse(mBatcher.onChunkProcessed(mExecutor));
+    }
+}
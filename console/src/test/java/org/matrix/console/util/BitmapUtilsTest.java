@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapUtilsTest {
+
+    // a 48 MP camera picture
+    private static final int IMAGE_WIDTH = 8000;
+    private static final int IMAGE_HEIGHT = 6000;
+
+    // the thumbnail boxes, in both orientations
+    private static final int[][] THUMBNAIL_SIZES = {{320, 240}, {600, 600}, {1024, 768}, {768, 1024}, {1080, 1920}, {1920, 1080}};
+
+    /**
+     * Compute the bitmaps bytes allocated at the same time by decodeSampledBitmap then scaleToFit.
+     * The decoder rounds the subsampled size up.
+     * @param width the image width.
+     * @param height the image height.
+     * @param reqWidth the thumbnail width.
+     * @param reqHeight the thumbnail height.
+     * @return the bytes count.
+     */
+    private static long computePeakBytes(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = BitmapUtils.computeFitSampleSize(width, height, reqWidth, reqHeight);
+        int sampledWidth = (width + sampleSize - 1) / sampleSize;
+        int sampledHeight = (height + sampleSize - 1) / sampleSize;
+
+        int[] scaledSize = BitmapUtils.computeFitSize(sampledWidth, sampledHeight, reqWidth, reqHeight);
+
+        return 4L * sampledWidth * sampledHeight + 4L * scaledSize[0] * scaledSize[1];
+    }
+
+    @Test
+    public void thumbnailOfA48MPImageIsBounded() {
+        long fullImageBytes = 4L * IMAGE_WIDTH * IMAGE_HEIGHT;
+
+        for (int[] size : THUMBNAIL_SIZES) {
+            long peakBytes = computePeakBytes(IMAGE_WIDTH, IMAGE_HEIGHT, size[0], size[1]);
+
+            assertTrue(size[0] + "x" + size[1] + " : " + peakBytes, peakBytes <= BitmapUtils.getMaxThumbnailBytes(size[0], size[1]));
+            assertTrue(size[0] + "x" + size[1] + " : " + peakBytes, peakBytes * 10 <= fullImageBytes);
+        }
+    }
+
+    @Test
+    public void sampledImageIsLargerThanTheThumbnail() {
+        // 1000x750 for a 600x600 box
+        assertEquals(8, BitmapUtils.computeFitSampleSize(IMAGE_WIDTH, IMAGE_HEIGHT, 600, 600));
+        // 2000x1500 for a 1080x1920 box, where the image is displayed in 1080x810
+        assertEquals(4, BitmapUtils.computeFitSampleSize(IMAGE_WIDTH, IMAGE_HEIGHT, 1080, 1920));
+        assertEquals(1, BitmapUtils.computeFitSampleSize(IMAGE_WIDTH, IMAGE_HEIGHT, IMAGE_WIDTH, IMAGE_HEIGHT));
+
+        for (int[] size : THUMBNAIL_SIZES) {
+            int sampleSize = BitmapUtils.computeFitSampleSize(IMAGE_WIDTH, IMAGE_HEIGHT, size[0], size[1]);
+            int[] fitSize = BitmapUtils.computeFitSize(IMAGE_WIDTH, IMAGE_HEIGHT, size[0], size[1]);
+
+            assertTrue((IMAGE_WIDTH / sampleSize) >= fitSize[0]);
+            assertTrue((IMAGE_HEIGHT / sampleSize) >= fitSize[1]);
+        }
+    }
+
+    @Test
+    public void fitSizeKeepsTheAspectRatio() {
+        int[] size = BitmapUtils.computeFitSize(1000, 750, 600, 600);
+
+        assertEquals(600, size[0]);
+        assertEquals(450, size[1]);
+
+        size = BitmapUtils.computeFitSize(500, 300, 600, 600);
+
+        assertEquals(500, size[0]);
+        assertEquals(300, size[1]);
+    }
+}
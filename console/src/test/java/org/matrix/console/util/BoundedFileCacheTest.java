@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedFileCacheTest {
+
+    private static final long MAX_SIZE = 1000;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("BoundedFileCacheTest", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        mDirectory.delete();
+    }
+
+    /**
+     * Write and add a file.
+     * @param cache the cache.
+     * @param key the file key.
+     * @param size the file size.
+     * @return the cached file.
+     */
+    private File put(BoundedFileCache cache, String key, int size) throws IOException {
+        File tmpFile = cache.getTemporaryFile(key);
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+        outputStream.write(new byte[size]);
+        outputStream.close();
+
+        return cache.put(key, tmpFile);
+    }
+
+    @Test
+    public void cachedFileIsReturned() throws IOException {
+        BoundedFileCache cache = new BoundedFileCache(mDirectory, MAX_SIZE);
+        File file = put(cache, "/medias/1.jpg", 100);
+
+        assertNotNull(file);
+        assertEquals(file, cache.get("/medias/1.jpg"));
+        assertNull(cache.get("/medias/2.jpg"));
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreDeleted() throws IOException {
+        BoundedFileCache cache = new BoundedFileCache(mDirectory, MAX_SIZE);
+
+        for (int i = 0; i < 4; i++) {
+            put(cache, "/medias/" + i + ".jpg", 300);
+        }
+
+        assertEquals(900, cache.getSize());
+        assertNull(cache.get("/medias/0.jpg"));
+
+        // use the oldest file, so the next one is deleted
+        assertNotNull(cache.get("/medias/1.jpg"));
+        put(cache, "/medias/4.jpg", 300);
+
+        assertNotNull(cache.get("/medias/1.jpg"));
+        assertNull(cache.get("/medias/2.jpg"));
+        assertTrue(cache.getSize() <= MAX_SIZE);
+    }
+
+    @Test
+    public void replacedFileIsCountedOnce() throws IOException {
+        BoundedFileCache cache = new BoundedFileCache(mDirectory, MAX_SIZE);
+
+        put(cache, "/medias/1.jpg", 300);
+        put(cache, "/medias/1.jpg", 200);
+
+        assertEquals(200, cache.getSize());
+        assertEquals(200, cache.get("/medias/1.jpg").length());
+    }
+
+    @Test
+    public void tooLargeFileIsNotCached() throws IOException {
+        BoundedFileCache cache = new BoundedFileCache(mDirectory, MAX_SIZE);
+
+        assertNull(put(cache, "/medias/1.jpg", 2000));
+        assertNull(cache.get("/medias/1.jpg"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void cacheIsReloaded() throws IOException {
+        BoundedFileCache cache = new BoundedFileCache(mDirectory, MAX_SIZE);
+        put(cache, "/medias/1.jpg", 300);
+
+        // an interrupted writing
+        File tmpFile = cache.getTemporaryFile("/medias/2.jpg");
+        new FileOutputStream(tmpFile).close();
+
+        BoundedFileCache reloadedCache = new BoundedFileCache(mDirectory, MAX_SIZE);
+
+        assertNotNull(reloadedCache.get("/medias/1.jpg"));
+        assertEquals(300, reloadedCache.getSize());
+        assertFalse(tmpFile.exists());
+    }
+}
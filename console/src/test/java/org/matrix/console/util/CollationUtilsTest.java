@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CollationUtilsTest {
+
+    private static final int NAMES_COUNT = 20000;
+
+    private static final String[] FIRST_NAMES = {"\u00c5sa", "Anders", "\u00c9lodie", "\u00d6rjan", "zo\u00e9", "@bob:matrix.org", "\u00c4rla", "Emil"};
+
+    private Locale mDefaultLocale;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    /**
+     * Sort names and list their sections.
+     * @param names the names.
+     * @return the section titles, in the sort order.
+     */
+    private static List<String> getSectionTitles(List<String> names) {
+        ArrayList<CollationKey> keys = new ArrayList<CollationKey>();
+
+        for (String name : names) {
+            keys.add(CollationUtils.getCollationKey(name));
+        }
+
+        Collections.sort(keys);
+
+        ArrayList<String> titles = new ArrayList<String>();
+
+        for (CollationKey key : keys) {
+            String title = CollationUtils.getSectionTitle(key.getSourceString());
+
+            if (!titles.contains(title)) {
+                titles.add(title);
+            }
+        }
+
+        return titles;
+    }
+
+    @Test
+    public void sectionsFollowTheFrenchOrder() {
+        Locale.setDefault(Locale.FRANCE);
+
+        ArrayList<String> names = new ArrayList<String>();
+        Collections.addAll(names, FIRST_NAMES);
+
+        assertEquals("E", CollationUtils.getSectionTitle("\u00e9lodie"));
+        assertEquals("B", CollationUtils.getSectionTitle("@bob:matrix.org"));
+        assertNull(CollationUtils.getSectionTitle("@"));
+        assertEquals(getSectionTitles(names), Arrays.asList("A", "B", "E", "O", "Z"));
+    }
+
+    @Test
+    public void sectionsFollowTheSwedishOrder() {
+        Locale.setDefault(new Locale("sv", "SE"));
+
+        ArrayList<String> names = new ArrayList<String>();
+        Collections.addAll(names, FIRST_NAMES);
+
+        // the letters with diacritics which are sorted after Z have their own sections
+        assertEquals("\u00c4", CollationUtils.getSectionTitle("\u00e4rla"));
+        assertEquals("E", CollationUtils.getSectionTitle("\u00c9lodie"));
+        assertEquals(getSectionTitles(names), Arrays.asList("A", "B", "E", "Z", "\u00c5", "\u00c4", "\u00d6"));
+    }
+
+    @Test
+    public void normalizeRemovesTheDiacritics() {
+        assertEquals("elodie orjan", CollationUtils.normalize("\u00c9lodie \u00d6rjan"));
+    }
+
+    @Test
+    public void sortKeysFollowTheCollator() {
+        Random random = new Random(42);
+        ArrayList<String> names = new ArrayList<String>();
+
+        for (int i = 0; i < NAMES_COUNT; i++) {
+            names.add(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + random.nextInt(NAMES_COUNT));
+        }
+
+        Collator collator = Collator.getInstance(Locale.getDefault());
+        collator.setStrength(Collator.PRIMARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+
+        // the keys are computed once
+        ArrayList<CollationKey> keys = new ArrayList<CollationKey>(names.size());
+
+        for (String name : names) {
+            keys.add(CollationUtils.getCollationKey(name));
+        }
+
+        Collections.sort(keys);
+
+        // the sorted names are ordered by the collator
+        for (int i = 1; i < keys.size(); i++) {
+            assertTrue(collator.compare(keys.get(i - 1).getSourceString(), keys.get(i).getSourceString()) <= 0);
+        }
+    }
+}
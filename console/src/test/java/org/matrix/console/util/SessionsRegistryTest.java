@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.console.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionsRegistryTest {
+
+    private static final int WRITERS_COUNT = 4;
+    private static final int READERS_COUNT = 4;
+    private static final int UPDATES_COUNT = 20000;
+
+    /**
+     * A per session item.
+     */
+    private static class Item {
+        final String mUserId;
+
+        Item(String userId) {
+            mUserId = userId;
+        }
+    }
+
+    @Test
+    public void replacedItemIsReturned() {
+        SessionsRegistry<Item> registry = new SessionsRegistry<Item>();
+        Item alice = new Item("@alice:matrix.org");
+        Item bob = new Item("@bob:matrix.org");
+        Item newAlice = new Item("@alice:matrix.org");
+
+        assertNull(registry.put(alice.mUserId, alice));
+        assertNull(registry.put(bob.mUserId, bob));
+        assertSame(alice, registry.put(newAlice.mUserId, newAlice));
+
+        // the replaced item keeps its position
+        assertSame(newAlice, registry.getSnapshot().get(0));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void onlyTheExpectedItemIsRemoved() {
+        SessionsRegistry<Item> registry = new SessionsRegistry<Item>();
+        Item alice = new Item("@alice:matrix.org");
+        Item newAlice = new Item("@alice:matrix.org");
+
+        registry.put(alice.mUserId, alice);
+        List<Item> snapshot = registry.getSnapshot();
+        registry.put(newAlice.mUserId, newAlice);
+
+        // a late removal of the previous item
+        assertFalse(registry.remove(alice.mUserId, alice));
+        assertSame(newAlice, registry.get(alice.mUserId));
+
+        assertTrue(registry.remove(newAlice.mUserId, newAlice));
+        assertEquals(0, registry.size());
+
+        // the snapshots are not updated
+        assertSame(alice, snapshot.get(0));
+    }
+
+    @Test
+    public void concurrentUpdatesAreConsistent() throws InterruptedException {
+        final SessionsRegistry<Item> registry = new SessionsRegistry<Item>();
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicInteger failuresCount = new AtomicInteger(0);
+        final CountDownLatch writersLatch = new CountDownLatch(WRITERS_COUNT);
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+
+        // each writer logs its users in and out
+        for (int writer = 0; writer < WRITERS_COUNT; writer++) {
+            final int writerIndex = writer;
+
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int update = 0; update < UPDATES_COUNT; update++) {
+                        String userId = "@user" + writerIndex + "_" + (update % 3) + ":matrix.org";
+                        Item item = new Item(userId);
+                        Item replacedItem = registry.put(userId, item);
+
+                        // the users of a writer are only updated by this writer
+                        if ((null != replacedItem) || !registry.remove(userId, item)) {
+                            failuresCount.incrementAndGet();
+                        }
+                    }
+
+                    registry.put("@user" + writerIndex + ":matrix.org", new Item("@user" + writerIndex + ":matrix.org"));
+                    writersLatch.countDown();
+                }
+            }));
+        }
+
+        for (int reader = 0; reader < READERS_COUNT; reader++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (isRunning.get()) {
+                        List<Item> snapshot = registry.getSnapshot();
+                        HashSet<String> userIds = new HashSet<String>();
+
+                        // a snapshot is never updated while it is iterated
+                        for (Item item : snapshot) {
+                            if (!userIds.add(item.mUserId)) {
+                                failuresCount.incrementAndGet();
+                            }
+                        }
+
+                        for (Item item : snapshot) {
+                            Item currentItem = registry.get(item.mUserId);
+
+                            if ((null != currentItem) && !item.mUserId.equals(currentItem.mUserId)) {
+                                failuresCount.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        writersLatch.await();
+        isRunning.set(false);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failuresCount.get());
+        assertEquals(WRITERS_COUNT, registry.size());
+    }
+}